@@ -0,0 +1,134 @@
+package com.roklenarcic.tree;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.roklenarcic.tree.KDTreeDouble.Point;
+
+/**
+ * Asynchronous queries of a {@link KDTreeDouble}, micro-batched the same way as {@link AsyncKDTreeInt}.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value stored in points.
+ */
+public class AsyncKDTreeDouble<T> {
+
+    private final QueryBatcher batcher;
+    private final KDTreeDouble<T> tree;
+
+    /**
+     * Create asynchronous queries of the tree, which run on virtual threads of an executor shared by all
+     * asynchronous trees, a batch at a time for every processor.
+     *
+     * @param tree
+     *            tree to query
+     */
+    public AsyncKDTreeDouble(KDTreeDouble<T> tree) {
+        this(tree, QueryBatcher.VIRTUAL_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create asynchronous queries of the tree, which run on the executor given.
+     *
+     * @param tree
+     *            tree to query
+     * @param executor
+     *            executor to run the batches of queries on
+     * @param parallelism
+     *            number of batches that run at the same time at most, at least 1
+     */
+    public AsyncKDTreeDouble(KDTreeDouble<T> tree, Executor executor, int parallelism) {
+        this.tree = tree;
+        this.batcher = new QueryBatcher(executor, parallelism);
+    }
+
+    /**
+     * Count the points within the distance given from the coordinates, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param distance
+     *            distance from the query point
+     * @return future of the number of points within the distance
+     */
+    public CompletableFuture<Integer> countWithin(double x, double y, double distance) {
+        return batcher.submit(x, y, () -> tree.countWithin(x, y, distance));
+    }
+
+    /**
+     * Count the points in the rectangle given, borders inclusive.
+     *
+     * @param xMin
+     *            minimum x coordinate of the rectangle
+     * @param yMin
+     *            minimum y coordinate of the rectangle
+     * @param xMax
+     *            maximum x coordinate of the rectangle
+     * @param yMax
+     *            maximum y coordinate of the rectangle
+     * @return future of the number of points in the rectangle
+     */
+    public CompletableFuture<Integer> countInRectangle(double xMin, double yMin, double xMax, double yMax) {
+        return batcher.submit(xMin, yMin, () -> tree.countInRectangle(xMin, yMin, xMax, yMax));
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return future of the point closest to the coordinates given within max distance or null
+     */
+    public CompletableFuture<Point<T>> findNearest(double x, double y, double maxDistance) {
+        return batcher.submit(x, y, () -> tree.findNearest(x, y, maxDistance));
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return future of the points closest to the coordinates given, in order of ascending distance
+     */
+    public CompletableFuture<Iterable<Point<T>>> findNearest(double x, double y, double maxDistance, int numberOfNearest) {
+        return batcher.submit(x, y, () -> tree.findNearest(x, y, maxDistance, numberOfNearest));
+    }
+
+    /**
+     * Find all points within the distance given from the coordinates, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param distance
+     *            distance from the query point
+     * @return future of the points within the distance, in no particular order
+     */
+    public CompletableFuture<List<Point<T>>> findWithin(double x, double y, double distance) {
+        return batcher.submit(x, y, () -> tree.findWithin(x, y, distance));
+    }
+
+    /**
+     * @return the tree queried
+     */
+    public KDTreeDouble<T> getTree() {
+        return tree;
+    }
+}
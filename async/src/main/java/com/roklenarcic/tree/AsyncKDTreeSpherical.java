@@ -0,0 +1,115 @@
+package com.roklenarcic.tree;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+/**
+ * Asynchronous queries of a {@link KDTreeSpherical}, micro-batched the same way as {@link AsyncKDTreeInt}.
+ * Queries of a batch are ordered by their longitude and latitude.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value stored in points.
+ */
+public class AsyncKDTreeSpherical<T> {
+
+    private final QueryBatcher batcher;
+    private final KDTreeSpherical<T> tree;
+
+    /**
+     * Create asynchronous queries of the tree, which run on virtual threads of an executor shared by all
+     * asynchronous trees, a batch at a time for every processor.
+     *
+     * @param tree
+     *            tree to query
+     */
+    public AsyncKDTreeSpherical(KDTreeSpherical<T> tree) {
+        this(tree, QueryBatcher.VIRTUAL_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create asynchronous queries of the tree, which run on the executor given.
+     *
+     * @param tree
+     *            tree to query
+     * @param executor
+     *            executor to run the batches of queries on
+     * @param parallelism
+     *            number of batches that run at the same time at most, at least 1
+     */
+    public AsyncKDTreeSpherical(KDTreeSpherical<T> tree, Executor executor, int parallelism) {
+        this.tree = tree;
+        this.batcher = new QueryBatcher(executor, parallelism);
+    }
+
+    /**
+     * Count the points within the distance given from the coordinates, inclusive.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param distance
+     *            distance from the query point in degrees, in [0, 180] range
+     * @return future of the number of points within the distance
+     */
+    public CompletableFuture<Integer> countWithin(double longitude, double latitude, double distance) {
+        return batcher.submit(longitude, latitude, () -> tree.countWithin(longitude, latitude, distance));
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance of the tree,
+     * inclusive.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @return future of the point closest to the coordinates given within max distance or null
+     */
+    public CompletableFuture<Point<T>> findNearest(double longitude, double latitude) {
+        return batcher.submit(longitude, latitude, () -> tree.findNearest(longitude, latitude));
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance of the
+     * tree, inclusive.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param numberOfNearest
+     *            number of points to return
+     * @return future of the points closest to the coordinates given, in order of ascending distance
+     */
+    public CompletableFuture<Iterable<Point<T>>> findNearest(double longitude, double latitude, int numberOfNearest) {
+        return batcher.submit(longitude, latitude, () -> tree.findNearest(longitude, latitude, numberOfNearest));
+    }
+
+    /**
+     * Find all points within the distance given from the coordinates, inclusive.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param distance
+     *            distance from the query point in degrees, in [0, 180] range
+     * @return future of the points within the distance, in no particular order
+     */
+    public CompletableFuture<List<Point<T>>> findWithin(double longitude, double latitude, double distance) {
+        return batcher.submit(longitude, latitude, () -> tree.findWithin(longitude, latitude, distance));
+    }
+
+    /**
+     * @return the tree queried
+     */
+    public KDTreeSpherical<T> getTree() {
+        return tree;
+    }
+}
@@ -0,0 +1,131 @@
+package com.roklenarcic.tree;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs queries on an executor in batches. Queries submitted while the batches run are queued and taken by the
+ * running batches, so a burst of queries is served by a few tasks instead of a task for every query. Every
+ * batch is sorted along a Hilbert curve over the query points, so queries close on the map run one after
+ * another and find the same nodes of the tree in the cache.
+ *
+ * @author Rok Lenarcic
+ */
+final class QueryBatcher {
+
+    // Queries taken by a batch at most, so a batch doesn't hold the results of the first queries for long.
+    static final int BATCH_SIZE = 64;
+    // Executor of the trees that aren't given one. It's never closed, virtual threads don't keep the JVM alive.
+    static final Executor VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Number of batches running or submitted to the executor.
+    private final AtomicInteger batches = new AtomicInteger();
+    private final Executor executor;
+    private final int parallelism;
+    private final ConcurrentLinkedQueue<Query<?>> queue = new ConcurrentLinkedQueue<Query<?>>();
+
+    QueryBatcher(Executor executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Queue the query made at the point given.
+     *
+     * @return future of the result of the query
+     */
+    <R> CompletableFuture<R> submit(double x, double y, Supplier<R> run) {
+        Query<R> query = new Query<R>(x, y, run);
+        queue.add(query);
+        startBatch();
+        return query.future;
+    }
+
+    private void run() {
+        Query<?>[] batch = new Query<?>[BATCH_SIZE];
+        while (true) {
+            int size = 0;
+            double xMin = Double.POSITIVE_INFINITY, yMin = Double.POSITIVE_INFINITY, xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+            for (Query<?> query; size < BATCH_SIZE && (query = queue.poll()) != null;) {
+                batch[size++] = query;
+                xMin = Math.min(xMin, query.x);
+                yMin = Math.min(yMin, query.y);
+                xMax = Math.max(xMax, query.x);
+                yMax = Math.max(yMax, query.y);
+            }
+            if (size == 0) {
+                batches.decrementAndGet();
+                // A query added after the poll and before the decrement found all the batches running.
+                if (queue.isEmpty() || !tryIncrement()) {
+                    return;
+                }
+                continue;
+            }
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                int index = HilbertCurve.index(HilbertCurve.cell(batch[i].x, xMin, xMax), HilbertCurve.cell(batch[i].y, yMin, yMax));
+                keys[i] = ((long) index << 32) | i;
+            }
+            for (int i : HilbertCurve.order(keys)) {
+                batch[i].complete();
+                batch[i] = null;
+            }
+        }
+    }
+
+    private void startBatch() {
+        if (tryIncrement()) {
+            try {
+                executor.execute(this::run);
+            } catch (RuntimeException e) {
+                // The executor rejected the batch, fail the queries that no other batch will take.
+                if (batches.decrementAndGet() == 0) {
+                    for (Query<?> query; (query = queue.poll()) != null;) {
+                        query.future.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean tryIncrement() {
+        for (int running = batches.get(); running < parallelism; running = batches.get()) {
+            if (batches.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Query with the point it's made at, which orders the queries of a batch.
+     */
+    private static class Query<R> {
+
+        private final CompletableFuture<R> future = new CompletableFuture<R>();
+        private final Supplier<R> run;
+        private final double x;
+        private final double y;
+
+        private Query(double x, double y, Supplier<R> run) {
+            this.x = x;
+            this.y = y;
+            this.run = run;
+        }
+
+        private void complete() {
+            try {
+                future.complete(run.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeDouble.Point;
+
+public class AsyncKDTreeDoubleTest {
+
+    @Test
+    public void testQueries() throws Exception {
+        Random r = new Random();
+        List<Point<Integer>> points = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 10000; i++) {
+            points.add(new Point<Integer>(r.nextDouble() * 100000, r.nextDouble() * 100000, i));
+        }
+        KDTreeDouble<Integer> tree = new KDTreeDouble<Integer>(points, 0, 0, 100000, 100000);
+        AsyncKDTreeDouble<Integer> async = new AsyncKDTreeDouble<Integer>(tree);
+        List<double[]> queries = new ArrayList<double[]>();
+        List<CompletableFuture<Point<Integer>>> nearest = new ArrayList<CompletableFuture<Point<Integer>>>();
+        List<CompletableFuture<Iterable<Point<Integer>>>> fiveNearest = new ArrayList<CompletableFuture<Iterable<Point<Integer>>>>();
+        List<CompletableFuture<List<Point<Integer>>>> within = new ArrayList<CompletableFuture<List<Point<Integer>>>>();
+        List<CompletableFuture<Integer>> counts = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            double x = r.nextDouble() * 100000, y = r.nextDouble() * 100000;
+            queries.add(new double[] { x, y });
+            nearest.add(async.findNearest(x, y, 1000));
+            fiveNearest.add(async.findNearest(x, y, Double.POSITIVE_INFINITY, 5));
+            within.add(async.findWithin(x, y, 2000));
+            counts.add(async.countInRectangle(x, y, x + 3000, y + 3000));
+        }
+        for (int i = 0; i < queries.size(); i++) {
+            double x = queries.get(i)[0], y = queries.get(i)[1];
+            Assert.assertSame(tree.findNearest(x, y, 1000), nearest.get(i).get());
+            Iterator<Point<Integer>> expected = tree.findNearest(x, y, Double.POSITIVE_INFINITY, 5).iterator();
+            for (Point<Integer> p : fiveNearest.get(i).get()) {
+                Assert.assertSame(expected.next(), p);
+            }
+            Assert.assertFalse(expected.hasNext());
+            Map<Point<Integer>, Boolean> found = new IdentityHashMap<Point<Integer>, Boolean>();
+            for (Point<Integer> p : within.get(i).get()) {
+                found.put(p, true);
+            }
+            Assert.assertEquals(tree.countWithin(x, y, 2000), found.size());
+            Assert.assertEquals(tree.countInRectangle(x, y, x + 3000, y + 3000), counts.get(i).get().intValue());
+        }
+        Assert.assertEquals(tree.countWithin(500, 500, 5000), async.countWithin(500, 500, 5000).get().intValue());
+    }
+}
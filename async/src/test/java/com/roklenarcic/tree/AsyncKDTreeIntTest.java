@@ -0,0 +1,139 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+public class AsyncKDTreeIntTest {
+
+    @Test
+    public void speedTestBurst() throws Exception {
+        KDTreeInt<Void> tree = new KDTreeInt<Void>(generateRandomPoints(new Random(1), 200000), 0, 0, 999999, 999999);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        AsyncKDTreeInt<Void> async = new AsyncKDTreeInt<Void>(tree, executor, Runtime.getRuntime().availableProcessors());
+        Random r = new Random(1);
+        for (int round = 0; round < 3; round++) {
+            // A task for every query.
+            long start = System.nanoTime();
+            List<Future<Point<Void>>> futures = new ArrayList<Future<Point<Void>>>();
+            for (int i = 0; i < 200000; i++) {
+                int x = r.nextInt(1000000), y = r.nextInt(1000000);
+                futures.add(executor.submit(() -> tree.findNearest(x, y, Integer.MAX_VALUE)));
+            }
+            long sum = 0;
+            for (Future<Point<Void>> f : futures) {
+                sum += f.get().getX();
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / 200000 + " for a task for every query.");
+            start = System.nanoTime();
+            List<CompletableFuture<Point<Void>>> batched = new ArrayList<CompletableFuture<Point<Void>>>();
+            for (int i = 0; i < 200000; i++) {
+                batched.add(async.findNearest(r.nextInt(1000000), r.nextInt(1000000), Integer.MAX_VALUE));
+            }
+            sum = 0;
+            for (CompletableFuture<Point<Void>> f : batched) {
+                sum += f.get().getX();
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / 200000 + " for batched queries.");
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        Random r = new Random();
+        List<Point<Integer>> points = generateRandomPoints(r, 20000);
+        KDTreeInt<Integer> tree = new KDTreeInt<Integer>(points, 0, 0, 999999, 999999);
+        AsyncKDTreeInt<Integer> async = new AsyncKDTreeInt<Integer>(tree);
+        // Callers on many threads at once, each checking its results against the tree.
+        List<Thread> callers = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int t = 0; t < 8; t++) {
+            final long seed = r.nextLong();
+            callers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    Random random = new Random(seed);
+                    List<int[]> queries = new ArrayList<int[]>();
+                    List<CompletableFuture<Point<Integer>>> nearest = new ArrayList<CompletableFuture<Point<Integer>>>();
+                    List<CompletableFuture<Iterable<Point<Integer>>>> fiveNearest = new ArrayList<CompletableFuture<Iterable<Point<Integer>>>>();
+                    List<CompletableFuture<Integer>> counts = new ArrayList<CompletableFuture<Integer>>();
+                    for (int i = 0; i < 2000; i++) {
+                        int x = random.nextInt(1000000), y = random.nextInt(1000000);
+                        queries.add(new int[] { x, y });
+                        nearest.add(async.findNearest(x, y, 5000));
+                        fiveNearest.add(async.findNearest(x, y, Integer.MAX_VALUE, 5));
+                        counts.add(async.countWithin(x, y, 20000));
+                    }
+                    for (int i = 0; i < queries.size(); i++) {
+                        int x = queries.get(i)[0], y = queries.get(i)[1];
+                        Assert.assertSame(tree.findNearest(x, y, 5000), nearest.get(i).get());
+                        Iterator<Point<Integer>> expected = tree.findNearest(x, y, Integer.MAX_VALUE, 5).iterator();
+                        for (Point<Integer> p : fiveNearest.get(i).get()) {
+                            Assert.assertSame(expected.next(), p);
+                        }
+                        Assert.assertFalse(expected.hasNext());
+                        Assert.assertEquals(tree.countWithin(x, y, 20000), counts.get(i).get().intValue());
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(tree.countInRectangle(0, 0, 500000, 500000), async.countInRectangle(0, 0, 500000, 500000).get().intValue());
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        KDTreeInt<Integer> tree = new KDTreeInt<Integer>(generateRandomPoints(new Random(), 100), 0, 0, 999999, 999999);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        QueryBatcher batcher = new QueryBatcher(executor, 1);
+        // A query that throws fails its own future only.
+        CompletableFuture<Integer> failed = batcher.submit(0, 0, () -> {
+            throw new IllegalStateException();
+        });
+        CompletableFuture<Point<Integer>> nearest = batcher.submit(0, 0, () -> tree.findNearest(0, 0, Integer.MAX_VALUE));
+        try {
+            failed.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertSame(tree.findNearest(0, 0, Integer.MAX_VALUE), nearest.get());
+        executor.shutdown();
+        // Queries the executor rejects fail.
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        try {
+            new AsyncKDTreeInt<Integer>(tree, shutDown, 2).findNearest(0, 0, Integer.MAX_VALUE).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private <T> List<Point<T>> generateRandomPoints(Random r, int number) {
+        List<Point<T>> points = new ArrayList<Point<T>>();
+        for (int i = 0; i < number; i++) {
+            points.add(new Point<T>(r.nextInt(1000000), r.nextInt(1000000), null));
+        }
+        return points;
+    }
+}
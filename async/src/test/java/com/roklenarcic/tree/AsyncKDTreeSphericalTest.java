@@ -0,0 +1,54 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+public class AsyncKDTreeSphericalTest {
+
+    @Test
+    public void testQueries() throws Exception {
+        Random r = new Random();
+        List<Point<Integer>> points = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 10000; i++) {
+            points.add(new Point<Integer>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90, i));
+        }
+        KDTreeSpherical<Integer> tree = new KDTreeSpherical<Integer>(points, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AsyncKDTreeSpherical<Integer> async = new AsyncKDTreeSpherical<Integer>(tree, executor, 2);
+        List<double[]> queries = new ArrayList<double[]>();
+        List<CompletableFuture<Point<Integer>>> nearest = new ArrayList<CompletableFuture<Point<Integer>>>();
+        List<CompletableFuture<Iterable<Point<Integer>>>> fiveNearest = new ArrayList<CompletableFuture<Iterable<Point<Integer>>>>();
+        List<CompletableFuture<List<Point<Integer>>>> within = new ArrayList<CompletableFuture<List<Point<Integer>>>>();
+        List<CompletableFuture<Integer>> counts = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            double longitude = r.nextDouble() * 360 - 180, latitude = r.nextDouble() * 180 - 90;
+            queries.add(new double[] { longitude, latitude });
+            nearest.add(async.findNearest(longitude, latitude));
+            fiveNearest.add(async.findNearest(longitude, latitude, 5));
+            within.add(async.findWithin(longitude, latitude, 3));
+            counts.add(async.countWithin(longitude, latitude, 5));
+        }
+        for (int i = 0; i < queries.size(); i++) {
+            double longitude = queries.get(i)[0], latitude = queries.get(i)[1];
+            Assert.assertSame(tree.findNearest(longitude, latitude), nearest.get(i).get());
+            Iterator<Point<Integer>> expected = tree.findNearest(longitude, latitude, 5).iterator();
+            for (Point<Integer> p : fiveNearest.get(i).get()) {
+                Assert.assertSame(expected.next(), p);
+            }
+            Assert.assertFalse(expected.hasNext());
+            Assert.assertEquals(tree.countWithin(longitude, latitude, 3), within.get(i).get().size());
+            Assert.assertEquals(tree.countWithin(longitude, latitude, 5), counts.get(i).get().intValue());
+        }
+        executor.shutdown();
+    }
+}
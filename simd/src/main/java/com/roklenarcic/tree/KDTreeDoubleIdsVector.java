@@ -0,0 +1,373 @@
+package com.roklenarcic.tree;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 2-D tree with coordinates of the double type and int ids, which computes distances with SIMD instructions
+ * through the Vector API.
+ *
+ * The tree has the same flat layout as {@link KDTreeDoubleIds}, but ranges of points that are small enough
+ * aren't split further. Such a range is a bucket, which is scanned whole, computing the distances of as many
+ * points at once as the vector registers of the machine hold, e.g. 4 with AVX2 and 8 with AVX-512.
+ *
+ * Needs Java 21 with the jdk.incubator.vector module added to the JVM (--add-modules jdk.incubator.vector).
+ * The class is in the package of the core library to read the arrays of {@link PointStoreDouble}, so both jars
+ * must be on the class path. As named modules they would split the package.
+ *
+ * Queries return the ids of the points. The id -1 is returned when no point is found, so ids shouldn't be
+ * negative.
+ *
+ * @author Rok Lenarcic
+ */
+public class KDTreeDoubleIdsVector {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Ranges with up to this many points are scanned whole instead of split.
+    private static final int BUCKET_SIZE = 4 * SPECIES.length();
+
+    // Number of levels of the tree above the buckets.
+    private final int height;
+    private final int[] ids;
+    private final double xMax;
+    private final double xMin;
+    private final double[] xs;
+    private final double yMax;
+    private final double yMin;
+    private final double[] ys;
+
+    /**
+     * Build a tree from arrays of coordinates and ids, where the point i is given by xs[i], ys[i] and ids[i].
+     * The map area is limited by the limits given, inclusive.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public KDTreeDoubleIdsVector(double[] xs, double[] ys, int[] ids, double xMin, double yMin, double xMax, double yMax) {
+        if (xMin < xMax && yMin < yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+            if (xs.length != ys.length || (ids != null && xs.length != ids.length)) {
+                throw new IllegalArgumentException("Coordinate and id arrays have different lengths.");
+            }
+            for (int i = 0; i < xs.length; i++) {
+                if (xs[i] > xMax || xs[i] < xMin || ys[i] > yMax || ys[i] < yMin) {
+                    throw new IllegalArgumentException("Point X=" + xs[i] + ", Y=" + ys[i] + " has coordinates out of the tree area.");
+                }
+            }
+            this.xs = xs.clone();
+            this.ys = ys.clone();
+            this.ids = ids == null ? PointStoreInt.indexes(xs.length) : ids.clone();
+            this.height = 32 - Integer.numberOfLeadingZeros(xs.length);
+            buildTree(0, xs.length, this.xs, this.ys);
+        } else {
+            throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
+        }
+    }
+
+    /**
+     * Build a tree over the points of the store. The points are copied, since the buckets must be contiguous
+     * in memory.
+     *
+     * @param store
+     *            points with coordinates and ids
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public KDTreeDoubleIdsVector(PointStoreDouble store, double xMin, double yMin, double xMax, double yMax) {
+        this(store.xs, store.ys, store.ids, xMin, yMin, xMax, yMax);
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The smaller the maximum distance, the faster the query.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the id of the point in the tree closest to the coordinates given within max distance or -1
+     */
+    public int findNearest(double x, double y, double maxDistance) {
+        NearestIds nearest = new NearestIds(1, maxDistance * maxDistance);
+        search(x, y, nearest);
+        return nearest.size == 0 ? -1 : ids[nearest.indexes[0]];
+    }
+
+    /**
+     * Find the nearest point to each of the query points given, that is within the maximum distance given,
+     * inclusive. The query point i is given by xs[i] and ys[i].
+     *
+     * @param xs
+     *            x coordinates of the query points
+     * @param ys
+     *            y coordinates of the query points
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return ids of the points in the tree closest to the query points, -1 where no point is found
+     */
+    public int[] findNearest(double[] xs, double[] ys, double maxDistance) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Coordinate arrays have different lengths.");
+        }
+        int[] ret = new int[xs.length];
+        // The lists and the search stack are reused for all the queries of the batch.
+        NearestIds nearest = new NearestIds(1, 0);
+        int[] pendingRanges = new int[3 * height];
+        double[] pendingDistances = new double[height];
+        for (int i = 0; i < ret.length; i++) {
+            nearest.reset(maxDistance * maxDistance);
+            search(xs[i], ys[i], nearest, pendingRanges, pendingDistances);
+            ret[i] = nearest.size == 0 ? -1 : ids[nearest.indexes[0]];
+        }
+        return ret;
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The ids returned are sorted from the
+     * closest point to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return ids of the points in the tree closest to the coordinates given, in order of ascending distance
+     */
+    public int[] findNearest(double x, double y, double maxDistance, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return new int[0];
+        }
+        NearestIds nearest = new NearestIds(numberOfNearest, maxDistance * maxDistance);
+        search(x, y, nearest);
+        int[] ret = new int[nearest.size];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ids[nearest.indexes[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * @return number of points in the tree
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    private void buildTree(int lo, int hi, double[] axisValues, double[] otherValues) {
+        if (hi - lo > BUCKET_SIZE) {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, axisValues);
+            // Smaller half has points with axis values less or equal to the node, the bigger half greater or
+            // equal.
+            buildTree(lo, mid, otherValues, axisValues);
+            buildTree(mid + 1, hi, otherValues, axisValues);
+        }
+    }
+
+    /**
+     * Checks all the points in the bucket [lo, hi), a vector of points at a time.
+     */
+    private void scan(int lo, int hi, DoubleVector queryX, DoubleVector queryY, NearestIds currentBest) {
+        int lanes = SPECIES.length();
+        int i = lo;
+        for (int upper = lo + SPECIES.loopBound(hi - lo); i < upper; i += lanes) {
+            DoubleVector diffX = DoubleVector.fromArray(SPECIES, xs, i).sub(queryX);
+            DoubleVector diffY = DoubleVector.fromArray(SPECIES, ys, i).sub(queryY);
+            DoubleVector d = diffX.fma(diffX, diffY.mul(diffY));
+            VectorMask<Double> closer = d.compare(VectorOperators.LE, currentBest.distance);
+            if (closer.anyTrue()) {
+                // Rarely any point is closer, those few are inserted one by one.
+                d.intoArray(currentBest.scratch, 0);
+                for (int lane = closer.firstTrue(); lane < lanes; lane++) {
+                    if (currentBest.scratch[lane] <= currentBest.distance) {
+                        currentBest.insert(i + lane, currentBest.scratch[lane]);
+                    }
+                }
+            }
+        }
+        double x = queryX.lane(0), y = queryY.lane(0);
+        for (; i < hi; i++) {
+            double diffX = x - xs[i];
+            double diffY = y - ys[i];
+            double d = diffX * diffX + diffY * diffY;
+            if (d <= currentBest.distance) {
+                currentBest.insert(i, d);
+            }
+        }
+    }
+
+    private void search(double x, double y, NearestIds currentBest) {
+        search(x, y, currentBest, new int[3 * height], new double[height]);
+    }
+
+    private void search(double x, double y, NearestIds currentBest, int[] pendingRanges, double[] pendingDistances) {
+        // Farther subtrees still to be searched, with their range, axis and squared distance from the query to
+        // their splitting line.
+        int pending = 0;
+        int lo = 0, hi = xs.length, axis = 0;
+        DoubleVector queryX = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector queryY = DoubleVector.broadcast(SPECIES, y);
+        while (true) {
+            // Go down the closer side, checking the nodes on the way.
+            while (hi - lo > BUCKET_SIZE) {
+                int mid = (lo + hi) >>> 1;
+                // Negative number means this point is on the left to the query point.
+                double diffAxis, diffOther;
+                if (axis == 0) {
+                    diffAxis = x - xs[mid];
+                    diffOther = y - ys[mid];
+                } else {
+                    diffAxis = y - ys[mid];
+                    diffOther = x - xs[mid];
+                }
+                double distanceToHyperplane = diffAxis * diffAxis;
+                double d = distanceToHyperplane + diffOther * diffOther;
+                if (d <= currentBest.distance) {
+                    currentBest.insert(mid, d);
+                }
+                axis ^= 1;
+                if (diffAxis >= 0) {
+                    if (distanceToHyperplane <= currentBest.distance) {
+                        pendingRanges[3 * pending] = lo;
+                        pendingRanges[3 * pending + 1] = mid;
+                        pendingRanges[3 * pending + 2] = axis;
+                        pendingDistances[pending++] = distanceToHyperplane;
+                    }
+                    lo = mid + 1;
+                } else {
+                    if (distanceToHyperplane <= currentBest.distance) {
+                        pendingRanges[3 * pending] = mid + 1;
+                        pendingRanges[3 * pending + 1] = hi;
+                        pendingRanges[3 * pending + 2] = axis;
+                        pendingDistances[pending++] = distanceToHyperplane;
+                    }
+                    hi = mid;
+                }
+            }
+            scan(lo, hi, queryX, queryY, currentBest);
+            // Continue with the last pending subtree that the line still intersects.
+            do {
+                if (pending == 0) {
+                    return;
+                }
+                pending--;
+            } while (pendingDistances[pending] > currentBest.distance);
+            lo = pendingRanges[3 * pending];
+            hi = pendingRanges[3 * pending + 1];
+            axis = pendingRanges[3 * pending + 2];
+        }
+    }
+
+    /**
+     * Moves the k-th smallest key in the range [lo, hi] to index k, with smaller or equal keys before it and
+     * greater or equal keys after it.
+     */
+    private void select(int lo, int hi, int k, double[] keys) {
+        while (hi > lo) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    /**
+     * Indexes of the nearest points found so far, sorted by ascending distance. When all slots are taken the
+     * distance of the search is the distance of the last one.
+     */
+    private static class NearestIds {
+
+        private double distance;
+        private final double[] distances;
+        private final int[] indexes;
+        // Distances of a vector of points.
+        private final double[] scratch = new double[SPECIES.length()];
+        private int size;
+
+        private NearestIds(int length, double distance) {
+            this.distances = new double[length];
+            this.indexes = new int[length];
+            reset(distance);
+        }
+
+        private void insert(int index, double d) {
+            int i = size < indexes.length ? size++ : size - 1;
+            // Shift farther points to the right, dropping the farthest one if full.
+            while (i > 0 && distances[i - 1] > d) {
+                distances[i] = distances[i - 1];
+                indexes[i] = indexes[i - 1];
+                i--;
+            }
+            distances[i] = d;
+            indexes[i] = index;
+            if (size == indexes.length) {
+                distance = distances[size - 1];
+            }
+        }
+
+        private void reset(double distance) {
+            // Nothing fits in an empty list.
+            this.distance = indexes.length == 0 ? -1 : distance;
+            this.size = 0;
+        }
+    }
+}
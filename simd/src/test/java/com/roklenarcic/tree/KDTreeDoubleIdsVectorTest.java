@@ -0,0 +1,105 @@
+package com.roklenarcic.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KDTreeDoubleIdsVectorTest {
+
+    @Test
+    public void speedTestRandom() {
+        double[][] data = generateRandomPoints(40000, 1000000);
+        KDTreeDoubleIdsVector k = new KDTreeDoubleIdsVector(data[0], data[1], null, 0, 0, 1000000, 1000000);
+        double[][] checkPoints = generateRandomPoints(1000, 1000000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < checkPoints[0].length; j++) {
+                sum += k.findNearest(checkPoints[0][j], checkPoints[1][j], Double.MAX_VALUE);
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints[0].length));
+    }
+
+    @Test
+    public void testBatch() {
+        double[][] data = generateRandomPoints(3000, 100000);
+        double[][] checkPoints = generateRandomPoints(1000, 100000);
+        KDTreeDoubleIdsVector k = new KDTreeDoubleIdsVector(new PointStoreDouble(data[0], data[1], null), 0, 0, 100000, 100000);
+        int[] found = k.findNearest(checkPoints[0], checkPoints[1], 1000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            Assert.assertEquals(k.findNearest(checkPoints[0][j], checkPoints[1][j], 1000), found[j]);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KDTreeDoubleIdsVector k = new KDTreeDoubleIdsVector(new double[0], new double[0], null, 0, 0, 10, 10);
+        Assert.assertEquals(-1, k.findNearest(1, 1, Double.MAX_VALUE));
+        Assert.assertEquals(0, k.findNearest(1, 1, Double.MAX_VALUE, 3).length);
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        double[][] data = generateRandomPoints(3000, 100000);
+        double[][] checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeDoubleIdsVector k = new KDTreeDoubleIdsVector(data[0], data[1], null, 0, 0, 100000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            double[] expected = new double[data[0].length];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = distance(x, y, data, i);
+            }
+            Arrays.sort(expected);
+            int[] found = k.findNearest(x, y, Double.MAX_VALUE, 10);
+            Assert.assertEquals(10, found.length);
+            for (int i = 0; i < found.length; i++) {
+                Assert.assertEquals(expected[i], distance(x, y, data, found[i]), 0);
+            }
+        }
+        Assert.assertEquals(0, k.findNearest(1, 1, Double.MAX_VALUE, 0).length);
+        Assert.assertEquals(0, k.findNearest(1, 1, Double.MAX_VALUE, -1).length);
+    }
+
+    @Test
+    public void testRandom() {
+        double[][] data = generateRandomPoints(3000, 100000);
+        double[][] checkPoints = generateRandomPoints(10000, 100000);
+        KDTreeDoubleIdsVector k = new KDTreeDoubleIdsVector(data[0], data[1], null, 0, 0, 100000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            double minDist = Double.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Double.MAX_VALUE)), 0);
+        }
+    }
+
+    @Test
+    public void testSmallMaxDistance() {
+        double[][] data = generateRandomPoints(3000, 100000);
+        KDTreeDoubleIdsVector k = new KDTreeDoubleIdsVector(data[0], data[1], null, 0, 0, 100000, 100000);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(0, distance(data[0][i], data[1][i], data, k.findNearest(data[0][i], data[1][i], 0)), 0);
+        }
+    }
+
+    private double distance(double x, double y, double[][] data, int id) {
+        double dx = data[0][id] - x;
+        double dy = data[1][id] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private double[][] generateRandomPoints(int number, int range) {
+        Random r = new Random();
+        double[][] points = new double[2][number];
+        for (int i = 0; i < number; i++) {
+            points[0][i] = r.nextDouble() * range;
+            points[1][i] = r.nextDouble() * range;
+        }
+        return points;
+    }
+}
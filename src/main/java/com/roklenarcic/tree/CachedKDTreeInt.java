@@ -0,0 +1,135 @@
+package com.roklenarcic.tree;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+/**
+ * {@link KDTreeInt} with a cache of query results in front of it, for traffic where a small set of locations
+ * makes most of the queries.
+ *
+ * Query points are snapped to the center of their cell in a grid with the cell size given, and queries with
+ * the same cell, max distance and number of points share the result. With the cell size 1 the results are
+ * exactly the ones of the tree. The tree can be replaced, which clears the cache.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class CachedKDTreeInt<T> {
+
+    private final ResultCache<Iterable<Point<T>>> cache;
+    private final int cellSize;
+    private volatile KDTreeInt<T> tree;
+
+    /**
+     * New cache in front of the tree.
+     *
+     * @param tree
+     *            the tree
+     * @param cellSize
+     *            size of the cells of the grid query points are snapped to, at least 1
+     * @param maximumSize
+     *            maximum number of results in the cache
+     */
+    public CachedKDTreeInt(KDTreeInt<T> tree, int cellSize, int maximumSize) {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("Cell size must be at least 1.");
+        }
+        this.tree = tree;
+        this.cellSize = cellSize;
+        this.cache = new ResultCache<Iterable<Point<T>>>(maximumSize);
+    }
+
+    /**
+     * Find the nearest point to the center of the cell of the coordinates given, that is within the maximum
+     * distance given, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearest(int x, int y, int maxDistance) {
+        Iterator<Point<T>> iter = find(x, y, maxDistance, 0).iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    /**
+     * Find a number of nearest points to the center of the cell of the coordinates given that are within the
+     * maximum distance given, inclusive. The points returned are sorted from the closest to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearest(int x, int y, int maxDistance, int numberOfNearest) {
+        return find(x, y, maxDistance, numberOfNearest);
+    }
+
+    /**
+     *
+     * @return the cache with its counters
+     */
+    public ResultCache<Iterable<Point<T>>> getCache() {
+        return cache;
+    }
+
+    /**
+     *
+     * @return the tree
+     */
+    public KDTreeInt<T> getTree() {
+        return tree;
+    }
+
+    /**
+     * Replaces the tree and clears the cache.
+     *
+     * @param tree
+     *            the new tree
+     */
+    public void setTree(KDTreeInt<T> tree) {
+        this.tree = tree;
+        cache.clear();
+    }
+
+    // Number 0 means the single nearest point.
+    private Iterable<Point<T>> find(int x, int y, int maxDistance, int numberOfNearest) {
+        long cellX = floorDiv(x, cellSize);
+        long cellY = floorDiv(y, cellSize);
+        ResultCache.Key key = new ResultCache.Key(cellX, cellY, maxDistance, numberOfNearest);
+        Iterable<Point<T>> result = cache.get(key);
+        if (result == null) {
+            int generation = cache.generation();
+            KDTreeInt<T> t = tree;
+            int centerX = (int) (cellX * cellSize + cellSize / 2);
+            int centerY = (int) (cellY * cellSize + cellSize / 2);
+            if (numberOfNearest == 0) {
+                Point<T> p = t.findNearest(centerX, centerY, maxDistance);
+                result = p == null ? Collections.<Point<T>> emptyList() : Collections.singletonList(p);
+            } else {
+                result = t.findNearest(centerX, centerY, maxDistance, numberOfNearest);
+            }
+            cache.put(key, result, generation);
+        }
+        return result;
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        return q * b > a ? q - 1 : q;
+    }
+}
@@ -0,0 +1,129 @@
+package com.roklenarcic.tree;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+/**
+ * {@link KDTreeSpherical} with a cache of query results in front of it, for traffic where a small set of
+ * locations makes most of the queries.
+ *
+ * Query points are snapped to the center of their cell in a grid of longitudes and latitudes with the cell
+ * size given in degrees, and queries with the same cell and number of points share the result. The smaller
+ * the cell size the closer the results are to the ones of the tree, and the lower the hit rate. The tree can
+ * be replaced, which clears the cache.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class CachedKDTreeSpherical<T> {
+
+    private final ResultCache<Iterable<Point<T>>> cache;
+    private final double cellSize;
+    private volatile KDTreeSpherical<T> tree;
+
+    /**
+     * New cache in front of the tree.
+     *
+     * @param tree
+     *            the tree
+     * @param cellSize
+     *            size of the cells of the grid query points are snapped to, greater than 0
+     * @param maximumSize
+     *            maximum number of results in the cache
+     */
+    public CachedKDTreeSpherical(KDTreeSpherical<T> tree, double cellSize, int maximumSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be greater than 0.");
+        }
+        this.tree = tree;
+        this.cellSize = cellSize;
+        this.cache = new ResultCache<Iterable<Point<T>>>(maximumSize);
+    }
+
+    /**
+     * Find the nearest point to the center of the cell of the coordinates given, that is within the maximum
+     * distance of the tree.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearest(double longitude, double latitude) {
+        Iterator<Point<T>> iter = find(longitude, latitude, 0).iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    /**
+     * Find a number of nearest points to the center of the cell of the coordinates given that are within the
+     * maximum distance of the tree. The points returned are sorted from the closest to the farthest.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearest(double longitude, double latitude, int numberOfNearest) {
+        return find(longitude, latitude, numberOfNearest);
+    }
+
+    /**
+     *
+     * @return the cache with its counters
+     */
+    public ResultCache<Iterable<Point<T>>> getCache() {
+        return cache;
+    }
+
+    /**
+     *
+     * @return the tree
+     */
+    public KDTreeSpherical<T> getTree() {
+        return tree;
+    }
+
+    /**
+     * Replaces the tree and clears the cache.
+     *
+     * @param tree
+     *            the new tree
+     */
+    public void setTree(KDTreeSpherical<T> tree) {
+        this.tree = tree;
+        cache.clear();
+    }
+
+    // Number 0 means the single nearest point.
+    private Iterable<Point<T>> find(double longitude, double latitude, int numberOfNearest) {
+        long cellX = (long) Math.floor(longitude / cellSize);
+        long cellY = (long) Math.floor(latitude / cellSize);
+        ResultCache.Key key = new ResultCache.Key(cellX, cellY, 0, numberOfNearest);
+        Iterable<Point<T>> result = cache.get(key);
+        if (result == null) {
+            int generation = cache.generation();
+            KDTreeSpherical<T> t = tree;
+            // Cells on the edges of the map reach over it.
+            double centerX = Math.max(-180, Math.min(180, (cellX + 0.5) * cellSize));
+            double centerY = Math.max(-90, Math.min(90, (cellY + 0.5) * cellSize));
+            if (numberOfNearest == 0) {
+                Point<T> p = t.findNearest(centerX, centerY);
+                result = p == null ? Collections.<Point<T>> emptyList() : Collections.singletonList(p);
+            } else {
+                result = t.findNearest(centerX, centerY, numberOfNearest);
+            }
+            cache.put(key, result, generation);
+        }
+        return result;
+    }
+
+}
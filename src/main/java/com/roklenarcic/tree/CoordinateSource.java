@@ -0,0 +1,24 @@
+package com.roklenarcic.tree;
+
+/**
+ * Source of the exact coordinates of points by their index, for indexes that don't keep the exact coordinates
+ * themselves. The coordinates of an index must not change while an index built over the source is used.
+ *
+ * @author Rok Lenarcic
+ */
+public interface CoordinateSource {
+
+    /**
+     * @param index
+     *            index of a point
+     * @return the x coordinate of the point
+     */
+    double getX(int index);
+
+    /**
+     * @param index
+     *            index of a point
+     * @return the y coordinate of the point
+     */
+    double getY(int index);
+}
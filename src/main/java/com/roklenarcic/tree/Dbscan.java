@@ -0,0 +1,356 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * DBSCAN clustering of points on a plane, with a {@link KDTreeDouble}, or on a sphere, with a
+ * {@link KDTreeSpherical}.
+ *
+ * A point is a core point if there are at least the minimum number of points within the distance from it,
+ * itself included. Core points within the distance of each other are in the same cluster. A point that isn't
+ * a core point is in the cluster of the nearest core point within the distance, or noise if there's none.
+ *
+ * Core points are found by counting the neighbourhoods in the tree, where subtrees entirely within the
+ * distance are counted without visiting their points, so only the core points list their neighbours. Points
+ * are processed in the order of the tree, so the points processed together are close together, in chunks
+ * that run in parallel. Clusters are joined in a concurrent union-find, so the result doesn't depend on the
+ * order the chunks run in.
+ *
+ * The result is an array with the cluster of every point, in the input order. Clusters are numbered from 0,
+ * in the order of their first point in the input, and noise is {@link #NOISE}.
+ *
+ * @author Rok Lenarcic
+ */
+public class Dbscan {
+
+    // Points processed by one task.
+    static final int CHUNK = 1024;
+    private static final double DEGREES_IN_RADIAN = 57.29577951308233;
+    public static final int NOISE = -1;
+
+    /**
+     * Cluster the points on a plane, on a thread for each processor.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param distance
+     *            distance of the neighbourhood of a point, inclusive
+     * @param minPoints
+     *            number of points in the neighbourhood of a core point, the point included
+     * @return clusters of the points in the input order
+     */
+    public static int[] cluster(double[] xs, double[] ys, double distance, int minPoints) {
+        return cluster(xs, ys, distance, minPoints, null);
+    }
+
+    /**
+     * Cluster the points on a plane, with the executor given.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param distance
+     *            distance of the neighbourhood of a point, inclusive
+     * @param minPoints
+     *            number of points in the neighbourhood of a core point, the point included
+     * @param executor
+     *            executor to process the points with, if null a thread for each processor is used
+     * @return clusters of the points in the input order
+     */
+    public static int[] cluster(final double[] xs, final double[] ys, final double distance, int minPoints, ExecutorService executor) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Coordinate arrays have different lengths.");
+        }
+        validate(distance, minPoints);
+        double xMin = Double.POSITIVE_INFINITY, yMin = Double.POSITIVE_INFINITY, xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+        List<KDTreeDouble.Point<Integer>> points = new ArrayList<KDTreeDouble.Point<Integer>>(xs.length);
+        for (int i = 0; i < xs.length; i++) {
+            xMin = Math.min(xMin, xs[i]);
+            yMin = Math.min(yMin, ys[i]);
+            xMax = Math.max(xMax, xs[i]);
+            yMax = Math.max(yMax, ys[i]);
+            points.add(new KDTreeDouble.Point<Integer>(xs[i], ys[i], i));
+        }
+        // The tree area must not be empty, also when all the points are on a line.
+        final KDTreeDouble<Integer> tree = xs.length == 0 ? null : new KDTreeDouble<Integer>(points, xMin, yMin, xMax > xMin ? xMax : xMin + 1, yMax > yMin ? yMax
+                : yMin + 1);
+        // Building the tree sorts the list into the tree order.
+        int[] order = new int[points.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = points.get(i).getValue();
+        }
+        return cluster(new Space(order, minPoints) {
+
+            int count(int i) {
+                return tree.countWithin(xs[i], ys[i], distance);
+            }
+
+            double distance(int i, int j) {
+                double dx = xs[i] - xs[j], dy = ys[i] - ys[j];
+                return dx * dx + dy * dy;
+            }
+
+            void neighbours(int i, List<Integer> neighbours) {
+                for (KDTreeDouble.Point<Integer> p : tree.findWithin(xs[i], ys[i], distance)) {
+                    neighbours.add(p.getValue());
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Cluster the points on a sphere, on a thread for each processor.
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param distance
+     *            distance of the neighbourhood of a point in degrees, inclusive, in [0, 180] range
+     * @param minPoints
+     *            number of points in the neighbourhood of a core point, the point included
+     * @return clusters of the points in the input order
+     */
+    public static int[] clusterSpherical(double[] longitudes, double[] latitudes, double distance, int minPoints) {
+        return clusterSpherical(longitudes, latitudes, distance, minPoints, null);
+    }
+
+    /**
+     * Cluster the points on a sphere, with the executor given.
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param distance
+     *            distance of the neighbourhood of a point in degrees, inclusive, in [0, 180] range
+     * @param minPoints
+     *            number of points in the neighbourhood of a core point, the point included
+     * @param executor
+     *            executor to process the points with, if null a thread for each processor is used
+     * @return clusters of the points in the input order
+     */
+    public static int[] clusterSpherical(final double[] longitudes, final double[] latitudes, final double distance, int minPoints, ExecutorService executor) {
+        if (longitudes.length != latitudes.length) {
+            throw new IllegalArgumentException("Coordinate arrays have different lengths.");
+        }
+        validate(distance, minPoints);
+        List<KDTreeSpherical.Point<Integer>> points = new ArrayList<KDTreeSpherical.Point<Integer>>(longitudes.length);
+        for (int i = 0; i < longitudes.length; i++) {
+            points.add(new KDTreeSpherical.Point<Integer>(longitudes[i], latitudes[i], i));
+        }
+        final KDTreeSpherical<Integer> tree = new KDTreeSpherical<Integer>(points, distance);
+        int[] order = new int[points.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = points.get(i).getValue();
+        }
+        return cluster(new Space(order, minPoints) {
+
+            int count(int i) {
+                return tree.countWithin(longitudes[i], latitudes[i], distance);
+            }
+
+            double distance(int i, int j) {
+                // Haversine, without the steps that don't change the order of the distances.
+                double sinLatitude = Math.sin((latitudes[i] - latitudes[j]) / 2 / DEGREES_IN_RADIAN);
+                double sinLongitude = Math.sin((longitudes[i] - longitudes[j]) / 2 / DEGREES_IN_RADIAN);
+                return sinLatitude * sinLatitude + Math.cos(latitudes[i] / DEGREES_IN_RADIAN) * Math.cos(latitudes[j] / DEGREES_IN_RADIAN) * sinLongitude
+                        * sinLongitude;
+            }
+
+            void neighbours(int i, List<Integer> neighbours) {
+                for (KDTreeSpherical.Point<Integer> p : tree.findWithin(longitudes[i], latitudes[i], distance)) {
+                    neighbours.add(p.getValue());
+                }
+            }
+        }, executor);
+    }
+
+    private static int[] cluster(final Space space, ExecutorService executor) {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                return cluster(space, executor);
+            } finally {
+                executor.shutdown();
+            }
+        }
+        int length = space.order.length;
+        // Core points, then the clusters of the core points, then the clusters of the rest of the points.
+        run(space, executor, 0);
+        run(space, executor, 1);
+        run(space, executor, 2);
+        int[] clusters = new int[length];
+        int[] clusterOfRoot = new int[length];
+        for (int i = 0; i < length; i++) {
+            clusterOfRoot[i] = NOISE;
+        }
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            int owner = space.owners[i];
+            if (owner == NOISE) {
+                clusters[i] = NOISE;
+            } else {
+                int root = find(space.parents, owner);
+                if (clusterOfRoot[root] == NOISE) {
+                    clusterOfRoot[root] = count++;
+                }
+                clusters[i] = clusterOfRoot[root];
+            }
+        }
+        return clusters;
+    }
+
+    private static int find(AtomicIntegerArray parents, int i) {
+        while (true) {
+            int parent = parents.get(i);
+            if (parent == i) {
+                return i;
+            }
+            // Halve the path on the way, another thread may have done it already.
+            int grandparent = parents.get(parent);
+            if (grandparent != parent) {
+                parents.compareAndSet(i, parent, grandparent);
+            }
+            i = parent;
+        }
+    }
+
+    private static void run(final Space space, ExecutorService executor, final int phase) {
+        List<Future<?>> chunks = new ArrayList<Future<?>>();
+        for (int i = 0; i < space.order.length; i += CHUNK) {
+            final int from = i, to = Math.min(space.order.length, i + CHUNK);
+            chunks.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    space.process(from, to, phase);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while clustering.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new IllegalStateException("Clustering failed.", e.getCause());
+            }
+        }
+    }
+
+    private static void union(AtomicIntegerArray parents, int a, int b) {
+        while (true) {
+            a = find(parents, a);
+            b = find(parents, b);
+            if (a == b) {
+                return;
+            }
+            // The larger root is linked to the smaller one, so there are no cycles. If the root changed in the
+            // meantime, try again.
+            if (a < b ? parents.compareAndSet(b, b, a) : parents.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+
+    private static void validate(double distance, int minPoints) {
+        if (!(distance >= 0) || minPoints < 1) {
+            throw new IllegalArgumentException("Distance must be at least 0 and minimum number of points at least 1.");
+        }
+    }
+
+    /**
+     * Points of a tree with their neighbourhoods, and the state of the clustering.
+     */
+    private abstract static class Space {
+
+        private final boolean[] core;
+        private final int minPoints;
+        // Input indexes in the tree order.
+        private final int[] order;
+        // Core point whose cluster the point is in, or noise.
+        private final int[] owners;
+        // Union-find of the core points.
+        private final AtomicIntegerArray parents;
+
+        private Space(int[] order, int minPoints) {
+            this.order = order;
+            this.minPoints = minPoints;
+            this.core = new boolean[order.length];
+            this.owners = new int[order.length];
+            this.parents = new AtomicIntegerArray(order.length);
+            for (int i = 0; i < order.length; i++) {
+                parents.set(i, i);
+            }
+        }
+
+        /**
+         * @return number of points within the distance from the point with the index given
+         */
+        abstract int count(int i);
+
+        /**
+         * @return number that orders the points by the distance between them
+         */
+        abstract double distance(int i, int j);
+
+        /**
+         * Add the indexes of the points within the distance from the point with the index given.
+         */
+        abstract void neighbours(int i, List<Integer> neighbours);
+
+        private void process(int from, int to, int phase) {
+            List<Integer> neighbours = new ArrayList<Integer>();
+            for (int k = from; k < to; k++) {
+                int i = order[k];
+                if (phase == 0) {
+                    core[i] = count(i) >= minPoints;
+                } else if (phase == 1) {
+                    if (core[i]) {
+                        owners[i] = i;
+                        neighbours.clear();
+                        neighbours(i, neighbours);
+                        for (int j : neighbours) {
+                            if (core[j] && j != i) {
+                                union(parents, i, j);
+                            }
+                        }
+                    }
+                } else if (!core[i]) {
+                    // The nearest core neighbour, on ties the smallest index, so the result is the same on every run.
+                    int owner = NOISE;
+                    double ownerDistance = 0;
+                    neighbours.clear();
+                    neighbours(i, neighbours);
+                    for (int j : neighbours) {
+                        if (core[j]) {
+                            double d = distance(i, j);
+                            if (owner == NOISE || d < ownerDistance || (d == ownerDistance && j < owner)) {
+                                owner = j;
+                                ownerDistance = d;
+                            }
+                        }
+                    }
+                    owners[i] = owner;
+                }
+            }
+        }
+    }
+}
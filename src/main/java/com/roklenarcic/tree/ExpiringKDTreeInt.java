@@ -0,0 +1,347 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+/**
+ * Index of points with coordinates of the int type that expire after a time to live.
+ *
+ * Points are added with a time and put into the bucket of their time, where every bucket covers a span of
+ * time. New points of a bucket are appended to a short list, and every 256 points the list is built into a
+ * {@link KDTreeInt}, so adding a point never rebuilds more than the points added since. A bucket is dropped
+ * as a whole once all of its time is older than the time to live, so a point lives at least the time to live
+ * and less than the time to live and the bucket span. {@link #merge()} builds the trees of a bucket into a
+ * single tree, so queries search fewer trees, and can be scheduled to run periodically. Queries search all the
+ * live buckets with one search.
+ *
+ * Times are given by the caller, in any unit, e.g. milliseconds. The index is thread safe. Queries run in
+ * parallel, additions and expiry one at a time.
+ *
+ * The maximum area coordinates are limited to [-590000000, 590000000].
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class ExpiringKDTreeInt<T> {
+
+    static final int BUFFER_SIZE = 256;
+
+    private final long bucketSpan;
+    // Live buckets by the start of their span.
+    private final TreeMap<Long, Bucket<T>> buckets = new TreeMap<Long, Bucket<T>>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object mergeLock = new Object();
+    // Buckets that end at or before this time are expired.
+    private long expiredBefore = Long.MIN_VALUE;
+    private int size;
+    private final long timeToLive;
+    private final int xMax;
+    private final int xMin;
+    private final int yMax;
+    private final int yMin;
+
+    /**
+     * Create an empty index of the area given, inclusive.
+     *
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @param timeToLive
+     *            time after which a point expires, at least 0
+     * @param bucketSpan
+     *            span of time of a bucket, more than 0
+     */
+    public ExpiringKDTreeInt(int xMin, int yMin, int xMax, int yMax, long timeToLive, long bucketSpan) {
+        if (xMin < xMax && yMin < yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+            if (xMax > 590000000 || xMin < -590000000 || yMax > 590000000 || yMin < -590000000) {
+                throw new IllegalArgumentException("Area limits too big, out of [-590M...590M] interval.");
+            }
+            if (timeToLive < 0 || bucketSpan <= 0) {
+                throw new IllegalArgumentException("Time to live must be at least 0 and bucket span more than 0.");
+            }
+            this.timeToLive = timeToLive;
+            this.bucketSpan = bucketSpan;
+        } else {
+            throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
+        }
+    }
+
+    /**
+     * Add a point with the time given, and expire the buckets that are older than the time to live at that
+     * time.
+     *
+     * @param x
+     *            x coordinate of the point
+     * @param y
+     *            y coordinate of the point
+     * @param value
+     *            value of the point
+     * @param time
+     *            time of the point
+     * @return false if the point is already expired and wasn't added
+     */
+    public boolean add(int x, int y, T value, long time) {
+        if (x > xMax || x < xMin || y > yMax || y < yMin) {
+            throw new IllegalArgumentException("Point X=" + x + ", Y=" + y + " has coordinates out of the index area.");
+        }
+        long start = time - mod(time, bucketSpan);
+        lock.writeLock().lock();
+        try {
+            expireBuckets(time);
+            if (start + bucketSpan <= expiredBefore) {
+                return false;
+            }
+            Bucket<T> bucket = buckets.get(start);
+            if (bucket == null) {
+                bucket = new Bucket<T>();
+                buckets.put(start, bucket);
+            }
+            bucket.buffer.add(new Point<T>(x, y, value));
+            bucket.size++;
+            size++;
+            if (bucket.buffer.size() == BUFFER_SIZE) {
+                bucket.segments.add(new Segment<T>(bucket.buffer, xMin, yMin, xMax, yMax));
+                bucket.buffer = new ArrayList<Point<T>>();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the buckets that are older than the time to live at the time given.
+     *
+     * @param now
+     *            current time
+     */
+    public void expire(long now) {
+        lock.writeLock().lock();
+        try {
+            expireBuckets(now);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the nearest live point to the coordinates given, that is within the maximum distance given,
+     * inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the point closest to the coordinates given within max distance or null
+     */
+    public Point<T> findNearest(int x, int y, int maxDistance) {
+        long md = maxDistance;
+        KDTreeInt.NearestPoint<T> nearest = new KDTreeInt.NearestPoint<T>();
+        nearest.distance = md * md;
+        lock.readLock().lock();
+        try {
+            // One search over the trees, the nearest point found so far limits the search of the next tree.
+            for (Bucket<T> bucket : buckets.values()) {
+                for (Segment<T> segment : bucket.segments) {
+                    segment.tree.findNearest(x, y, nearest);
+                }
+                for (Point<T> p : bucket.buffer) {
+                    long dx = x - p.getX(), dy = y - p.getY();
+                    long d = dx * dx + dy * dy;
+                    if (d <= nearest.distance) {
+                        nearest.p = p;
+                        nearest.distance = d;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return nearest.p;
+    }
+
+    /**
+     * Find a number of nearest live points to the coordinates given that are within the maximum distance
+     * given, inclusive. The points returned are sorted from the closest to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points closest to the coordinates given, in order of ascending distance
+     */
+    public Iterable<Point<T>> findNearest(int x, int y, int maxDistance, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return Collections.emptyList();
+        }
+        long md = maxDistance;
+        KDTreeInt.LinkedList<T> nearestPoints = KDTreeInt.LinkedList.constructChain(numberOfNearest, md * md);
+        lock.readLock().lock();
+        try {
+            for (Bucket<T> bucket : buckets.values()) {
+                for (Segment<T> segment : bucket.segments) {
+                    nearestPoints = segment.tree.findNearest(x, y, nearestPoints);
+                }
+                for (Point<T> p : bucket.buffer) {
+                    long dx = x - p.getX(), dy = y - p.getY();
+                    long d = dx * dx + dy * dy;
+                    if (d <= nearestPoints.distance) {
+                        nearestPoints = nearestPoints.insert(p, d);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        nearestPoints = nearestPoints.dropEmptyPrefix();
+        if (nearestPoints != null) {
+            return nearestPoints.reverse();
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return number of buckets that are live
+     */
+    public int getBucketCount() {
+        lock.readLock().lock();
+        try {
+            return buckets.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the trees of every bucket with more than one tree into a single tree, with copies of the points.
+     * Queries and additions run during the builds.
+     */
+    public void merge() {
+        synchronized (mergeLock) {
+            List<Bucket<T>> merged = new ArrayList<Bucket<T>>();
+            List<List<Segment<T>>> parts = new ArrayList<List<Segment<T>>>();
+            lock.readLock().lock();
+            try {
+                for (Bucket<T> bucket : buckets.values()) {
+                    if (bucket.segments.size() > 1) {
+                        merged.add(bucket);
+                        parts.add(new ArrayList<Segment<T>>(bucket.segments));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int i = 0; i < merged.size(); i++) {
+                // Building a tree changes the points, and the old trees are still searched, so the new tree
+                // gets copies of the points.
+                List<Point<T>> points = new ArrayList<Point<T>>();
+                for (Segment<T> segment : parts.get(i)) {
+                    for (Point<T> p : segment.points) {
+                        points.add(new Point<T>(p.getX(), p.getY(), p.getValue()));
+                    }
+                }
+                Segment<T> segment = new Segment<T>(points, xMin, yMin, xMax, yMax);
+                lock.writeLock().lock();
+                try {
+                    // Trees added during the build stay. An expired bucket isn't searched any more.
+                    List<Segment<T>> segments = merged.get(i).segments;
+                    segments.subList(0, parts.get(i).size()).clear();
+                    segments.add(0, segment);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs {@link #merge()} on the executor given, with the delay given between the end of a merge and the
+     * start of the next one.
+     *
+     * @param executor
+     *            executor to run the merges on
+     * @param delay
+     *            delay between the merges
+     * @param unit
+     *            unit of the delay
+     * @return future that cancels the merges
+     */
+    public ScheduledFuture<?> scheduleMerging(ScheduledExecutorService executor, long delay, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                merge();
+            }
+        }, delay, delay, unit);
+    }
+
+    /**
+     * @return number of live points
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long mod(long a, long b) {
+        long m = a % b;
+        return m < 0 ? m + b : m;
+    }
+
+    private void expireBuckets(long now) {
+        if (now - timeToLive > expiredBefore) {
+            expiredBefore = now - timeToLive;
+            // Buckets that start at or before this end at or before the expiry time.
+            while (!buckets.isEmpty() && buckets.firstKey() <= expiredBefore - bucketSpan) {
+                size -= buckets.remove(buckets.firstKey()).size;
+            }
+        }
+    }
+
+    private static class Bucket<T> {
+        // Points added since the last tree of the bucket was built.
+        private List<Point<T>> buffer = new ArrayList<Point<T>>();
+        // Trees of the bucket, from the oldest to the newest.
+        private final List<Segment<T>> segments = new ArrayList<Segment<T>>();
+        private int size;
+    }
+
+    private static class Segment<T> {
+        private final List<Point<T>> points;
+        private final KDTreeInt<T> tree;
+
+        private Segment(List<Point<T>> points, int xMin, int yMin, int xMax, int yMax) {
+            this.points = points;
+            this.tree = new KDTreeInt<T>(points, xMin, yMin, xMax, yMax);
+        }
+    }
+}
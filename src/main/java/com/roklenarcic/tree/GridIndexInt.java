@@ -0,0 +1,335 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+/**
+ * Uniform grid of points with coordinates of the int type.
+ *
+ * The area of the map is split into cells with about 2 points each, and the points of the cells are kept in
+ * flat arrays, cell after cell. A query searches the cell of the query point and then rings of cells around
+ * it, until the ring is farther than the farthest point it needs. For points spread evenly over the area
+ * this checks few points and skips the descent of a tree, for clustered points most cells are empty or
+ * crowded and {@link KDTreeInt} is faster. {@link SpatialIndexes} picks between the two.
+ *
+ * The maximum area coordinates are limited to [-590000000, 590000000].
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class GridIndexInt<T> implements SpatialIndexInt<T> {
+
+    static final int POINTS_PER_CELL = 2;
+
+    // Points of the cell c are at [cellStarts[c], cellStarts[c + 1]) in the point arrays, cells go row by row.
+    private final int[] cellStarts;
+    // Shorter side of a cell.
+    private final double cellSide;
+    private final int columns;
+    private final long height;
+    private final Point<T>[] points;
+    private final int rows;
+    private final long width;
+    private final int xMax;
+    private final int xMin;
+    private final int[] xs;
+    private final int yMax;
+    private final int yMin;
+    private final int[] ys;
+
+    /**
+     * Build a grid from list of points, where points are given by the objects of the Point class. The map
+     * area is limited by the limits given, inclusive. The points aren't changed.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public GridIndexInt(List<Point<T>> points, int xMin, int yMin, int xMax, int yMax) {
+        if (xMin < xMax && yMin < yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+            if (xMax > 590000000 || xMin < -590000000 || yMax > 590000000 || yMin < -590000000) {
+                throw new IllegalArgumentException("Area limits too big, out of [-590M...590M] interval.");
+            }
+            // Borders are inclusive.
+            this.width = (long) xMax - xMin + 1;
+            this.height = (long) yMax - yMin + 1;
+            int[] dimensions = dimensions(width, height, Math.max(1, points.size() / POINTS_PER_CELL));
+            this.columns = dimensions[0];
+            this.rows = dimensions[1];
+            this.cellSide = Math.min((double) width / columns, (double) height / rows);
+            int n = points.size();
+            int[] cells = new int[n];
+            this.cellStarts = new int[columns * rows + 1];
+            for (int i = 0; i < n; i++) {
+                Point<T> p = points.get(i);
+                if (p.getX() > xMax || p.getX() < xMin || p.getY() > yMax || p.getY() < yMin) {
+                    throw new IllegalArgumentException("Point " + p + " has coordinates out of the grid area.");
+                }
+                cells[i] = row(p.getY()) * columns + column(p.getX());
+                cellStarts[cells[i] + 1]++;
+            }
+            for (int c = 0; c < columns * rows; c++) {
+                cellStarts[c + 1] += cellStarts[c];
+            }
+            // Counting sort of the points by cell.
+            int[] next = cellStarts.clone();
+            @SuppressWarnings("unchecked")
+            Point<T>[] sorted = (Point<T>[]) new Point<?>[n];
+            this.points = sorted;
+            this.xs = new int[n];
+            this.ys = new int[n];
+            for (int i = 0; i < n; i++) {
+                int k = next[cells[i]]++;
+                Point<T> p = points.get(i);
+                this.points[k] = p;
+                xs[k] = p.getX();
+                ys[k] = p.getY();
+            }
+        } else {
+            throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
+        }
+    }
+
+    /**
+     * Average number of points in the cell of a point, over a sample of the points, on a grid with the same
+     * points per cell as the index. It's about 3 for points spread evenly over the area.
+     */
+    static <T> double crowding(List<Point<T>> points, int xMin, int yMin, int xMax, int yMax, int sampleSize) {
+        int n = Math.min(points.size(), sampleSize);
+        if (n == 0) {
+            return 0;
+        }
+        long width = (long) xMax - xMin + 1, height = (long) yMax - yMin + 1;
+        int[] dimensions = dimensions(width, height, Math.max(1, n / POINTS_PER_CELL));
+        int[] counts = new int[dimensions[0] * dimensions[1]];
+        int[] cells = new int[n];
+        for (int i = 0; i < n; i++) {
+            // Spread the sample over the whole list.
+            Point<T> p = points.get((int) ((long) i * points.size() / n));
+            int column = (int) Math.min(dimensions[0] - 1, Math.max(0, ((long) p.getX() - xMin) * dimensions[0] / width));
+            int row = (int) Math.min(dimensions[1] - 1, Math.max(0, ((long) p.getY() - yMin) * dimensions[1] / height));
+            cells[i] = row * dimensions[0] + column;
+            counts[cells[i]]++;
+        }
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += counts[cells[i]];
+        }
+        return (double) sum / n;
+    }
+
+    /**
+     * @return number of columns and rows for the number of cells given, with cells about square
+     */
+    private static int[] dimensions(long width, long height, int cells) {
+        long columns = Math.round(Math.sqrt((double) cells * width / height));
+        columns = Math.max(1, Math.min(Math.min(columns, width), cells));
+        long rows = Math.max(1, Math.min(cells / columns, height));
+        return new int[] { (int) columns, (int) rows };
+    }
+
+    /**
+     * @return distance from the query to the nearest border of the column or row at the offset given from the
+     *         column or row of the query
+     */
+    private static double gap(int offset, long query, int index, int min, long length, int count) {
+        if (offset > 0) {
+            return min + (double) (index + offset) * length / count - query;
+        } else if (offset < 0) {
+            return query - (min + (double) (index + offset + 1) * length / count);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * @return distance from the query to the nearest border of the column or row at the offset given, or of its
+     *         image across the wrapped border when that one is closer
+     */
+    private static double wrappedGap(int offset, long query, int index, int min, long length, int count) {
+        return Math.min(gap(offset, query, index, min, length, count), gap(offset > 0 ? offset - count : offset + count, query, index, min, length, count));
+    }
+
+    private static long mod(long a, long b) {
+        long m = a % b;
+        return m < 0 ? m + b : m;
+    }
+
+    public Point<T> findNearest(int x, int y, int maxDistance) {
+        long md = maxDistance;
+        NearestIndexes nearest = new NearestIndexes(1, md * md);
+        search(x, y, false, false, nearest);
+        return nearest.size == 0 ? null : points[nearest.indexes[0]];
+    }
+
+    public Iterable<Point<T>> findNearest(int x, int y, int maxDistance, int numberOfNearest) {
+        long md = maxDistance;
+        NearestIndexes nearest = new NearestIndexes(numberOfNearest, md * md);
+        search(x, y, false, false, nearest);
+        return toList(nearest);
+    }
+
+    public Point<T> findNearestWithWrapping(int x, int y, int maxDistance) {
+        return findNearestWithWrapping(x, y, maxDistance, Wrapping.X);
+    }
+
+    public Point<T> findNearestWithWrapping(int x, int y, int maxDistance, Wrapping wrapping) {
+        long md = maxDistance;
+        NearestIndexes nearest = new NearestIndexes(1, md * md);
+        search(x, y, wrapping.wrapsX(), wrapping.wrapsY(), nearest);
+        return nearest.size == 0 ? null : points[nearest.indexes[0]];
+    }
+
+    public Iterable<Point<T>> findNearestWithWrapping(int x, int y, int maxDistance, int numberOfNearest) {
+        return findNearestWithWrapping(x, y, maxDistance, numberOfNearest, Wrapping.X);
+    }
+
+    public Iterable<Point<T>> findNearestWithWrapping(int x, int y, int maxDistance, int numberOfNearest, Wrapping wrapping) {
+        long md = maxDistance;
+        NearestIndexes nearest = new NearestIndexes(numberOfNearest, md * md);
+        search(x, y, wrapping.wrapsX(), wrapping.wrapsY(), nearest);
+        return toList(nearest);
+    }
+
+    /**
+     * @return number of points in the grid
+     */
+    public int size() {
+        return points.length;
+    }
+
+    private int column(long x) {
+        return (int) Math.min(columns - 1, Math.max(0, (x - xMin) * columns / width));
+    }
+
+    private int row(long y) {
+        return (int) Math.min(rows - 1, Math.max(0, (y - yMin) * rows / height));
+    }
+
+    private void scan(int cell, long x, long y, boolean wrapX, boolean wrapY, NearestIndexes nearest) {
+        for (int k = cellStarts[cell], end = cellStarts[cell + 1]; k < end; k++) {
+            long dx = Math.abs(x - xs[k]);
+            long dy = Math.abs(y - ys[k]);
+            // Across a wrapped border the other image of the point is closer.
+            if (wrapX && (dx << 1) > width) {
+                dx = width - dx;
+            }
+            if (wrapY && (dy << 1) > height) {
+                dy = height - dy;
+            }
+            long d = dx * dx + dy * dy;
+            if (d <= nearest.distance) {
+                nearest.insert(k, d);
+            }
+        }
+    }
+
+    private void search(long x, long y, boolean wrapX, boolean wrapY, NearestIndexes nearest) {
+        // Move the query point into the area, so the rings around it cover every point once.
+        if (wrapX) {
+            x = xMin + mod(x - xMin, width);
+        }
+        if (wrapY) {
+            y = yMin + mod(y - yMin, height);
+        }
+        int column = column(x), row = row(y);
+        // Offsets of the columns and rows from the cell of the query that exist. Across a wrapped axis it's a
+        // window with every column or row once, centered on the query.
+        int loX = wrapX ? -((columns - 1) >> 1) : -column;
+        int hiX = wrapX ? columns - 1 + loX : columns - 1 - column;
+        int loY = wrapY ? -((rows - 1) >> 1) : -row;
+        int hiY = wrapY ? rows - 1 + loY : rows - 1 - row;
+        int rings = Math.max(Math.max(-loX, hiX), Math.max(-loY, hiY));
+        for (int r = 0; r <= rings; r++) {
+            // Points in the ring r are at least r - 1 cells away from the query.
+            double gap = (r - 1) * cellSide;
+            if (r > 1 && gap * gap > nearest.distance) {
+                return;
+            }
+            for (int j = Math.max(-r, loY); j <= Math.min(r, hiY); j++) {
+                double gapY = wrapY ? wrappedGap(j, y, row, yMin, height, rows) : gap(j, y, row, yMin, height, rows);
+                if (gapY * gapY > nearest.distance) {
+                    continue;
+                }
+                int rowStart = wrapped(row + j, rows) * columns;
+                boolean edge = j == -r || j == r;
+                for (int i = Math.max(-r, loX), last = Math.min(r, hiX); i <= last; i++) {
+                    if (!edge && i > -r && i < r) {
+                        // Inner rows of the ring only have the first and the last column.
+                        i = r - 1;
+                        continue;
+                    }
+                    double gapX = wrapX ? wrappedGap(i, x, column, xMin, width, columns) : gap(i, x, column, xMin, width, columns);
+                    if (gapX * gapX + gapY * gapY <= nearest.distance) {
+                        scan(rowStart + wrapped(column + i, columns), x, y, wrapX, wrapY, nearest);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Point<T>> toList(NearestIndexes nearest) {
+        if (nearest.size == 0) {
+            return Collections.emptyList();
+        }
+        List<Point<T>> ret = new ArrayList<Point<T>>(nearest.size);
+        for (int i = 0; i < nearest.size; i++) {
+            ret.add(points[nearest.indexes[i]]);
+        }
+        return ret;
+    }
+
+    private static int wrapped(int index, int length) {
+        return index < 0 ? index + length : index >= length ? index - length : index;
+    }
+
+    /**
+     * Indexes of the nearest points found so far, sorted by ascending distance. When all slots are taken the
+     * distance of the search is the distance of the last one.
+     */
+    private static class NearestIndexes {
+
+        private long distance;
+        private final long[] distances;
+        private final int[] indexes;
+        private int size;
+
+        private NearestIndexes(int length, long distance) {
+            // Nothing fits in an empty list.
+            this.distance = length == 0 ? -1 : distance;
+            this.distances = new long[length];
+            this.indexes = new int[length];
+        }
+
+        private void insert(int index, long d) {
+            int i = size < indexes.length ? size++ : size - 1;
+            // Shift farther points to the right, dropping the farthest one if full.
+            while (i > 0 && distances[i - 1] > d) {
+                distances[i] = distances[i - 1];
+                indexes[i] = indexes[i - 1];
+                i--;
+            }
+            distances[i] = d;
+            indexes[i] = index;
+            if (size == indexes.length) {
+                distance = distances[size - 1];
+            }
+        }
+    }
+}
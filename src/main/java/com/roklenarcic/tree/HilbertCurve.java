@@ -0,0 +1,62 @@
+package com.roklenarcic.tree;
+
+import java.util.Arrays;
+
+/**
+ * Hilbert curve over a square grid of cells, used to order points so that points close on the map are also
+ * close in memory.
+ *
+ * @author Rok Lenarcic
+ */
+final class HilbertCurve {
+
+    // Cells on a side of the grid, so that the index of a cell fits into 30 bits.
+    static final int SIDE = 1 << 15;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * @return the cell of the value, when the values between min and max, inclusive, are spread over the side
+     *         of the grid
+     */
+    static int cell(double value, double min, double max) {
+        return max > min ? (int) ((value - min) / (max - min) * (SIDE - 1)) : 0;
+    }
+
+    /**
+     * @return the position of the cell along the curve
+     */
+    static int index(int x, int y) {
+        int d = 0;
+        for (int s = SIDE >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) == 0 ? 0 : 1;
+            int ry = (y & s) == 0 ? 0 : 1;
+            d += s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so the curve inside it starts and ends at the right corners.
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = SIDE - 1 - x;
+                    y = SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Sorts the keys, which have the curve index in the upper 32 bits and the index of the point in the lower
+     * 32 bits, and returns the indexes of the points in the curve order.
+     */
+    static int[] order(long[] keys) {
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -1,5 +1,6 @@
 package com.roklenarcic.tree;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -19,14 +20,16 @@ import java.util.List;
  * @param <T>
  *            Value to be stored in points.
  */
-public class KDTreeDouble<T> {
+public class KDTreeDouble<T> implements SpatialIndexDouble<T> {
 
     private static final double MAX_COORD_VAL = (Math.sqrt(Double.MAX_VALUE) / 1.81) / 2;
 
     @SuppressWarnings("unchecked")
     private final Comparator<Point<T>>[] comparators = (Comparator<Point<T>>[]) new Comparator<?>[] { Point.createComparator(0), Point.createComparator(1) };
 
+    private final ValueExtractor<? super T> extractor;
     private final Point<T> root;
+    private final SplitStrategy strategy;
     private final double xMax;
     private final double xMin;
     private final double yMax;
@@ -48,6 +51,103 @@ public class KDTreeDouble<T> {
      *            maximum value of y coordinate of a point, inclusive
      */
     public KDTreeDouble(List<Point<T>> points, double xMin, double yMin, double xMax, double yMax) {
+        this(points, xMin, yMin, xMax, yMax, null, SplitStrategy.MEDIAN);
+    }
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The map
+     * area is limited by the limits given, inclusive. The aggregate queries sum the numbers the extractor
+     * takes from the values of the points.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @param extractor
+     *            number of a point to be summed, if null every point counts as 1
+     */
+    public KDTreeDouble(List<Point<T>> points, double xMin, double yMin, double xMax, double yMax, ValueExtractor<? super T> extractor) {
+        this(points, xMin, yMin, xMax, yMax, extractor, SplitStrategy.MEDIAN);
+    }
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The map
+     * area is limited by the limits given, inclusive. The points are split by the strategy given.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @param strategy
+     *            how to split the points
+     */
+    public KDTreeDouble(List<Point<T>> points, double xMin, double yMin, double xMax, double yMax, SplitStrategy strategy) {
+        this(points, xMin, yMin, xMax, yMax, null, strategy);
+    }
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The map
+     * area is limited by the limits given, inclusive. The points are split by the strategy given and the
+     * aggregate queries sum the numbers the extractor takes from the values of the points.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @param extractor
+     *            number of a point to be summed, if null every point counts as 1
+     * @param strategy
+     *            how to split the points
+     */
+    public KDTreeDouble(List<Point<T>> points, double xMin, double yMin, double xMax, double yMax, ValueExtractor<? super T> extractor, SplitStrategy strategy) {
+        this(points, xMin, yMin, xMax, yMax, extractor, strategy, false);
+    }
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The map
+     * area is limited by the limits given, inclusive. The points are split by the strategy given and the
+     * aggregate queries sum the numbers the extractor takes from the values of the points.
+     *
+     * Points with the same coordinates can be collapsed into a single node of the tree, which carries the
+     * group of the points. Queries return every point of a group, but the tree is only as deep as the
+     * number of different coordinates requires and the distance to a group is computed once.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @param extractor
+     *            number of a point to be summed, if null every point counts as 1
+     * @param strategy
+     *            how to split the points
+     * @param collapseDuplicates
+     *            true to put points with the same coordinates into a single node
+     */
+    public KDTreeDouble(List<Point<T>> points, double xMin, double yMin, double xMax, double yMax, ValueExtractor<? super T> extractor, SplitStrategy strategy, boolean collapseDuplicates) {
         if (xMin < xMax && yMin < yMax) {
             this.xMin = xMin;
             this.yMin = yMin;
@@ -56,7 +156,17 @@ public class KDTreeDouble<T> {
             if (xMax > MAX_COORD_VAL || xMin < -MAX_COORD_VAL || yMax > MAX_COORD_VAL || yMin < -MAX_COORD_VAL) {
                 throw new IllegalArgumentException("Area limits too big, out of [-3.7E153...3.7E153] interval.");
             }
-            root = buildTree(points, 0);
+            this.extractor = extractor;
+            this.strategy = strategy;
+            if (collapseDuplicates) {
+                points = collapse(points);
+            } else {
+                for (Point<T> p : points) {
+                    p.duplicate = null;
+                }
+            }
+            // The root takes the query coordinates in x, y order, as if its parent split the y axis.
+            root = buildTree(points, 0, 1, xMin, yMin, xMax, yMax);
         } else {
             throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
         }
@@ -79,7 +189,7 @@ public class KDTreeDouble<T> {
         if (root != null) {
             double md = maxDistance;
             nearest.distance = md * md;
-            root.findNearest(x, y, nearest);
+            root.findNearest(x, y, 0, 0, 0, nearest);
         }
         return nearest.p;
     }
@@ -104,7 +214,141 @@ public class KDTreeDouble<T> {
         if (root != null) {
             double md = maxDistance;
             LinkedList<T> nearestPoints = LinkedList.constructChain(numberOfNearest, md * md);
-            nearestPoints = root.findNearest(x, y, nearestPoints).dropEmptyPrefix();
+            nearestPoints = root.findNearest(x, y, 0, 0, 0, nearestPoints).dropEmptyPrefix();
+            if (nearestPoints != null) {
+                return nearestPoints.reverse();
+            } else {
+                return Collections.emptyList();
+            }
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive,
+     * with the distance measured by the metric given. The smaller the maximum distance, the faster the query.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param metric
+     *            distance to find the nearest point by
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearest(double x, double y, double maxDistance, Metric metric) {
+        if (metric == Metric.EUCLIDEAN) {
+            return findNearest(x, y, maxDistance);
+        }
+        NearestPoint<T> nearest = new NearestPoint<T>();
+        if (root != null) {
+            // Distances of the other metrics are not squared.
+            nearest.distance = maxDistance;
+            if (metric == Metric.MANHATTAN) {
+                root.findNearestManhattan(x, y, nearest);
+            } else {
+                root.findNearestChebyshev(x, y, nearest);
+            }
+        }
+        return nearest.p;
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive, with the distance measured by the metric given. The smaller the maximum distance, the faster
+     * the query. The points returned are sorted from the closest to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @param metric
+     *            distance to find the nearest points by
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearest(double x, double y, double maxDistance, int numberOfNearest, Metric metric) {
+        if (metric == Metric.EUCLIDEAN) {
+            return findNearest(x, y, maxDistance, numberOfNearest);
+        }
+        if (root != null) {
+            LinkedList<T> nearestPoints = LinkedList.constructChain(numberOfNearest, maxDistance);
+            if (metric == Metric.MANHATTAN) {
+                nearestPoints = root.findNearestManhattan(x, y, nearestPoints);
+            } else {
+                nearestPoints = root.findNearestChebyshev(x, y, nearestPoints);
+            }
+            nearestPoints = nearestPoints.dropEmptyPrefix();
+            if (nearestPoints != null) {
+                return nearestPoints.reverse();
+            } else {
+                return Collections.emptyList();
+            }
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive,
+     * where the differences along the axes are multiplied by the weights given, so the distance is
+     * sqrt((xWeight * dx)^2 + (yWeight * dy)^2). The tree is the same for all weights, so axes in different
+     * units can be scaled per query.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum weighted distance from the point of the query to search
+     * @param xWeight
+     *            weight of the x axis, at least 0
+     * @param yWeight
+     *            weight of the y axis, at least 0
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearestWeighted(double x, double y, double maxDistance, double xWeight, double yWeight) {
+        checkWeights(xWeight, yWeight);
+        NearestPoint<T> nearest = new NearestPoint<T>();
+        if (root != null) {
+            nearest.distance = maxDistance * maxDistance;
+            root.findNearest(x, y, xWeight * xWeight, yWeight * yWeight, nearest);
+        }
+        return nearest.p;
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive, where the differences along the axes are multiplied by the weights given. The points returned
+     * are sorted from the closest to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum weighted distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @param xWeight
+     *            weight of the x axis, at least 0
+     * @param yWeight
+     *            weight of the y axis, at least 0
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearestWeighted(double x, double y, double maxDistance, int numberOfNearest, double xWeight, double yWeight) {
+        checkWeights(xWeight, yWeight);
+        if (root != null) {
+            LinkedList<T> nearestPoints = LinkedList.constructChain(numberOfNearest, maxDistance * maxDistance);
+            nearestPoints = root.findNearest(x, y, xWeight * xWeight, yWeight * yWeight, nearestPoints).dropEmptyPrefix();
             if (nearestPoints != null) {
                 return nearestPoints.reverse();
             } else {
@@ -129,24 +373,37 @@ public class KDTreeDouble<T> {
      * @return the point in the tree closest to the coordinates given within max distance
      */
     public Point<T> findNearestWithWrapping(double x, double y, double maxDistance) {
+        return findNearestWithWrapping(x, y, maxDistance, Wrapping.X);
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The smaller the maximum distance, the faster the query. The search wraps across the axes given, where
+     * borders used are the ones given in the constructor. Borders are inclusive, so the period of the x axis
+     * is xMax - xMin + 1.
+     *
+     * Images of the query shifted across a border are only searched when the current best distance reaches
+     * over that border, so queries away from the borders cost the same as without wrapping.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param wrapping
+     *            axes to wrap across
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearestWithWrapping(double x, double y, double maxDistance, Wrapping wrapping) {
         NearestPoint<T> nearest = new NearestPoint<T>();
         if (root != null) {
             nearest.distance = maxDistance * maxDistance;
-            root.findNearest(x, y, nearest);
-            if (nearest.distance > 0) {
-                // No point found within max distance, see if point + max distance crosses the wrap
-                // It can only wrap around the nearest border.
-                if (xMin + xMax > x / 2) {
-                    double distanceToLeftBorder = x - xMin;
-                    if (distanceToLeftBorder * distanceToLeftBorder < nearest.distance) {
-                        root.findNearest(xMax + distanceToLeftBorder + 1, y, nearest);
-                    }
-                } else {
-                    double distanceToRightBorder = xMax - x;
-                    if (distanceToRightBorder * distanceToRightBorder < nearest.distance) {
-                        root.findNearest(xMin - distanceToRightBorder - 1, y, nearest);
-                    }
-                }
+            WrapQuery query = new WrapQuery(x, y, xMin, yMin, xMax, yMax, wrapping);
+            // Images are sorted by the distance to their border, the first one is the query itself.
+            for (int i = 0; i < query.images && query.gaps[i] <= nearest.distance; i++) {
+                query.moveToImage(i);
+                root.findNearest(query.x, query.y, query, nearest);
             }
         }
         return nearest.p;
@@ -172,24 +429,39 @@ public class KDTreeDouble<T> {
      *         distance
      */
     public Iterable<Point<T>> findNearestWithWrapping(double x, double y, double maxDistance, int numberOfNearest) {
+        return findNearestWithWrapping(x, y, maxDistance, numberOfNearest, Wrapping.X);
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The points returned are sorted from
+     * the closest to the farthest.
+     *
+     * The search wraps across the axes given, where borders used are the ones given in the constructor.
+     * Borders are inclusive. Every point is returned at most once, at its shortest wrapped distance.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @param wrapping
+     *            axes to wrap across
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearestWithWrapping(double x, double y, double maxDistance, int numberOfNearest, Wrapping wrapping) {
         if (root != null) {
             double md = maxDistance;
             LinkedList<T> nearestPoints = LinkedList.constructChain(numberOfNearest, md * md);
-            nearestPoints = root.findNearest(x, y, nearestPoints);
-            if (nearestPoints.distance > 0) {
-                // No point found within max distance, see if point + max distance crosses the wrap
-                // It can only wrap around the nearest border.
-                if (xMin + xMax > x / 2) {
-                    double distanceToLeftBorder = x - xMin;
-                    if (distanceToLeftBorder * distanceToLeftBorder < nearestPoints.distance) {
-                        nearestPoints = root.findNearest(xMax + distanceToLeftBorder + 1, y, nearestPoints);
-                    }
-                } else {
-                    double distanceToRightBorder = xMax - x;
-                    if (distanceToRightBorder * distanceToRightBorder < nearestPoints.distance) {
-                        nearestPoints = root.findNearest(xMin - distanceToRightBorder - 1, y, nearestPoints);
-                    }
-                }
+            WrapQuery query = new WrapQuery(x, y, xMin, yMin, xMax, yMax, wrapping);
+            // The first node of the chain holds the farthest of the points found so far.
+            for (int i = 0; i < query.images && query.gaps[i] <= nearestPoints.distance; i++) {
+                query.moveToImage(i);
+                nearestPoints = root.findNearest(query.x, query.y, query, nearestPoints);
             }
             nearestPoints = nearestPoints.dropEmptyPrefix();
             if (nearestPoints != null) {
@@ -202,28 +474,246 @@ public class KDTreeDouble<T> {
         }
     }
 
-    private Point<T> buildTree(List<Point<T>> points, int axis) {
+    /**
+     * Count the points within the distance given from the coordinates, inclusive. Subtrees entirely within
+     * the distance are counted without visiting their points.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param distance
+     *            distance from the query point
+     * @return number of points within the distance
+     */
+    public int countWithin(double x, double y, double distance) {
+        return aggregateWithin(x, y, distance).count;
+    }
+
+    /**
+     * Find all points within the distance given from the coordinates, inclusive. The points are in no
+     * particular order.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param distance
+     *            distance from the query point
+     * @return points within the distance
+     */
+    public List<Point<T>> findWithin(double x, double y, double distance) {
+        Aggregate<T> aggregate = new Aggregate<T>(extractor, new ArrayList<Point<T>>());
+        if (root != null) {
+            root.aggregate(x, y, distance * distance, xMin, xMax, yMin, yMax, aggregate);
+        }
+        return aggregate.points;
+    }
+
+    /**
+     * Count the points in the rectangle given, borders inclusive. Subtrees entirely within the rectangle are
+     * counted without visiting their points.
+     *
+     * @param xMin
+     *            minimum x coordinate of the rectangle
+     * @param yMin
+     *            minimum y coordinate of the rectangle
+     * @param xMax
+     *            maximum x coordinate of the rectangle
+     * @param yMax
+     *            maximum y coordinate of the rectangle
+     * @return number of points in the rectangle
+     */
+    public int countInRectangle(double xMin, double yMin, double xMax, double yMax) {
+        return aggregateInRectangle(xMin, yMin, xMax, yMax).count;
+    }
+
+    /**
+     * Sum the numbers of the points within the distance given from the coordinates, inclusive, taken by the
+     * extractor given in the constructor. Without the extractor it's the number of points.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param distance
+     *            distance from the query point
+     * @return sum of the numbers of the points within the distance
+     */
+    public double sumWithin(double x, double y, double distance) {
+        return aggregateWithin(x, y, distance).sum;
+    }
+
+    /**
+     * Sum the numbers of the points in the rectangle given, borders inclusive, taken by the extractor given
+     * in the constructor. Without the extractor it's the number of points.
+     *
+     * @param xMin
+     *            minimum x coordinate of the rectangle
+     * @param yMin
+     *            minimum y coordinate of the rectangle
+     * @param xMax
+     *            maximum x coordinate of the rectangle
+     * @param yMax
+     *            maximum y coordinate of the rectangle
+     * @return sum of the numbers of the points in the rectangle
+     */
+    public double sumInRectangle(double xMin, double yMin, double xMax, double yMax) {
+        return aggregateInRectangle(xMin, yMin, xMax, yMax).sum;
+    }
+
+    /**
+     * @return modelled size of the tree on the heap in bytes, with the point objects but not their values, see
+     *         {@link MemoryFootprint}
+     */
+    public long getRetainedSize() {
+        return retainedSize(root == null ? 0 : root.count);
+    }
+
+    /**
+     * @return size of a tree with the number of points given, see {@link MemoryFootprint}
+     */
+    static long retainedSize(int points) {
+        // The tree has 4 references and 4 doubles, and 2 comparators with their axis. A point has 4 doubles for
+        // the coordinates, 4 references, the count, the sum and the swapped flag.
+        return MemoryFootprint.object(4 * MemoryFootprint.REFERENCE + 4 * 8) + MemoryFootprint.array(2, MemoryFootprint.REFERENCE) + 2 * MemoryFootprint.object(4)
+                + points * MemoryFootprint.object(4 * 8 + 4 * MemoryFootprint.REFERENCE + 4 + 8 + 1);
+    }
+
+    private Aggregate<T> aggregateInRectangle(double xMin, double yMin, double xMax, double yMax) {
+        Aggregate<T> aggregate = new Aggregate<T>(extractor, null);
+        if (root != null) {
+            // The cell of the root is the tree area.
+            root.aggregate(xMin, xMax, yMin, yMax, this.xMin, this.xMax, this.yMin, this.yMax, aggregate);
+        }
+        return aggregate;
+    }
+
+    private Aggregate<T> aggregateWithin(double x, double y, double distance) {
+        Aggregate<T> aggregate = new Aggregate<T>(extractor, null);
+        if (root != null) {
+            double d = distance;
+            root.aggregate(x, y, d * d, xMin, xMax, yMin, yMax, aggregate);
+        }
+        return aggregate;
+    }
+
+    private static void checkWeights(double xWeight, double yWeight) {
+        if (!(xWeight >= 0 && yWeight >= 0)) {
+            throw new IllegalArgumentException("Weights must be at least 0: " + xWeight + ", " + yWeight);
+        }
+    }
+
+    private Point<T> buildTree(List<Point<T>> points, int depth, int parentAxis, double cellXMin, double cellYMin, double cellXMax, double cellYMax) {
         if (points.size() == 0) {
             return null;
         } else {
+            int axis = splitAxis(points, depth, cellXMin, cellYMin, cellXMax, cellYMax);
             // Sort by axis.
             Collections.sort(points, comparators[axis]);
-            int pivotIdx = points.size() >> 1;
-            if ((points.size() & 1) == 0) { // If odd size
-                // Shift pivot to the left every second level so for lists of size 4
-                // the pivot is idx 1 and 2 every other level.
-                pivotIdx -= axis;
+            int pivotIdx;
+            if (strategy == SplitStrategy.SLIDING_MIDPOINT) {
+                pivotIdx = midpointIndex(points, axis, axis == 0 ? cellXMin : cellYMin, axis == 0 ? cellXMax : cellYMax);
+            } else {
+                pivotIdx = points.size() >> 1;
+                if ((points.size() & 1) == 0) { // If odd size
+                    // Shift pivot to the left every second level so for lists of size 4
+                    // the pivot is idx 1 and 2 every other level.
+                    pivotIdx -= depth & 1;
+                }
             }
             Point<T> p = points.get(pivotIdx);
             p.rotate(axis);
+            p.swapped = axis == parentAxis;
             if (p.x > xMax || p.x < xMin || p.y > yMax || p.y < yMin) {
                 throw new IllegalArgumentException("Point " + p + " has coordinates out of the tree area.");
             }
-            axis = axis ^ 1;
-            // Build subtree. Bigger branch also contains points that has equal axis value to the pivot.
-            p.smaller = buildTree(points.subList(0, pivotIdx), axis);
-            p.bigger = buildTree(points.subList(pivotIdx + 1, points.size()), axis);
-            return p;
+            // Build subtree. Bigger branch also contains points that has equal axis value to the pivot.
+            if (axis == 0) {
+                p.smaller = buildTree(points.subList(0, pivotIdx), depth + 1, axis, cellXMin, cellYMin, p.x, cellYMax);
+                p.bigger = buildTree(points.subList(pivotIdx + 1, points.size()), depth + 1, axis, p.x, cellYMin, cellXMax, cellYMax);
+            } else {
+                p.smaller = buildTree(points.subList(0, pivotIdx), depth + 1, axis, cellXMin, cellYMin, cellXMax, p.y);
+                p.bigger = buildTree(points.subList(pivotIdx + 1, points.size()), depth + 1, axis, cellXMin, p.y, cellXMax, cellYMax);
+            }
+            p.count = (p.smaller == null ? 0 : p.smaller.count) + (p.bigger == null ? 0 : p.bigger.count);
+            p.sum = (p.smaller == null ? 0 : p.smaller.sum) + (p.bigger == null ? 0 : p.bigger.sum);
+            for (Point<T> d = p; d != null; d = d.duplicate) {
+                p.count++;
+                p.sum += extractor == null ? 1 : extractor.extract(d.value);
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Chains the points with the same coordinates to the first of them.
+     *
+     * @return the first point of every group
+     */
+    private List<Point<T>> collapse(List<Point<T>> points) {
+        // Stable sorts, by x and then by y for equal x.
+        Collections.sort(points, comparators[1]);
+        Collections.sort(points, comparators[0]);
+        List<Point<T>> groups = new ArrayList<Point<T>>();
+        Point<T> last = null;
+        for (Point<T> p : points) {
+            p.duplicate = null;
+            if (last != null && last.x == p.x && last.y == p.y) {
+                last.duplicate = p;
+            } else {
+                groups.add(p);
+            }
+            last = p;
+        }
+        return groups;
+    }
+
+    /**
+     * @return index of the first point at or after the middle of the cell along the axis, sorted by the axis,
+     *         but leaving at least 1/8 of the points on each side
+     */
+    private int midpointIndex(List<Point<T>> points, int axis, double cellMin, double cellMax) {
+        double middle = (cellMin + cellMax) / 2;
+        int lo = 0, hi = points.size() - 1;
+        // Binary search for the first point at or after the middle, the last point if there's none.
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Point<T> p = points.get(mid);
+            if ((axis == 0 ? p.x : p.y) < middle) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int margin = points.size() >> 3;
+        return Math.max(margin, Math.min(points.size() - 1 - margin, lo));
+    }
+
+    private int splitAxis(List<Point<T>> points, int depth, double cellXMin, double cellYMin, double cellXMax, double cellYMax) {
+        if (strategy == SplitStrategy.SLIDING_MIDPOINT) {
+            return cellYMax - cellYMin > cellXMax - cellXMin ? 1 : 0;
+        } else if (strategy == SplitStrategy.WIDEST_SPREAD) {
+            double minX = points.get(0).x, maxX = minX, minY = points.get(0).y, maxY = minY;
+            for (Point<T> p : points) {
+                minX = Math.min(minX, p.x);
+                maxX = Math.max(maxX, p.x);
+                minY = Math.min(minY, p.y);
+                maxY = Math.max(maxY, p.y);
+            }
+            return maxY - minY > maxX - minX ? 1 : 0;
+        } else if (strategy == SplitStrategy.VARIANCE) {
+            double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0;
+            for (Point<T> p : points) {
+                sumX += p.x;
+                sumY += p.y;
+                sumXX += p.x * p.x;
+                sumYY += p.y * p.y;
+            }
+            // Sums of the squared deviations, the count is the same for both axes.
+            return sumYY - sumY * sumY / points.size() > sumXX - sumX * sumX / points.size() ? 1 : 0;
+        } else {
+            return depth & 1;
         }
     }
 
@@ -259,6 +749,18 @@ public class KDTreeDouble<T> {
 
         private Point<T> smaller, bigger;
 
+        // The axis of this point is the same as the axis of its parent, or y in the root, so the searches
+        // get the coordinates in the order of the other axis and swap them back.
+        private boolean swapped;
+
+        // Next point with the same coordinates, if the tree collapses them. Only the first point of a group is
+        // a node of the tree.
+        private Point<T> duplicate;
+
+        // Number of points and sum of their numbers in the subtree of this point.
+        private int count;
+        private double sum;
+
         private final T value;
 
         private final double x, y;
@@ -303,8 +805,166 @@ public class KDTreeDouble<T> {
             return y;
         }
 
-        private LinkedList<T> findNearest(double queryAxis, double queryOther, LinkedList<T> currentBest) {
-            // Negative number means this point is on the left to the query point.
+        private void aggregate(double queryAxis, double queryOther, double distance, double axisMin, double axisMax, double otherMin, double otherMax, Aggregate<T> aggregate) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+                temp = axisMin;
+                axisMin = otherMin;
+                otherMin = temp;
+                temp = axisMax;
+                axisMax = otherMax;
+                otherMax = temp;
+            }
+            // Squared distances from the query to the nearest and to the farthest point of the cell.
+            double nearAxis = queryAxis < axisMin ? axisMin - queryAxis : (queryAxis > axisMax ? queryAxis - axisMax : 0);
+            double nearOther = queryOther < otherMin ? otherMin - queryOther : (queryOther > otherMax ? queryOther - otherMax : 0);
+            if (nearAxis * nearAxis + nearOther * nearOther > distance) {
+                return;
+            }
+            double farAxis = Math.max(queryAxis - axisMin, axisMax - queryAxis);
+            double farOther = Math.max(queryOther - otherMin, otherMax - queryOther);
+            if (farAxis * farAxis + farOther * farOther <= distance) {
+                aggregate.addSubtree(this);
+                return;
+            }
+            double diffAxis = queryAxis - axisValue;
+            double diffOther = queryOther - otherValue;
+            if (diffAxis * diffAxis + diffOther * diffOther <= distance) {
+                aggregate.add(this);
+            }
+            // Children cells are split by the axis value, the axes swap for the children.
+            if (smaller != null) {
+                smaller.aggregate(queryOther, queryAxis, distance, otherMin, otherMax, axisMin, axisValue, aggregate);
+            }
+            if (bigger != null) {
+                bigger.aggregate(queryOther, queryAxis, distance, otherMin, otherMax, axisValue, axisMax, aggregate);
+            }
+        }
+
+        private void aggregate(double queryAxisMin, double queryAxisMax, double queryOtherMin, double queryOtherMax, double axisMin, double axisMax, double otherMin, double otherMax,
+                Aggregate<T> aggregate) {
+            if (swapped) {
+                double temp = queryAxisMin;
+                queryAxisMin = queryOtherMin;
+                queryOtherMin = temp;
+                temp = queryAxisMax;
+                queryAxisMax = queryOtherMax;
+                queryOtherMax = temp;
+                temp = axisMin;
+                axisMin = otherMin;
+                otherMin = temp;
+                temp = axisMax;
+                axisMax = otherMax;
+                otherMax = temp;
+            }
+            if (axisMin > queryAxisMax || axisMax < queryAxisMin || otherMin > queryOtherMax || otherMax < queryOtherMin) {
+                return;
+            }
+            if (axisMin >= queryAxisMin && axisMax <= queryAxisMax && otherMin >= queryOtherMin && otherMax <= queryOtherMax) {
+                aggregate.addSubtree(this);
+                return;
+            }
+            if (axisValue >= queryAxisMin && axisValue <= queryAxisMax && otherValue >= queryOtherMin && otherValue <= queryOtherMax) {
+                aggregate.add(this);
+            }
+            if (smaller != null) {
+                smaller.aggregate(queryOtherMin, queryOtherMax, queryAxisMin, queryAxisMax, otherMin, otherMax, axisMin, axisValue, aggregate);
+            }
+            if (bigger != null) {
+                bigger.aggregate(queryOtherMin, queryOtherMax, queryAxisMin, queryAxisMax, otherMin, otherMax, axisValue, axisMax, aggregate);
+            }
+        }
+
+        private LinkedList<T> findNearest(double queryAxis, double queryOther, double offsetAxis, double offsetOther, double cellDistance, LinkedList<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+                temp = offsetAxis;
+                offsetAxis = offsetOther;
+                offsetOther = temp;
+            }
+            // Offsets are the distances of the query from the cell of this point along the axes, cell
+            // distance is the squared distance from the query to the cell.
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            // The closer child has the query on its side of the split, so the cell distance stays.
+            if (closerChild != null) {
+                currentBest = closerChild.findNearest(queryOther, queryAxis, offsetOther, offsetAxis, cellDistance, currentBest);
+            }
+            // Across the split the offset along the axis becomes the distance to the split, and the cell of
+            // the farther child can be skipped when it's farther than the current best, not just the split.
+            double fartherDistance = cellDistance - offsetAxis * offsetAxis + diffAxis * diffAxis;
+            if (fartherDistance <= currentBest.distance) {
+                double diffOther = queryOther - otherValue;
+                double d = diffAxis * diffAxis + diffOther * diffOther;
+                if (d <= currentBest.distance) {
+                    currentBest = currentBest.insertGroup(this, d);
+                }
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearest(queryOther, queryAxis, offsetOther, diffAxis, fartherDistance, currentBest);
+                }
+            }
+            return currentBest;
+        }
+
+        private void findNearest(double queryAxis, double queryOther, double offsetAxis, double offsetOther, double cellDistance, NearestPoint<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+                temp = offsetAxis;
+                offsetAxis = offsetOther;
+                offsetOther = temp;
+            }
+            // Offsets are the distances of the query from the cell of this point along the axes, cell
+            // distance is the squared distance from the query to the cell.
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            // The closer child has the query on its side of the split, so the cell distance stays.
+            if (closerChild != null) {
+                closerChild.findNearest(queryOther, queryAxis, offsetOther, offsetAxis, cellDistance, currentBest);
+            }
+            // Across the split the offset along the axis becomes the distance to the split, and the cell of
+            // the farther child can be skipped when it's farther than the current best, not just the split.
+            double fartherDistance = cellDistance - offsetAxis * offsetAxis + diffAxis * diffAxis;
+            if (fartherDistance <= currentBest.distance) {
+                double diffOther = queryOther - otherValue;
+                double d = diffAxis * diffAxis + diffOther * diffOther;
+                if (d <= currentBest.distance) {
+                    currentBest.p = this;
+                    currentBest.distance = d;
+                }
+                if (fartherChild != null) {
+                    fartherChild.findNearest(queryOther, queryAxis, offsetOther, diffAxis, fartherDistance, currentBest);
+                }
+            }
+        }
+
+        private LinkedList<T> findNearest(double queryAxis, double queryOther, WrapQuery query, LinkedList<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+            }
+            // Same as the unwrapped search, except that a point is only accepted in the image of the query
+            // where its distance is the shortest, so no point is added twice.
             double diffAxis = queryAxis - axisValue;
             Point<T> closerChild, fartherChild;
             if (diffAxis >= 0) {
@@ -314,55 +974,156 @@ public class KDTreeDouble<T> {
                 closerChild = smaller;
                 fartherChild = bigger;
             }
-            // First check the closer side
             if (closerChild != null) {
-                currentBest = closerChild.findNearest(queryOther, queryAxis, currentBest);
+                currentBest = closerChild.findNearest(queryOther, queryAxis, query, currentBest);
+            }
+            double distanceToHyperplane = diffAxis * diffAxis;
+            if (distanceToHyperplane <= currentBest.distance) {
+                double diffOther = queryOther - otherValue;
+                double d = distanceToHyperplane + diffOther * diffOther;
+                if (d <= currentBest.distance && query.accepts(x, y)) {
+                    currentBest = currentBest.insertGroup(this, d);
+                }
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearest(queryOther, queryAxis, query, currentBest);
+                }
             }
-            // Now let's see it the other side is still relevant. Since that search
-            // might have narrowed the circle.
+            return currentBest;
+        }
 
-            // Calculate distance to axis.
+        private void findNearest(double queryAxis, double queryOther, WrapQuery query, NearestPoint<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+            }
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                closerChild.findNearest(queryOther, queryAxis, query, currentBest);
+            }
             double distanceToHyperplane = diffAxis * diffAxis;
-            // See if line intersects circle
             if (distanceToHyperplane <= currentBest.distance) {
-                // If it does then this point might be the best one.
                 double diffOther = queryOther - otherValue;
                 double d = distanceToHyperplane + diffOther * diffOther;
+                if (d <= currentBest.distance && query.accepts(x, y)) {
+                    currentBest.p = this;
+                    currentBest.distance = d;
+                }
+                if (fartherChild != null) {
+                    fartherChild.findNearest(queryOther, queryAxis, query, currentBest);
+                }
+            }
+        }
+
+        private LinkedList<T> findNearestManhattan(double queryAxis, double queryOther, LinkedList<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+            }
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                currentBest = closerChild.findNearestManhattan(queryOther, queryAxis, currentBest);
+            }
+            // Manhattan distance is at least the distance along the axis.
+            double distanceToHyperplane = Math.abs(diffAxis);
+            if (distanceToHyperplane <= currentBest.distance) {
+                double d = distanceToHyperplane + Math.abs(queryOther - otherValue);
                 if (d <= currentBest.distance) {
-                    // Start with the farthest point in the list
-                    // This point is farther than the this point
-                    LinkedList<T> farther = currentBest;
-                    LinkedList<T> newHead = currentBest;
-                    // Scroll down the list to find the last node that is farther than this node
-                    while (farther.tail != null && d <= farther.tail.distance) {
-                        farther = farther.tail;
-                        newHead = currentBest.tail;
-                    }
-                    currentBest.head = this;
+                    currentBest = currentBest.insertGroup(this, d);
+                }
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearestManhattan(queryOther, queryAxis, currentBest);
+                }
+            }
+            return currentBest;
+        }
+
+        private void findNearestManhattan(double queryAxis, double queryOther, NearestPoint<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+            }
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                closerChild.findNearestManhattan(queryOther, queryAxis, currentBest);
+            }
+            double distanceToHyperplane = Math.abs(diffAxis);
+            if (distanceToHyperplane <= currentBest.distance) {
+                double d = distanceToHyperplane + Math.abs(queryOther - otherValue);
+                if (d <= currentBest.distance) {
+                    currentBest.p = this;
                     currentBest.distance = d;
-                    // Here's a bit of a trickeroo. We've got 2 scenarios:
-                    // - The farthest (first) point in the list is the one being replaced. In that case
-                    // it's really easy, we're done already.
-                    // - In other cases we need assign first point (currentBest) into the chain as tail of
-                    // "farther" then we need to update currentBest as tail of currentBest to keep the
-                    // currentBest as the start of the chain.
-                    //
-                    // The trick both cases can be solved by the same code.
-                    LinkedList<T> tail = farther.tail;
-                    farther.tail = currentBest;
-                    currentBest.tail = tail;
-                    currentBest = newHead;
                 }
-                // Search the other side.
                 if (fartherChild != null) {
-                    currentBest = fartherChild.findNearest(queryOther, queryAxis, currentBest);
+                    fartherChild.findNearestManhattan(queryOther, queryAxis, currentBest);
+                }
+            }
+        }
+
+        private LinkedList<T> findNearestChebyshev(double queryAxis, double queryOther, LinkedList<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+            }
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                currentBest = closerChild.findNearestChebyshev(queryOther, queryAxis, currentBest);
+            }
+            // Chebyshev distance is at least the distance along the axis.
+            double distanceToHyperplane = Math.abs(diffAxis);
+            if (distanceToHyperplane <= currentBest.distance) {
+                double d = Math.max(distanceToHyperplane, Math.abs(queryOther - otherValue));
+                if (d <= currentBest.distance) {
+                    currentBest = currentBest.insertGroup(this, d);
+                }
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearestChebyshev(queryOther, queryAxis, currentBest);
                 }
             }
             return currentBest;
         }
 
-        private void findNearest(double queryAxis, double queryOther, NearestPoint<T> currentBest) {
-            // Negative number means this point is on the left to the query point.
+        private void findNearestChebyshev(double queryAxis, double queryOther, NearestPoint<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+            }
             double diffAxis = queryAxis - axisValue;
             Point<T> closerChild, fartherChild;
             if (diffAxis >= 0) {
@@ -372,27 +1133,90 @@ public class KDTreeDouble<T> {
                 closerChild = smaller;
                 fartherChild = bigger;
             }
-            // First check the closer side
             if (closerChild != null) {
-                closerChild.findNearest(queryOther, queryAxis, currentBest);
+                closerChild.findNearestChebyshev(queryOther, queryAxis, currentBest);
+            }
+            double distanceToHyperplane = Math.abs(diffAxis);
+            if (distanceToHyperplane <= currentBest.distance) {
+                double d = Math.max(distanceToHyperplane, Math.abs(queryOther - otherValue));
+                if (d <= currentBest.distance) {
+                    currentBest.p = this;
+                    currentBest.distance = d;
+                }
+                if (fartherChild != null) {
+                    fartherChild.findNearestChebyshev(queryOther, queryAxis, currentBest);
+                }
             }
-            // Now let's see it the other side is still relevant. Since that search
-            // might have narrowed the circle.
+        }
 
-            // Calculate distance to axis.
-            double distanceToHyperplane = diffAxis * diffAxis;
-            // See if line intersects circle
+        private LinkedList<T> findNearest(double queryAxis, double queryOther, double weightAxis, double weightOther, LinkedList<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+                temp = weightAxis;
+                weightAxis = weightOther;
+                weightOther = temp;
+            }
+            // Same as the unweighted search, with the squared weights of the axes swapped along with the
+            // coordinates on every level.
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                currentBest = closerChild.findNearest(queryOther, queryAxis, weightOther, weightAxis, currentBest);
+            }
+            double distanceToHyperplane = weightAxis * diffAxis * diffAxis;
             if (distanceToHyperplane <= currentBest.distance) {
-                // If it does then this point might be the best one.
                 double diffOther = queryOther - otherValue;
-                double d = distanceToHyperplane + diffOther * diffOther;
+                double d = distanceToHyperplane + weightOther * diffOther * diffOther;
+                if (d <= currentBest.distance) {
+                    currentBest = currentBest.insertGroup(this, d);
+                }
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearest(queryOther, queryAxis, weightOther, weightAxis, currentBest);
+                }
+            }
+            return currentBest;
+        }
+
+        private void findNearest(double queryAxis, double queryOther, double weightAxis, double weightOther, NearestPoint<T> currentBest) {
+            if (swapped) {
+                double temp = queryAxis;
+                queryAxis = queryOther;
+                queryOther = temp;
+                temp = weightAxis;
+                weightAxis = weightOther;
+                weightOther = temp;
+            }
+            double diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                closerChild.findNearest(queryOther, queryAxis, weightOther, weightAxis, currentBest);
+            }
+            double distanceToHyperplane = weightAxis * diffAxis * diffAxis;
+            if (distanceToHyperplane <= currentBest.distance) {
+                double diffOther = queryOther - otherValue;
+                double d = distanceToHyperplane + weightOther * diffOther * diffOther;
                 if (d <= currentBest.distance) {
                     currentBest.p = this;
                     currentBest.distance = d;
                 }
-                // Search the other side.
                 if (fartherChild != null) {
-                    fartherChild.findNearest(queryOther, queryAxis, currentBest);
+                    fartherChild.findNearest(queryOther, queryAxis, weightOther, weightAxis, currentBest);
                 }
             }
         }
@@ -427,6 +1251,50 @@ public class KDTreeDouble<T> {
             this.distance = distance;
         }
 
+        /**
+         * Inserts the point into the chain, replacing the farthest point, which is the head of the chain.
+         *
+         * @return new head of the chain
+         */
+        private LinkedList<T> insert(Point<T> point, double distance) {
+            // Start with the farthest point in the list
+            // This point is farther than the this point
+            LinkedList<T> farther = this;
+            LinkedList<T> newHead = this;
+            // Scroll down the list to find the last node that is farther than this node
+            while (farther.tail != null && distance <= farther.tail.distance) {
+                farther = farther.tail;
+                newHead = this.tail;
+            }
+            this.head = point;
+            this.distance = distance;
+            // Here's a bit of a trickeroo. We've got 2 scenarios:
+            // - The farthest (first) point in the list is the one being replaced. In that case
+            // it's really easy, we're done already.
+            // - In other cases we need assign first point (this) into the chain as tail of
+            // "farther" then we need to update the new head to keep it as the start of the chain.
+            //
+            // The trick both cases can be solved by the same code.
+            LinkedList<T> fartherTail = farther.tail;
+            farther.tail = this;
+            this.tail = fartherTail;
+            return newHead;
+        }
+
+        /**
+         * Inserts the point and the points with the same coordinates, while the chain has room for them.
+         *
+         * @return new head of the chain
+         */
+        private LinkedList<T> insertGroup(Point<T> point, double distance) {
+            LinkedList<T> c = insert(point, distance);
+            // With the chain full, a point at the same distance doesn't improve it.
+            for (Point<T> p = point.duplicate; p != null && (c.head == null || distance < c.distance); p = p.duplicate) {
+                c = c.insert(p, distance);
+            }
+            return c;
+        }
+
         public LinkedList<T> dropEmptyPrefix() {
             LinkedList<T> c = LinkedList.this;
             while (c != null && c.head == null) {
@@ -469,6 +1337,137 @@ public class KDTreeDouble<T> {
         }
     }
 
+    /**
+     * Query for a search with wrapping. It holds the images of the query point shifted across the borders, sorted
+     * by the squared distance between the image and the border it was shifted across.
+     */
+    private static class WrapQuery {
+
+        private final double[] gaps = new double[9];
+        private final double height;
+        private int images;
+        private final double[] shiftsX = new double[9];
+        private final double[] shiftsY = new double[9];
+        private final double width;
+        private final boolean wrapX, wrapY;
+        private double x, y;
+        private final double originX, originY;
+
+        private WrapQuery(double x, double y, double xMin, double yMin, double xMax, double yMax, Wrapping wrapping) {
+            this.wrapX = wrapping.wrapsX();
+            this.wrapY = wrapping.wrapsY();
+            this.width = xMax - xMin + 1;
+            this.height = yMax - yMin + 1;
+            // Move the query point into the area, so every point has a single image closest to it.
+            if (wrapX) {
+                x = xMin + mod(x - xMin, width);
+            }
+            if (wrapY) {
+                y = yMin + mod(y - yMin, height);
+            }
+            this.originX = x;
+            this.originY = y;
+            addImage(0, 0, 0);
+            double left = x - xMin + 1, right = xMax - x + 1, bottom = y - yMin + 1, top = yMax - y + 1;
+            if (wrapX) {
+                addImage(width, 0, left * left);
+                addImage(-width, 0, right * right);
+            }
+            if (wrapY) {
+                addImage(0, height, bottom * bottom);
+                addImage(0, -height, top * top);
+            }
+            if (wrapX && wrapY) {
+                addImage(width, height, left * left + bottom * bottom);
+                addImage(-width, height, right * right + bottom * bottom);
+                addImage(width, -height, left * left + top * top);
+                addImage(-width, -height, right * right + top * top);
+            }
+        }
+
+        private static double mod(double a, double b) {
+            double m = a % b;
+            return m < 0 ? m + b : m;
+        }
+
+        /**
+         * A point is accepted only in the image of the query closest to it, so it is found once, at its
+         * wrapped distance.
+         */
+        private boolean accepts(double px, double py) {
+            if (wrapX) {
+                double dx = (x - px) * 2;
+                if (dx <= -width || dx > width) {
+                    return false;
+                }
+            }
+            if (wrapY) {
+                double dy = (y - py) * 2;
+                if (dy <= -height || dy > height) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addImage(double shiftX, double shiftY, double gap) {
+            int i = images++;
+            // Insertion sort, there's at most 9 images.
+            while (i > 0 && gaps[i - 1] > gap) {
+                gaps[i] = gaps[i - 1];
+                shiftsX[i] = shiftsX[i - 1];
+                shiftsY[i] = shiftsY[i - 1];
+                i--;
+            }
+            gaps[i] = gap;
+            shiftsX[i] = shiftX;
+            shiftsY[i] = shiftY;
+        }
+
+        private void moveToImage(int i) {
+            x = originX + shiftsX[i];
+            y = originY + shiftsY[i];
+        }
+    }
+
+    private static class Aggregate<T> {
+        private int count;
+        private final ValueExtractor<? super T> extractor;
+        // Points found, if the points are collected and not only counted.
+        private final List<Point<T>> points;
+        private double sum;
+
+        private Aggregate(ValueExtractor<? super T> extractor, List<Point<T>> points) {
+            this.extractor = extractor;
+            this.points = points;
+        }
+
+        private void add(Point<T> p) {
+            for (; p != null; p = p.duplicate) {
+                count++;
+                sum += extractor == null ? 1 : extractor.extract(p.value);
+                if (points != null) {
+                    points.add(p);
+                }
+            }
+        }
+
+        private void addSubtree(Point<T> p) {
+            if (points == null) {
+                count += p.count;
+                sum += p.sum;
+            } else {
+                add(p);
+                if (p.smaller != null) {
+                    addSubtree(p.smaller);
+                }
+                if (p.bigger != null) {
+                    addSubtree(p.bigger);
+                }
+            }
+        }
+    }
+
     private static class NearestPoint<T> {
         private double distance;
         private Point<T> p;
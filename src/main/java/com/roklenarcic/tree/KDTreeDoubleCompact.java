@@ -0,0 +1,298 @@
+package com.roklenarcic.tree;
+
+/**
+ * 2-D tree with coordinates of the double type that doesn't keep the exact coordinates, for very large sets of
+ * points.
+ *
+ * The points are given by a {@link CoordinateSource} and identified by their indexes in it. The tree splits
+ * the points into buckets of at most 64 points and keeps for every point only its index and its coordinates
+ * as 16-bit offsets in the bounding box of its bucket, 8 bytes per point, plus the bounding boxes of the
+ * nodes, about 2 bytes per point. {@link KDTreeDouble} needs about 80 bytes per point and
+ * {@link KDTreeDoubleIds} 24.
+ *
+ * A query skips the nodes by their bounding boxes and the points by the distance to the box of their offsets.
+ * The exact coordinates are read from the source only for the points that can be closer than the points found
+ * so far, and the results are ranked by the exact distance, so they are the same as with exact coordinates.
+ * Reading the source should be fast, e.g. from arrays or objects the application keeps anyway.
+ *
+ * Queries return the indexes of the points. The index -1 is returned when no point is found.
+ *
+ * The coordinates are limited to [-3.7E153...3.7E153].
+ *
+ * @author Rok Lenarcic
+ */
+public class KDTreeDoubleCompact {
+
+    static final int BUCKET_SIZE = 64;
+    private static final double MAX_COORD_VAL = (Math.sqrt(Double.MAX_VALUE) / 1.81) / 2;
+    private static final int MAX_OFFSET = 65535;
+
+    // Bounding boxes of the nodes as xMin, yMin, xMax, yMax, the children of the node k are 2k + 1 and 2k + 2.
+    private final double[] boxes;
+    // Indexes of the points in the tree order.
+    private final int[] indexes;
+    // Offsets of the points in the boxes of their buckets, in units of 1/65535 of the box.
+    private final char[] offsetsX;
+    private final char[] offsetsY;
+    private final CoordinateSource source;
+
+    /**
+     * Build a tree over the points of the source with indexes from 0 to size - 1. The coordinates are read once
+     * for the build, which needs 16 bytes per point more while it runs.
+     *
+     * @param source
+     *            exact coordinates of the points
+     * @param size
+     *            number of points
+     */
+    public KDTreeDoubleCompact(CoordinateSource source, int size) {
+        this.source = source;
+        double[] xs = new double[size], ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = source.getX(i);
+            ys[i] = source.getY(i);
+            // Also rejects NaN.
+            if (!(Math.abs(xs[i]) <= MAX_COORD_VAL && Math.abs(ys[i]) <= MAX_COORD_VAL)) {
+                throw new IllegalArgumentException("Point X=" + xs[i] + ", Y=" + ys[i] + " has coordinates out of [-3.7E153...3.7E153] interval.");
+            }
+        }
+        this.indexes = PointStoreInt.indexes(size);
+        this.offsetsX = new char[size];
+        this.offsetsY = new char[size];
+        this.boxes = new double[4 * nodeCount(size)];
+        if (size != 0) {
+            buildTree(0, 0, size, xs, ys);
+        }
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the index of the point closest to the coordinates given within max distance or -1
+     */
+    public int findNearest(double x, double y, double maxDistance) {
+        NearestIds nearest = new NearestIds(1, maxDistance * maxDistance);
+        if (indexes.length != 0 && boxDistance(0, x, y) <= nearest.distance) {
+            search(0, 0, indexes.length, x, y, nearest);
+        }
+        return nearest.size == 0 ? -1 : nearest.indexes[0];
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The indexes returned are sorted from the closest point to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return indexes of the points closest to the coordinates given, in order of ascending distance
+     */
+    public int[] findNearest(double x, double y, double maxDistance, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return new int[0];
+        }
+        NearestIds nearest = new NearestIds(numberOfNearest, maxDistance * maxDistance);
+        if (indexes.length != 0 && boxDistance(0, x, y) <= nearest.distance) {
+            search(0, 0, indexes.length, x, y, nearest);
+        }
+        int[] ret = new int[nearest.size];
+        System.arraycopy(nearest.indexes, 0, ret, 0, nearest.size);
+        return ret;
+    }
+
+    /**
+     * @return modelled size of the tree on the heap in bytes, without the coordinate source, see {@link MemoryFootprint}
+     */
+    public long getRetainedSize() {
+        return retainedSize(indexes.length);
+    }
+
+    /**
+     * @return number of points in the tree
+     */
+    public int size() {
+        return indexes.length;
+    }
+
+    /**
+     * @return number of nodes of a tree with the number of points given
+     */
+    static int nodeCount(int size) {
+        // Ranges are split in the middle, so the levels of the tree are until the ranges fit into buckets.
+        int levels = 1;
+        while ((size - 1 >> (levels - 1)) + 1 > BUCKET_SIZE) {
+            levels++;
+        }
+        return (1 << levels) - 1;
+    }
+
+    /**
+     * @return size of a tree with the number of points given, see {@link MemoryFootprint}
+     */
+    static long retainedSize(int points) {
+        // The tree has 5 references, the arrays are the indexes, the offsets and 4 doubles for every node.
+        return MemoryFootprint.object(5 * MemoryFootprint.REFERENCE) + MemoryFootprint.array(points, 4) + 2 * MemoryFootprint.array(points, 2)
+                + MemoryFootprint.array(4L * nodeCount(points), 8);
+    }
+
+    /**
+     * @return squared distance from the query to the bounding box of the node
+     */
+    private double boxDistance(int node, double x, double y) {
+        int b = 4 * node;
+        double dx = x < boxes[b] ? boxes[b] - x : (x > boxes[b + 2] ? x - boxes[b + 2] : 0);
+        double dy = y < boxes[b + 1] ? boxes[b + 1] - y : (y > boxes[b + 3] ? y - boxes[b + 3] : 0);
+        return dx * dx + dy * dy;
+    }
+
+    private void buildTree(int node, int lo, int hi, double[] xs, double[] ys) {
+        double xMin = Double.POSITIVE_INFINITY, yMin = Double.POSITIVE_INFINITY, xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            int p = indexes[i];
+            xMin = Math.min(xMin, xs[p]);
+            yMin = Math.min(yMin, ys[p]);
+            xMax = Math.max(xMax, xs[p]);
+            yMax = Math.max(yMax, ys[p]);
+        }
+        int b = 4 * node;
+        boxes[b] = xMin;
+        boxes[b + 1] = yMin;
+        boxes[b + 2] = xMax;
+        boxes[b + 3] = yMax;
+        if (hi - lo <= BUCKET_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                offsetsX[i] = offset(xs[indexes[i]], xMin, xMax);
+                offsetsY[i] = offset(ys[indexes[i]], yMin, yMax);
+            }
+        } else {
+            int mid = (lo + hi) >>> 1;
+            // Split the points on the axis of the longer side of the box.
+            select(lo, hi - 1, mid, yMax - yMin > xMax - xMin ? ys : xs);
+            buildTree(2 * node + 1, lo, mid, xs, ys);
+            buildTree(2 * node + 2, mid, hi, xs, ys);
+        }
+    }
+
+    private static char offset(double value, double min, double max) {
+        return max == min ? 0 : (char) Math.max(0, Math.min(MAX_OFFSET, Math.round((value - min) / (max - min) * MAX_OFFSET)));
+    }
+
+    private void search(int node, int lo, int hi, double x, double y, NearestIds nearest) {
+        if (hi - lo <= BUCKET_SIZE) {
+            int b = 4 * node;
+            double xMin = boxes[b], yMin = boxes[b + 1];
+            double stepX = (boxes[b + 2] - xMin) / MAX_OFFSET, stepY = (boxes[b + 3] - yMin) / MAX_OFFSET;
+            // The point is within half a step of its offset. A whole step and a few units in the last place of
+            // the coordinates cover the rounding errors, also for boxes much smaller than their coordinates.
+            double marginX = stepX + 4 * Math.ulp(Math.abs(x) + Math.abs(xMin) + Math.abs(boxes[b + 2]));
+            double marginY = stepY + 4 * Math.ulp(Math.abs(y) + Math.abs(yMin) + Math.abs(boxes[b + 3]));
+            for (int i = lo; i < hi; i++) {
+                double dx = Math.max(0, Math.abs(x - (xMin + offsetsX[i] * stepX)) - marginX);
+                double dy = Math.max(0, Math.abs(y - (yMin + offsetsY[i] * stepY)) - marginY);
+                if (dx * dx + dy * dy <= nearest.distance) {
+                    int p = indexes[i];
+                    dx = x - source.getX(p);
+                    dy = y - source.getY(p);
+                    double d = dx * dx + dy * dy;
+                    if (d <= nearest.distance) {
+                        nearest.insert(p, d);
+                    }
+                }
+            }
+        } else {
+            int mid = (lo + hi) >>> 1;
+            int smaller = 2 * node + 1, bigger = smaller + 1;
+            double smallerDistance = boxDistance(smaller, x, y), biggerDistance = boxDistance(bigger, x, y);
+            // The closer child first, the other one only if its box is still close enough.
+            if (smallerDistance <= biggerDistance) {
+                search(smaller, lo, mid, x, y, nearest);
+                if (biggerDistance <= nearest.distance) {
+                    search(bigger, mid, hi, x, y, nearest);
+                }
+            } else {
+                search(bigger, mid, hi, x, y, nearest);
+                if (smallerDistance <= nearest.distance) {
+                    search(smaller, lo, mid, x, y, nearest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the point with the k-th smallest key in the range [lo, hi] of the tree order to index k, with points
+     * with smaller or equal keys before it and greater or equal keys after it.
+     */
+    private void select(int lo, int hi, int k, double[] keys) {
+        while (hi > lo) {
+            double pivot = keys[indexes[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[indexes[i]] < pivot) {
+                    i++;
+                }
+                while (keys[indexes[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = indexes[i];
+                    indexes[i] = indexes[j];
+                    indexes[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Indexes of the nearest points found so far, sorted by ascending distance. When all slots are taken the
+     * distance of the search is the distance of the last one.
+     */
+    private static class NearestIds {
+
+        private double distance;
+        private final double[] distances;
+        private final int[] indexes;
+        private int size;
+
+        private NearestIds(int length, double distance) {
+            // Nothing fits in an empty list.
+            this.distance = length == 0 ? -1 : distance;
+            this.distances = new double[length];
+            this.indexes = new int[length];
+        }
+
+        private void insert(int index, double d) {
+            int i = size < indexes.length ? size++ : size - 1;
+            // Shift farther points to the right, dropping the farthest one if full.
+            while (i > 0 && distances[i - 1] > d) {
+                distances[i] = distances[i - 1];
+                indexes[i] = indexes[i - 1];
+                i--;
+            }
+            distances[i] = d;
+            indexes[i] = index;
+            if (size == indexes.length) {
+                distance = distances[size - 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 2-D tree with coordinates of the double type, where every point carries an int id instead of a value object.
+ *
+ * The points are kept in flat primitive arrays in the tree order, where the node of a range of the arrays is
+ * in the middle of the range and its subtrees are in the halves left and right of it. There are no point
+ * objects and no child references, which makes the tree a lot smaller than {@link KDTreeDouble} and saves a
+ * dereference for every point visited.
+ *
+ * A tree can also be built over a {@link PointStoreDouble}, which it doesn't change. The tree then keeps only
+ * an array with its ordering of the points, so many trees can share the same points.
+ *
+ * Queries return the ids of the points. The id -1 is returned when no point is found, so ids shouldn't be
+ * negative.
+ *
+ * The maximum area coordinates are limited to [-3.7E153...3.7E153].
+ *
+ * @author Rok Lenarcic
+ */
+public class KDTreeDoubleIds {
+
+    // Rows of the neighbour graph computed by one task.
+    static final int GRAPH_CHUNK = 1024;
+    private static final double MAX_COORD_VAL = (Math.sqrt(Double.MAX_VALUE) / 1.81) / 2;
+
+    // Number of levels of the tree.
+    private final int height;
+    private final int[] ids;
+    // Tree order of the points, the node of a range is at its middle, the values are indexes in the point arrays.
+    // Null when the tree owns the arrays, which are then in the tree order themselves.
+    private final int[] order;
+    // The arrays of the points belong to a store.
+    private final boolean shared;
+    private final double xMax;
+    private final double xMin;
+    private final double[] xs;
+    private final double yMax;
+    private final double yMin;
+    private final double[] ys;
+
+    /**
+     * Build a tree from arrays of coordinates and ids, where the point i is given by xs[i], ys[i] and ids[i].
+     * The arrays are copied. The map area is limited by the limits given, inclusive.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public KDTreeDoubleIds(double[] xs, double[] ys, int[] ids, double xMin, double yMin, double xMax, double yMax) {
+        this(xs, ys, ids, xMin, yMin, xMax, yMax, true, false);
+    }
+
+    /**
+     * Build a tree from arrays of coordinates, where the point i is given by xs[i] and ys[i], and its id is i.
+     * The arrays are copied. The map area is limited by the limits given, inclusive.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public KDTreeDoubleIds(double[] xs, double[] ys, double xMin, double yMin, double xMax, double yMax) {
+        this(xs, ys, null, xMin, yMin, xMax, yMax, true, false);
+    }
+
+    /**
+     * Build a tree over the points of the store. The store isn't changed, the tree only keeps its own ordering
+     * of the points, so the store can be shared by many trees. The map area is limited by the limits given,
+     * inclusive.
+     *
+     * @param store
+     *            points with coordinates and ids
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public KDTreeDoubleIds(PointStoreDouble store, double xMin, double yMin, double xMax, double yMax) {
+        this(store.xs, store.ys, store.ids, xMin, yMin, xMax, yMax, false, true);
+    }
+
+    private KDTreeDoubleIds(double[] xs, double[] ys, int[] ids, double xMin, double yMin, double xMax, double yMax, boolean copy, boolean shared) {
+        this.shared = shared;
+        if (xMin < xMax && yMin < yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+            if (xMax > MAX_COORD_VAL || xMin < -MAX_COORD_VAL || yMax > MAX_COORD_VAL || yMin < -MAX_COORD_VAL) {
+                throw new IllegalArgumentException("Area limits too big, out of [-3.7E153...3.7E153] interval.");
+            }
+            if (xs.length != ys.length || (ids != null && xs.length != ids.length)) {
+                throw new IllegalArgumentException("Coordinate and id arrays have different lengths.");
+            }
+            for (int i = 0; i < xs.length; i++) {
+                if (xs[i] > xMax || xs[i] < xMin || ys[i] > yMax || ys[i] < yMin) {
+                    throw new IllegalArgumentException("Point X=" + xs[i] + ", Y=" + ys[i] + " has coordinates out of the tree area.");
+                }
+            }
+            if (shared) {
+                // Points are in the store, only the tree order is built.
+                this.xs = xs;
+                this.ys = ys;
+                this.ids = ids;
+                this.order = PointStoreInt.indexes(xs.length);
+                this.height = 32 - Integer.numberOfLeadingZeros(xs.length);
+                buildTree(order, 0, xs.length, xs, ys);
+                return;
+            }
+            if (ids == null) {
+                ids = PointStoreInt.indexes(xs.length);
+            } else if (copy) {
+                ids = ids.clone();
+            }
+            this.xs = copy ? xs.clone() : xs;
+            this.ys = copy ? ys.clone() : ys;
+            this.ids = ids;
+            this.order = null;
+            this.height = 32 - Integer.numberOfLeadingZeros(xs.length);
+            int[] order = PointStoreInt.indexes(xs.length);
+            buildTree(order, 0, xs.length, this.xs, this.ys);
+            // The arrays are owned by the tree, so move the points into the tree order for locality. The nodes
+            // are then found without the order.
+            permuteToTreeOrder(order, this.xs, this.ys, ids);
+        } else {
+            throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
+        }
+    }
+
+    /**
+     * Build a tree from arrays of coordinates and ids, where the point i is given by xs[i], ys[i] and ids[i],
+     * without copying them. The arrays are reordered into the tree order and kept by the tree, so they must not
+     * be changed afterwards. This halves the peak memory of the build for large columnar inputs.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @return the tree
+     */
+    public static KDTreeDoubleIds buildInPlace(double[] xs, double[] ys, int[] ids, double xMin, double yMin, double xMax, double yMax) {
+        return new KDTreeDoubleIds(xs, ys, ids, xMin, yMin, xMax, yMax, false, false);
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The smaller the maximum distance, the faster the query.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the id of the point in the tree closest to the coordinates given within max distance or -1
+     */
+    public int findNearest(double x, double y, double maxDistance) {
+        NearestIds nearest = new NearestIds(1, maxDistance * maxDistance);
+        if (xs.length != 0) {
+            search(x, y, nearest, -1, -1, -1);
+        }
+        return nearest.size == 0 ? -1 : ids[nearest.indexes[0]];
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The ids returned are sorted from the
+     * closest point to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return ids of the points in the tree closest to the coordinates given, in order of ascending distance
+     */
+    public int[] findNearest(double x, double y, double maxDistance, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return new int[0];
+        }
+        NearestIds nearest = new NearestIds(numberOfNearest, maxDistance * maxDistance);
+        if (xs.length != 0) {
+            search(x, y, nearest, -1, -1, -1);
+        }
+        int[] ret = new int[nearest.size];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ids[nearest.indexes[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * Find the nearest neighbours of all points of the tree, computed in parallel on a thread for each
+     * processor.
+     *
+     * @param numberOfNearest
+     *            number of neighbours of every point
+     * @return the graph of the neighbours
+     */
+    public NeighbourGraph nearestNeighbours(int numberOfNearest) {
+        return nearestNeighbours(numberOfNearest, null);
+    }
+
+    /**
+     * Find the nearest neighbours of all points of the tree, computed in parallel with the executor given. The
+     * rows of the graph are in the tree order, so the rows computed together are of points close together.
+     *
+     * Every point first searches the small subtree it's in, a contiguous range of the arrays, which gives a
+     * close bound for the search of the rest of the tree. On a single thread this is almost twice as fast as a
+     * query for every point.
+     *
+     * @param numberOfNearest
+     *            number of neighbours of every point
+     * @param executor
+     *            executor to compute the rows with, if null a thread for each processor is used
+     * @return the graph of the neighbours
+     */
+    public NeighbourGraph nearestNeighbours(final int numberOfNearest, ExecutorService executor) {
+        if (numberOfNearest < 0 || (long) numberOfNearest * xs.length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Number of nearest must be at least 0 and the graph must fit into an array.");
+        }
+        final int[] rowIds = new int[xs.length];
+        final int[] neighbours = new int[xs.length * numberOfNearest];
+        final double[] distances = new double[xs.length * numberOfNearest];
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                computeNeighbours(numberOfNearest, rowIds, neighbours, distances, executor);
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            computeNeighbours(numberOfNearest, rowIds, neighbours, distances, executor);
+        }
+        return new NeighbourGraph(rowIds, neighbours, distances, numberOfNearest);
+    }
+
+    /**
+     * @return modelled size of the tree on the heap in bytes, without the arrays of a store it shares, see
+     *         {@link MemoryFootprint}
+     */
+    public long getRetainedSize() {
+        return retainedSize(xs.length, shared);
+    }
+
+    /**
+     * @return size of a tree with the number of points given, see {@link MemoryFootprint}
+     */
+    static long retainedSize(int points, boolean shared) {
+        // The tree has the height, 4 array references, 4 doubles for the area and the shared flag.
+        // A tree over a store keeps only its order, a tree that owns the arrays keeps only the arrays.
+        return MemoryFootprint.object(4 + 4 * MemoryFootprint.REFERENCE + 4 * 8 + 1) + (shared ? MemoryFootprint.array(points, 4) : MemoryFootprint.array(points, 4) + 2 * MemoryFootprint.array(points, 8));
+    }
+
+    /**
+     * @return number of points in the tree
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    private void buildTree(int[] order, int lo, int hi, double[] axisValues, double[] otherValues) {
+        if (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(order, lo, hi - 1, mid, axisValues);
+            // Smaller half has points with axis values less or equal to the node, the bigger half greater or
+            // equal.
+            buildTree(order, lo, mid, otherValues, axisValues);
+            buildTree(order, mid + 1, hi, otherValues, axisValues);
+        }
+    }
+
+    private void computeNeighbours(final int numberOfNearest, final int[] rowIds, final int[] neighbours, final double[] distances,
+            ExecutorService executor) {
+        List<Future<?>> chunks = new ArrayList<Future<?>>();
+        for (int i = 0; i < xs.length; i += GRAPH_CHUNK) {
+            final int from = i, to = Math.min(xs.length, i + GRAPH_CHUNK);
+            chunks.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    computeNeighbours(from, to, numberOfNearest, rowIds, neighbours, distances);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing the neighbours.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new IllegalStateException("Computing the neighbours failed.", e.getCause());
+            }
+        }
+    }
+
+    private void computeNeighbours(int from, int to, int numberOfNearest, int[] rowIds, int[] neighbours, double[] distances) {
+        // Subtrees of this size hold enough points for a close bound and are quick to scan.
+        int seedSize = Math.max(32, 4 * numberOfNearest);
+        for (int r = from; r < to; r++) {
+            int self = order == null ? r : order[r];
+            double x = xs[self], y = ys[self];
+            NearestIds nearest = new NearestIds(numberOfNearest, Double.POSITIVE_INFINITY);
+            // Find the smallest subtree with the point that isn't larger than the seed size. The few points that
+            // are nodes of larger subtrees search without a seed.
+            int lo = 0, hi = xs.length;
+            while (hi - lo > seedSize) {
+                int mid = (lo + hi) >>> 1;
+                if (r == mid) {
+                    lo = hi = -1;
+                } else if (r < mid) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            for (int i = lo; i < hi; i++) {
+                int p = order == null ? i : order[i];
+                double dx = x - xs[p], dy = y - ys[p];
+                double d = dx * dx + dy * dy;
+                if (d <= nearest.distance && p != self) {
+                    nearest.insert(p, d);
+                }
+            }
+            search(x, y, nearest, lo, hi, self);
+            rowIds[r] = ids[self];
+            for (int i = 0, row = r * numberOfNearest; i < numberOfNearest; i++) {
+                if (i < nearest.size) {
+                    neighbours[row + i] = ids[nearest.indexes[i]];
+                    distances[row + i] = Math.sqrt(nearest.distances[i]);
+                } else {
+                    neighbours[row + i] = -1;
+                    distances[row + i] = Double.POSITIVE_INFINITY;
+                }
+            }
+        }
+    }
+
+    /**
+     * Search the tree, skipping the subtree of the range [skipLo, skipHi) and the point with index self.
+     */
+    private void search(double x, double y, NearestIds currentBest, int skipLo, int skipHi, int self) {
+        // Farther subtrees still to be searched, with their range, axis and squared distance from the query to
+        // their splitting line. Every pending subtree is a sibling of a node on the current path, so the tree
+        // height is enough.
+        int[] pendingRanges = new int[3 * height];
+        double[] pendingDistances = new double[height];
+        int pending = 0;
+        int[] order = this.order;
+        int lo = 0, hi = xs.length, axis = 0;
+        while (true) {
+            // Go down the closer side, checking the nodes on the way.
+            while (lo < hi && (lo != skipLo || hi != skipHi)) {
+                int mid = (lo + hi) >>> 1;
+                int p = order == null ? mid : order[mid];
+                // Negative number means this point is on the left to the query point.
+                double diffAxis, diffOther;
+                if (axis == 0) {
+                    diffAxis = x - xs[p];
+                    diffOther = y - ys[p];
+                } else {
+                    diffAxis = y - ys[p];
+                    diffOther = x - xs[p];
+                }
+                double distanceToHyperplane = diffAxis * diffAxis;
+                double d = distanceToHyperplane + diffOther * diffOther;
+                if (d <= currentBest.distance && p != self) {
+                    currentBest.insert(p, d);
+                }
+                axis ^= 1;
+                if (diffAxis >= 0) {
+                    if (lo < mid && distanceToHyperplane <= currentBest.distance) {
+                        pendingRanges[3 * pending] = lo;
+                        pendingRanges[3 * pending + 1] = mid;
+                        pendingRanges[3 * pending + 2] = axis;
+                        pendingDistances[pending++] = distanceToHyperplane;
+                    }
+                    lo = mid + 1;
+                } else {
+                    if (mid + 1 < hi && distanceToHyperplane <= currentBest.distance) {
+                        pendingRanges[3 * pending] = mid + 1;
+                        pendingRanges[3 * pending + 1] = hi;
+                        pendingRanges[3 * pending + 2] = axis;
+                        pendingDistances[pending++] = distanceToHyperplane;
+                    }
+                    hi = mid;
+                }
+            }
+            // Continue with the last pending subtree that the line still intersects.
+            do {
+                if (pending == 0) {
+                    return;
+                }
+                pending--;
+            } while (pendingDistances[pending] > currentBest.distance);
+            lo = pendingRanges[3 * pending];
+            hi = pendingRanges[3 * pending + 1];
+            axis = pendingRanges[3 * pending + 2];
+        }
+    }
+
+    /**
+     * Moves the point with the k-th smallest key in the range [lo, hi] of the tree order to index k, with points
+     * with smaller or equal keys before it and greater or equal keys after it.
+     */
+    private void select(int[] order, int lo, int hi, int k, double[] keys) {
+        while (hi > lo) {
+            double pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the points in the arrays into the tree order given, following the cycles of the permutation, so no
+     * extra arrays are needed. The order is marked on the way and isn't usable afterwards.
+     */
+    private static void permuteToTreeOrder(int[] order, double[] xs, double[] ys, int[] ids) {
+        for (int start = 0; start < order.length; start++) {
+            if (order[start] >= 0) {
+                double x = xs[start], y = ys[start];
+                int id = ids[start];
+                int j = start;
+                while (true) {
+                    // Position j takes the point at position k, visited positions are marked by negation.
+                    int k = order[j];
+                    order[j] = ~k;
+                    if (k == start) {
+                        xs[j] = x;
+                        ys[j] = y;
+                        ids[j] = id;
+                        break;
+                    }
+                    xs[j] = xs[k];
+                    ys[j] = ys[k];
+                    ids[j] = ids[k];
+                    j = k;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes of the nearest points found so far, sorted by ascending distance. When all slots are taken the
+     * distance of the search is the distance of the last one.
+     */
+    private static class NearestIds {
+
+        private double distance;
+        private final double[] distances;
+        private final int[] indexes;
+        private int size;
+
+        private NearestIds(int length, double distance) {
+            // Nothing fits in an empty list.
+            this.distance = length == 0 ? -1 : distance;
+            this.distances = new double[length];
+            this.indexes = new int[length];
+        }
+
+        private void insert(int index, double d) {
+            int i = size < indexes.length ? size++ : size - 1;
+            // Shift farther points to the right, dropping the farthest one if full.
+            while (i > 0 && distances[i - 1] > d) {
+                distances[i] = distances[i - 1];
+                indexes[i] = indexes[i - 1];
+                i--;
+            }
+            distances[i] = d;
+            indexes[i] = index;
+            if (size == indexes.length) {
+                distance = distances[size - 1];
+            }
+        }
+    }
+}
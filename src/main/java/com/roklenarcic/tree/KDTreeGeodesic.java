@@ -0,0 +1,238 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+/**
+ * Index of points on the WGS84 ellipsoid, returning the nearest points by geodesic distance in metres.
+ *
+ * A {@link KDTreeSpherical} finds the candidates, with the search radius widened by the largest difference
+ * between the distance on the sphere and on the ellipsoid, and the candidates are ranked by the geodesic
+ * distance of the ellipsoid (Vincenty's formula). The distance on the sphere is within 0.6% of the geodesic
+ * distance, so the candidate set is small, and the ranking is exact, also for near ties at high latitudes.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class KDTreeGeodesic<T> {
+
+    private static final double DEGREES_IN_RADIAN = 57.29577951308233;
+    // WGS84 semi-major axis and flattening.
+    private static final double EQUATORIAL_RADIUS = 6378137.0;
+    private static final double FLATTENING = 1 / 298.257223563;
+    private static final double POLAR_RADIUS = EQUATORIAL_RADIUS * (1 - FLATTENING);
+    // Mean radius of the sphere the candidates are searched on.
+    private static final double MEAN_RADIUS = 6371008.8;
+    // The geodesic distance is at least this share of the distance on the sphere (0.9944 on WGS84, with
+    // a margin).
+    private static final double SPHERE_RATIO = 0.99;
+
+    private final double maxDistance;
+    private final KDTreeSpherical<T> tree;
+
+    /**
+     * Build an index from list of points, where points are given by the objects of the Point class.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param maxDistance
+     *            max distance from query point to search in metres, at least 0
+     */
+    public KDTreeGeodesic(List<Point<T>> points, double maxDistance) {
+        if (!(maxDistance >= 0)) {
+            throw new IllegalArgumentException("Max distance must be at least 0.");
+        }
+        this.maxDistance = maxDistance;
+        // Queries limit the search by their own radius.
+        this.tree = new KDTreeSpherical<T>(points, 180);
+    }
+
+    /**
+     * Geodesic distance between two points on the WGS84 ellipsoid by Vincenty's formula, accurate to
+     * millimetres. For nearly antipodal points, where the formula doesn't converge, the distance on the mean
+     * sphere is returned.
+     *
+     * @param longitude1
+     *            longitude of the first point
+     * @param latitude1
+     *            latitude of the first point
+     * @param longitude2
+     *            longitude of the second point
+     * @param latitude2
+     *            latitude of the second point
+     * @return distance in metres
+     */
+    public static double distance(double longitude1, double latitude1, double longitude2, double latitude2) {
+        double l = (longitude2 - longitude1) / DEGREES_IN_RADIAN;
+        // Reduced latitudes.
+        double u1 = Math.atan((1 - FLATTENING) * Math.tan(latitude1 / DEGREES_IN_RADIAN));
+        double u2 = Math.atan((1 - FLATTENING) * Math.tan(latitude2 / DEGREES_IN_RADIAN));
+        double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1), sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+        double lambda = l;
+        double sinSigma, cosSigma, sigma, cos2Alpha, cos2SigmaM;
+        int iterations = 0;
+        while (true) {
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            double t1 = cosU2 * sinLambda, t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            if (sinSigma == 0) {
+                // Same point.
+                return 0;
+            }
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cos2Alpha = 1 - sinAlpha * sinAlpha;
+            // On the equator cos2Alpha is 0.
+            cos2SigmaM = cos2Alpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cos2Alpha;
+            double c = FLATTENING / 16 * cos2Alpha * (4 + FLATTENING * (4 - 3 * cos2Alpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * FLATTENING * sinAlpha * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - previous) < 1E-12) {
+                break;
+            } else if (++iterations == 200) {
+                return MEAN_RADIUS * sphereAngle(longitude1, latitude1, longitude2, latitude2);
+            }
+        }
+        double uSquared = cos2Alpha * (EQUATORIAL_RADIUS * EQUATORIAL_RADIUS - POLAR_RADIUS * POLAR_RADIUS) / (POLAR_RADIUS * POLAR_RADIUS);
+        double a = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+        double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+        double deltaSigma = b
+                * sinSigma
+                * (cos2SigmaM + b / 4
+                        * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM) - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return POLAR_RADIUS * a * (sigma - deltaSigma);
+    }
+
+    /**
+     * @return angle between the points on the sphere in radians
+     */
+    private static double sphereAngle(double longitude1, double latitude1, double longitude2, double latitude2) {
+        double lat1 = latitude1 / DEGREES_IN_RADIAN, lat2 = latitude2 / DEGREES_IN_RADIAN;
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin((longitude2 - longitude1) / DEGREES_IN_RADIAN / 2);
+        double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Find the nearest point to the coordinates given by geodesic distance, that is within the maximum
+     * distance, inclusive.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @return the nearest point with its distance or null
+     */
+    public Neighbour<T> findNearest(double longitude, double latitude) {
+        List<Neighbour<T>> nearest = findNearest(longitude, latitude, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given by geodesic distance, that are within the
+     * maximum distance, inclusive. The points returned are sorted from the closest to the farthest.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param numberOfNearest
+     *            number of points to return
+     * @return the nearest points with their distances, in order of ascending distance
+     */
+    public List<Neighbour<T>> findNearest(double longitude, double latitude, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return Collections.emptyList();
+        }
+        double[] q = cartesian(longitude, latitude);
+        // Points within max distance on the ellipsoid are within this angle on the sphere.
+        double angle = Math.min(Math.PI, maxDistance / (MEAN_RADIUS * SPHERE_RATIO));
+        double chord = 2 * Math.sin(0.5 * angle);
+        int candidates = numberOfNearest;
+        while (true) {
+            KDTreeSpherical.LinkedList<T> chain = KDTreeSpherical.LinkedList.constructChain(candidates, chord * chord);
+            chain = tree.findNearest(q[0], q[1], q[2], chain).dropEmptyPrefix();
+            List<Neighbour<T>> found = new ArrayList<Neighbour<T>>();
+            double farthestAngle = 0;
+            if (chain != null) {
+                for (Point<T> p : chain) {
+                    found.add(new Neighbour<T>(p, distance(longitude, latitude, p.getLongitude(), p.getLatitude())));
+                    farthestAngle = Math.max(farthestAngle, sphereAngle(longitude, latitude, p.getLongitude(), p.getLatitude()));
+                }
+            }
+            boolean all = found.size() < candidates;
+            Collections.sort(found, new Comparator<Neighbour<T>>() {
+                public int compare(Neighbour<T> o1, Neighbour<T> o2) {
+                    return Double.compare(o1.distance, o2.distance);
+                }
+            });
+            while (!found.isEmpty() && found.get(found.size() - 1).distance > maxDistance) {
+                found.remove(found.size() - 1);
+            }
+            // Done when every point within the widened radius is a candidate, or when the points that are not
+            // candidates are farther on the ellipsoid than the last of the nearest points.
+            if (all || found.size() >= numberOfNearest && found.get(numberOfNearest - 1).distance <= MEAN_RADIUS * SPHERE_RATIO * farthestAngle) {
+                while (found.size() > numberOfNearest) {
+                    found.remove(found.size() - 1);
+                }
+                return found;
+            }
+            candidates *= 2;
+        }
+    }
+
+    private static double[] cartesian(double longitude, double latitude) {
+        double azimuth = (longitude + 180) / DEGREES_IN_RADIAN;
+        double inclination = (-latitude + 90) / DEGREES_IN_RADIAN;
+        double sinInclination = Math.sin(inclination);
+        return new double[] { sinInclination * Math.cos(azimuth), sinInclination * Math.sin(azimuth), Math.cos(inclination) };
+    }
+
+    /**
+     * Point found by a query, with its geodesic distance from the query point.
+     *
+     * @author Rok Lenarcic
+     *
+     * @param <T>
+     *            type of value
+     */
+    public static class Neighbour<T> {
+
+        private final double distance;
+        private final Point<T> point;
+
+        private Neighbour(Point<T> point, double distance) {
+            this.point = point;
+            this.distance = distance;
+        }
+
+        /**
+         *
+         * @return the geodesic distance from the query point in metres
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         *
+         * @return the point
+         */
+        public Point<T> getPoint() {
+            return point;
+        }
+
+        @Override
+        public String toString() {
+            return point + ", Distance=" + distance;
+        }
+    }
+}
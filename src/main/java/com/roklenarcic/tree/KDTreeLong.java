@@ -0,0 +1,728 @@
+package com.roklenarcic.tree;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 2-D tree with coordinates of the long type.
+ *
+ * It is instantiated with a list of points, and the coordinates of the area of the map. The area information
+ * is used in wrapping.
+ *
+ * The maximum area coordinates are limited to [-1E18, 1E18] and the query coordinates to [-4E18, 4E18], so that
+ * the differences of the coordinates don't overflow. Squared distances don't fit in a long at that
+ * range, so they are kept as 128-bit unsigned numbers in a pair of longs. Distances up to 2^32 take the fast
+ * path where the high part is zero, so for the usual small search radii the tree is nearly as fast as the
+ * int tree, and all distances are still exact.
+ *
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class KDTreeLong<T> {
+
+    private static final long MAX_COORD_VAL = 1000000000000000000L;
+    private static final long MAX_QUERY_VAL = 4000000000000000000L;
+
+    @SuppressWarnings("unchecked")
+    private final Comparator<Point<?>>[] comparators = (Comparator<Point<?>>[]) new Comparator<?>[] { Point.createComparator(0), Point.createComparator(1) };
+
+    private final Point<T> root;
+    private final long xMax;
+    private final long xMin;
+    private final long yMax;
+    private final long yMin;
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The map
+     * area is limited by the limits given, inclusive.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public KDTreeLong(List<Point<T>> points, long xMin, long yMin, long xMax, long yMax) {
+        if (xMin < xMax && yMin < yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+            if (xMax > MAX_COORD_VAL || xMin < -MAX_COORD_VAL || yMax > MAX_COORD_VAL || yMin < -MAX_COORD_VAL) {
+                throw new IllegalArgumentException("Area limits too big, out of [-1E18...1E18] interval.");
+            }
+            root = buildTree(points, 0);
+        } else {
+            throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
+        }
+    }
+
+    private static void checkQuery(long x, long y, long maxDistance) {
+        if (x > MAX_QUERY_VAL || x < -MAX_QUERY_VAL || y > MAX_QUERY_VAL || y < -MAX_QUERY_VAL) {
+            throw new IllegalArgumentException("Query X=" + x + ", Y=" + y + " has coordinates out of [-4E18...4E18] interval.");
+        }
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Max distance must be at least 0.");
+        }
+    }
+
+    /**
+     * High 64 bits of the 128-bit square of the number.
+     */
+    private static long squareHigh(long v) {
+        if (v < 0) {
+            v = -v;
+        }
+        long a = v >>> 32;
+        if (a == 0) {
+            // Square fits in 64 unsigned bits.
+            return 0;
+        }
+        // v^2 = a^2 * 2^64 + ab * 2^33 + b^2
+        long b = v & 0xFFFFFFFFL;
+        long ab = a * b;
+        long bb = b * b;
+        long low = bb + (ab << 33);
+        return a * a + (ab >>> 31) + (unsignedLess(low, bb) ? 1 : 0);
+    }
+
+    private static boolean unsignedLess(long a, long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * Compares two 128-bit unsigned numbers given as high and low 64 bits.
+     */
+    private static boolean lessOrEqual(long high, long low, long otherHigh, long otherLow) {
+        return high < otherHigh || (high == otherHigh && (low ^ Long.MIN_VALUE) <= (otherLow ^ Long.MIN_VALUE));
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The smaller the maximum distance, the faster the query.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearest(long x, long y, long maxDistance) {
+        checkQuery(x, y, maxDistance);
+        NearestPoint<T> nearest = new NearestPoint<T>();
+        if (root != null) {
+            nearest.distanceHigh = squareHigh(maxDistance);
+            nearest.distanceLow = maxDistance * maxDistance;
+            root.findNearest(x, y, nearest);
+        }
+        return nearest.p;
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The points returned are sorted from
+     * the closest to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearest(long x, long y, long maxDistance, int numberOfNearest) {
+        checkQuery(x, y, maxDistance);
+        if (root != null) {
+            LinkedList<T> nearestPoints = LinkedList.constructChain(numberOfNearest, squareHigh(maxDistance), maxDistance * maxDistance);
+            nearestPoints = root.findNearest(x, y, nearestPoints).dropEmptyPrefix();
+            if (nearestPoints != null) {
+                return nearestPoints.reverse();
+            } else {
+                return Collections.emptyList();
+            }
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The smaller the maximum distance, the faster the query. The search wraps across the x axis, where
+     * borders used are the ones given in the constructor. Borders are inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearestWithWrapping(long x, long y, long maxDistance) {
+        return findNearestWithWrapping(x, y, maxDistance, Wrapping.X);
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The smaller the maximum distance, the faster the query. The search wraps across the axes given, where
+     * borders used are the ones given in the constructor. Borders are inclusive, so the period of the x axis
+     * is xMax - xMin + 1.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param wrapping
+     *            axes to wrap across
+     * @return the point in the tree closest to the coordinates given within max distance
+     */
+    public Point<T> findNearestWithWrapping(long x, long y, long maxDistance, Wrapping wrapping) {
+        checkQuery(x, y, maxDistance);
+        NearestPoint<T> nearest = new NearestPoint<T>();
+        if (root != null) {
+            nearest.distanceHigh = squareHigh(maxDistance);
+            nearest.distanceLow = maxDistance * maxDistance;
+            WrapQuery query = new WrapQuery(x, y, xMin, yMin, xMax, yMax, wrapping);
+            // Images are sorted by the distance to their border, the first one is the query itself.
+            for (int i = 0; i < query.images && lessOrEqual(query.gapsHigh[i], query.gapsLow[i], nearest.distanceHigh, nearest.distanceLow); i++) {
+                query.moveToImage(i);
+                root.findNearest(query.x, query.y, query, nearest);
+            }
+        }
+        return nearest.p;
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The points returned are sorted from
+     * the closest to the farthest.
+     *
+     * The search wraps across the x axis, where borders used are the ones given in the constructor. Borders
+     * are inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearestWithWrapping(long x, long y, long maxDistance, int numberOfNearest) {
+        return findNearestWithWrapping(x, y, maxDistance, numberOfNearest, Wrapping.X);
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The points returned are sorted from
+     * the closest to the farthest.
+     *
+     * The search wraps across the axes given, where borders used are the ones given in the constructor.
+     * Borders are inclusive. Every point is returned at most once, at its shortest wrapped distance.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @param wrapping
+     *            axes to wrap across
+     * @return an iterable of points in the tree closest to the coordinates given, in order of ascending
+     *         distance
+     */
+    public Iterable<Point<T>> findNearestWithWrapping(long x, long y, long maxDistance, int numberOfNearest, Wrapping wrapping) {
+        checkQuery(x, y, maxDistance);
+        if (root != null) {
+            LinkedList<T> nearestPoints = LinkedList.constructChain(numberOfNearest, squareHigh(maxDistance), maxDistance * maxDistance);
+            WrapQuery query = new WrapQuery(x, y, xMin, yMin, xMax, yMax, wrapping);
+            // The first node of the chain holds the farthest of the points found so far.
+            for (int i = 0; i < query.images && lessOrEqual(query.gapsHigh[i], query.gapsLow[i], nearestPoints.distanceHigh, nearestPoints.distanceLow); i++) {
+                query.moveToImage(i);
+                nearestPoints = root.findNearest(query.x, query.y, query, nearestPoints);
+            }
+            nearestPoints = nearestPoints.dropEmptyPrefix();
+            if (nearestPoints != null) {
+                return nearestPoints.reverse();
+            } else {
+                return Collections.emptyList();
+            }
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    private Point<T> buildTree(List<Point<T>> points, int axis) {
+        if (points.size() == 0) {
+            return null;
+        } else {
+            // Sort by axis.
+            Collections.sort(points, comparators[axis]);
+            int pivotIdx = points.size() >> 1;
+            if ((points.size() & 1) == 0) { // If odd size
+                // Shift pivot to the left every second level so for lists of size 4
+                // the pivot is idx 1 and 2 every other level.
+                pivotIdx -= axis;
+            }
+            Point<T> p = points.get(pivotIdx);
+            p.rotate(axis);
+            if (p.x > xMax || p.x < xMin || p.y > yMax || p.y < yMin) {
+                throw new IllegalArgumentException("Point " + p + " has coordinates out of the tree area.");
+            }
+            axis = axis ^ 1;
+            // Build subtree. Bigger branch also contains points that has equal axis value to the pivot.
+            p.smaller = buildTree(points.subList(0, pivotIdx), axis);
+            p.bigger = buildTree(points.subList(pivotIdx + 1, points.size()), axis);
+            return p;
+        }
+    }
+
+    /**
+     * Point in the 2-D space with a user specified value attached to it.
+     *
+     * @author Rok Lenarcic
+     *
+     * @param <T>
+     *            type of value
+     */
+    public static class Point<T> {
+
+        private static Comparator<Point<?>> createComparator(final int axis) {
+            return new Comparator<Point<?>>() {
+                public int compare(Point<?> o1, Point<?> o2) {
+                    long d = axis == 0 ? o1.x - o2.x : o1.y - o2.y;
+                    if (d > 0) {
+                        return 1;
+                    } else if (d < 0) {
+                        return -1;
+                    } else {
+                        return 0;
+                    }
+                }
+            };
+        }
+
+        // Axis value other value contain x and y, but in such order
+        // that the value that is used as axis for this point is in axisValue variable.
+        private long axisValue;
+        private long otherValue;
+
+        private Point<T> smaller, bigger;
+
+        private final T value;
+
+        private final long x, y;
+
+        /**
+         * New point with the specified coordinates and the value.
+         *
+         * @param x
+         * @param y
+         * @param value
+         */
+        public Point(long x, long y, T value) {
+            super();
+            this.x = x;
+            this.y = y;
+            this.axisValue = x;
+            this.otherValue = y;
+            this.value = value;
+        }
+
+        /**
+         *
+         * @return the value of the point
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         *
+         * @return the x coordinate of the point
+         */
+        public long getX() {
+            return x;
+        }
+
+        /**
+         *
+         * @return the y coordinate of the point
+         */
+        public long getY() {
+            return y;
+        }
+
+        @Override
+        public String toString() {
+            return "X=" + x + ", Y=" + y;
+        }
+
+        private LinkedList<T> findNearest(long queryAxis, long queryOther, LinkedList<T> currentBest) {
+            // Negative number means this point is on the left to the query point.
+            long diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            // First check the closer side
+            if (closerChild != null) {
+                currentBest = closerChild.findNearest(queryOther, queryAxis, currentBest);
+            }
+            // Now let's see it the other side is still relevant. Since that search
+            // might have narrowed the circle.
+
+            // Calculate distance to axis, as high and low 64 bits.
+            long planeHigh = squareHigh(diffAxis);
+            long planeLow = diffAxis * diffAxis;
+            // See if line intersects circle
+            if (lessOrEqual(planeHigh, planeLow, currentBest.distanceHigh, currentBest.distanceLow)) {
+                // If it does then this point might be the best one.
+                long diffOther = queryOther - otherValue;
+                long dLow = planeLow + diffOther * diffOther;
+                long dHigh = planeHigh + squareHigh(diffOther) + (unsignedLess(dLow, planeLow) ? 1 : 0);
+                if (lessOrEqual(dHigh, dLow, currentBest.distanceHigh, currentBest.distanceLow)) {
+                    currentBest = currentBest.insert(this, dHigh, dLow);
+                }
+                // Search the other side.
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearest(queryOther, queryAxis, currentBest);
+                }
+            }
+            return currentBest;
+        }
+
+        private void findNearest(long queryAxis, long queryOther, NearestPoint<T> currentBest) {
+            // Negative number means this point is on the left to the query point.
+            long diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            // First check the closer side
+            if (closerChild != null) {
+                closerChild.findNearest(queryOther, queryAxis, currentBest);
+            }
+            // Now let's see it the other side is still relevant. Since that search
+            // might have narrowed the circle.
+
+            // Calculate distance to axis, as high and low 64 bits.
+            long planeHigh = squareHigh(diffAxis);
+            long planeLow = diffAxis * diffAxis;
+            // See if line intersects circle
+            if (lessOrEqual(planeHigh, planeLow, currentBest.distanceHigh, currentBest.distanceLow)) {
+                // If it does then this point might be the best one.
+                long diffOther = queryOther - otherValue;
+                long dLow = planeLow + diffOther * diffOther;
+                long dHigh = planeHigh + squareHigh(diffOther) + (unsignedLess(dLow, planeLow) ? 1 : 0);
+                if (lessOrEqual(dHigh, dLow, currentBest.distanceHigh, currentBest.distanceLow)) {
+                    currentBest.p = this;
+                    currentBest.distanceHigh = dHigh;
+                    currentBest.distanceLow = dLow;
+                }
+                // Search the other side.
+                if (fartherChild != null) {
+                    fartherChild.findNearest(queryOther, queryAxis, currentBest);
+                }
+            }
+        }
+
+        private LinkedList<T> findNearest(long queryAxis, long queryOther, WrapQuery query, LinkedList<T> currentBest) {
+            // Same as the unwrapped search, except that a point is only accepted in the image of the query
+            // where its distance is the shortest, so no point is added twice.
+            long diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                currentBest = closerChild.findNearest(queryOther, queryAxis, query, currentBest);
+            }
+            long planeHigh = squareHigh(diffAxis);
+            long planeLow = diffAxis * diffAxis;
+            if (lessOrEqual(planeHigh, planeLow, currentBest.distanceHigh, currentBest.distanceLow)) {
+                long diffOther = queryOther - otherValue;
+                long dLow = planeLow + diffOther * diffOther;
+                long dHigh = planeHigh + squareHigh(diffOther) + (unsignedLess(dLow, planeLow) ? 1 : 0);
+                if (lessOrEqual(dHigh, dLow, currentBest.distanceHigh, currentBest.distanceLow) && query.accepts(x, y)) {
+                    currentBest = currentBest.insert(this, dHigh, dLow);
+                }
+                if (fartherChild != null) {
+                    currentBest = fartherChild.findNearest(queryOther, queryAxis, query, currentBest);
+                }
+            }
+            return currentBest;
+        }
+
+        private void findNearest(long queryAxis, long queryOther, WrapQuery query, NearestPoint<T> currentBest) {
+            long diffAxis = queryAxis - axisValue;
+            Point<T> closerChild, fartherChild;
+            if (diffAxis >= 0) {
+                closerChild = bigger;
+                fartherChild = smaller;
+            } else {
+                closerChild = smaller;
+                fartherChild = bigger;
+            }
+            if (closerChild != null) {
+                closerChild.findNearest(queryOther, queryAxis, query, currentBest);
+            }
+            long planeHigh = squareHigh(diffAxis);
+            long planeLow = diffAxis * diffAxis;
+            if (lessOrEqual(planeHigh, planeLow, currentBest.distanceHigh, currentBest.distanceLow)) {
+                long diffOther = queryOther - otherValue;
+                long dLow = planeLow + diffOther * diffOther;
+                long dHigh = planeHigh + squareHigh(diffOther) + (unsignedLess(dLow, planeLow) ? 1 : 0);
+                if (lessOrEqual(dHigh, dLow, currentBest.distanceHigh, currentBest.distanceLow) && query.accepts(x, y)) {
+                    currentBest.p = this;
+                    currentBest.distanceHigh = dHigh;
+                    currentBest.distanceLow = dLow;
+                }
+                if (fartherChild != null) {
+                    fartherChild.findNearest(queryOther, queryAxis, query, currentBest);
+                }
+            }
+        }
+
+        private void rotate(int axis) {
+            if (axis == 1) {
+                long temp = axisValue;
+                axisValue = otherValue;
+                otherValue = temp;
+            }
+        }
+
+    }
+
+    private static class LinkedList<T> implements Iterable<Point<T>> {
+
+        private static <T> LinkedList<T> constructChain(int length, long distanceHigh, long distanceLow) {
+            LinkedList<T> ret = new LinkedList<T>(distanceHigh, distanceLow);
+            for (int i = 1; i < length; i++) {
+                LinkedList<T> nextNode = new LinkedList<T>(distanceHigh, distanceLow);
+                nextNode.tail = ret;
+                ret = nextNode;
+            }
+            return ret;
+        }
+
+        private long distanceHigh, distanceLow;
+        private Point<T> head;
+        private LinkedList<T> tail;
+
+        private LinkedList(long distanceHigh, long distanceLow) {
+            this.distanceHigh = distanceHigh;
+            this.distanceLow = distanceLow;
+        }
+
+        /**
+         * Inserts the point into the chain, replacing the farthest point, which is the head of the chain.
+         *
+         * @return new head of the chain
+         */
+        private LinkedList<T> insert(Point<T> point, long distanceHigh, long distanceLow) {
+            // Start with the farthest point in the list
+            // This point is farther than the this point
+            LinkedList<T> farther = this;
+            LinkedList<T> newHead = this;
+            // Scroll down the list to find the last node that is farther than this node
+            while (farther.tail != null && lessOrEqual(distanceHigh, distanceLow, farther.tail.distanceHigh, farther.tail.distanceLow)) {
+                farther = farther.tail;
+                newHead = this.tail;
+            }
+            this.head = point;
+            this.distanceHigh = distanceHigh;
+            this.distanceLow = distanceLow;
+            // Same trickeroo as in the int tree, it solves both replacing the first point and moving
+            // it further down the chain.
+            LinkedList<T> fartherTail = farther.tail;
+            farther.tail = this;
+            this.tail = fartherTail;
+            return newHead;
+        }
+
+        public LinkedList<T> dropEmptyPrefix() {
+            LinkedList<T> c = LinkedList.this;
+            while (c != null && c.head == null) {
+                c = c.tail;
+            }
+            return c;
+        }
+
+        public Iterator<Point<T>> iterator() {
+            return new Iterator<Point<T>>() {
+
+                private LinkedList<T> cursor = LinkedList.this;
+
+                public boolean hasNext() {
+                    return cursor != null;
+                }
+
+                public Point<T> next() {
+                    Point<T> p = cursor.head;
+                    cursor = cursor.tail;
+                    return p;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public LinkedList<T> reverse() {
+            LinkedList<T> c = LinkedList.this;
+            LinkedList<T> prev = null;
+            while (c != null) {
+                LinkedList<T> tmp = c;
+                c = c.tail;
+                tmp.tail = prev;
+                prev = tmp;
+            }
+            return prev;
+        }
+    }
+
+    /**
+     * Query for a search with wrapping. It holds the images of the query point shifted across the borders, sorted
+     * by the squared distance between the image and the border it was shifted across.
+     */
+    private static class WrapQuery {
+
+        private final long[] gapsHigh = new long[9];
+        private final long[] gapsLow = new long[9];
+        private final long height;
+        private int images;
+        private final long[] shiftsX = new long[9];
+        private final long[] shiftsY = new long[9];
+        private final long width;
+        private final boolean wrapX, wrapY;
+        private long x, y;
+        private final long originX, originY;
+
+        private WrapQuery(long x, long y, long xMin, long yMin, long xMax, long yMax, Wrapping wrapping) {
+            this.wrapX = wrapping.wrapsX();
+            this.wrapY = wrapping.wrapsY();
+            this.width = xMax - xMin + 1;
+            this.height = yMax - yMin + 1;
+            // Move the query point into the area, so every point has a single image closest to it.
+            if (wrapX) {
+                x = xMin + mod(x - xMin, width);
+            }
+            if (wrapY) {
+                y = yMin + mod(y - yMin, height);
+            }
+            this.originX = x;
+            this.originY = y;
+            insertImage(0, 0, 0, 0);
+            long left = x - xMin + 1, right = xMax - x + 1, bottom = y - yMin + 1, top = yMax - y + 1;
+            if (wrapX) {
+                addImage(width, 0, left, 0);
+                addImage(-width, 0, right, 0);
+            }
+            if (wrapY) {
+                addImage(0, height, 0, bottom);
+                addImage(0, -height, 0, top);
+            }
+            if (wrapX && wrapY) {
+                addImage(width, height, left, bottom);
+                addImage(-width, height, right, bottom);
+                addImage(width, -height, left, top);
+                addImage(-width, -height, right, top);
+            }
+        }
+
+        private static long mod(long a, long b) {
+            long m = a % b;
+            return m < 0 ? m + b : m;
+        }
+
+        /**
+         * A point is accepted only in the image of the query closest to it, so it is found once, at its
+         * wrapped distance.
+         */
+        private boolean accepts(long px, long py) {
+            if (wrapX) {
+                long dx = (x - px) << 1;
+                if (dx <= -width || dx > width) {
+                    return false;
+                }
+            }
+            if (wrapY) {
+                long dy = (y - py) << 1;
+                if (dy <= -height || dy > height) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addImage(long shiftX, long shiftY, long gapX, long gapY) {
+            long low = gapX * gapX + gapY * gapY;
+            long high = squareHigh(gapX) + squareHigh(gapY) + (unsignedLess(low, gapX * gapX) ? 1 : 0);
+            insertImage(shiftX, shiftY, high, low);
+        }
+
+        private void insertImage(long shiftX, long shiftY, long gapHigh, long gapLow) {
+            int i = images++;
+            // Insertion sort, there's at most 9 images.
+            while (i > 0 && !lessOrEqual(gapsHigh[i - 1], gapsLow[i - 1], gapHigh, gapLow)) {
+                gapsHigh[i] = gapsHigh[i - 1];
+                gapsLow[i] = gapsLow[i - 1];
+                shiftsX[i] = shiftsX[i - 1];
+                shiftsY[i] = shiftsY[i - 1];
+                i--;
+            }
+            gapsHigh[i] = gapHigh;
+            gapsLow[i] = gapLow;
+            shiftsX[i] = shiftX;
+            shiftsY[i] = shiftY;
+        }
+
+        private void moveToImage(int i) {
+            x = originX + shiftsX[i];
+            y = originY + shiftsY[i];
+        }
+    }
+
+    private static class NearestPoint<T> {
+        private long distanceHigh, distanceLow;
+        private Point<T> p;
+    }
+
+}
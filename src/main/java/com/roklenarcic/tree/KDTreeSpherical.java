@@ -1,5 +1,6 @@
 package com.roklenarcic.tree;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -25,6 +26,7 @@ public class KDTreeSpherical<T> {
     private final Comparator<Point<T>>[] comparators = (Comparator<Point<T>>[]) new Comparator<?>[] { Point.createComparator(0), Point.createComparator(1),
             Point.createComparator(2) };
 
+    private final ValueExtractor<? super T> extractor;
     private double maxDistance;
     private final Point<T> root;
 
@@ -37,6 +39,42 @@ public class KDTreeSpherical<T> {
      *            max distance from query point to search, must be in [0, 180] range
      */
     public KDTreeSpherical(List<Point<T>> points, double maxDistance) {
+        this(points, maxDistance, null);
+    }
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The
+     * aggregate queries sum the numbers the extractor takes from the values of the points.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     * @param extractor
+     *            number of a point to be summed, if null every point counts as 1
+     */
+    public KDTreeSpherical(List<Point<T>> points, double maxDistance, ValueExtractor<? super T> extractor) {
+        this(points, maxDistance, extractor, false);
+    }
+
+    /**
+     * Build a tree from list of points, where points are given by the objects of the Point class. The
+     * aggregate queries sum the numbers the extractor takes from the values of the points.
+     *
+     * Points with the same coordinates can be collapsed into a single node of the tree, which carries the
+     * group of the points. Queries return every point of a group, but the tree is only as deep as the
+     * number of different coordinates requires and the distance to a group is computed once.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     * @param extractor
+     *            number of a point to be summed, if null every point counts as 1
+     * @param collapseDuplicates
+     *            true to put points with the same coordinates into a single node
+     */
+    public KDTreeSpherical(List<Point<T>> points, double maxDistance, ValueExtractor<? super T> extractor, boolean collapseDuplicates) {
         // Convert maxDistance along the sphere into chord length
         // chord = 2 * sin (1/2 * angle) where angle is the maxDistance since we have a unit
         // sphere.
@@ -45,6 +83,14 @@ public class KDTreeSpherical<T> {
         }
         maxDistance = 2 * Math.sin(0.5 * maxDistance / DEGREES_IN_RADIAN);
         this.maxDistance = maxDistance * maxDistance;
+        this.extractor = extractor;
+        if (collapseDuplicates) {
+            points = collapse(points);
+        } else {
+            for (Point<T> p : points) {
+                p.duplicate = null;
+            }
+        }
         root = buildTree(points, 0);
     }
 
@@ -69,7 +115,7 @@ public class KDTreeSpherical<T> {
             double cosAzimuth = Math.cos(azimuth);
             double sinInclination = Math.sin(inclination);
             double cosInclination = Math.cos(inclination);
-            root.findNearest(sinInclination * cosAzimuth, sinInclination * sinAzimuth, cosInclination, nearest);
+            root.findNearest(sinInclination * cosAzimuth, sinInclination * sinAzimuth, cosInclination, 0, 0, 0, 0, nearest);
         }
         return nearest.p;
     }
@@ -98,7 +144,7 @@ public class KDTreeSpherical<T> {
             double cosAzimuth = Math.cos(azimuth);
             double sinInclination = Math.sin(inclination);
             double cosInclination = Math.cos(inclination);
-            nearestPoints = root.findNearest(sinInclination * cosAzimuth, sinInclination * sinAzimuth, cosInclination, nearestPoints).dropEmptyPrefix();
+            nearestPoints = root.findNearest(sinInclination * cosAzimuth, sinInclination * sinAzimuth, cosInclination, 0, 0, 0, 0, nearestPoints).dropEmptyPrefix();
             if (nearestPoints != null) {
                 return nearestPoints.reverse();
             } else {
@@ -109,6 +155,109 @@ public class KDTreeSpherical<T> {
         }
     }
 
+    /**
+     * Count the points within the distance given from the coordinates, inclusive. Subtrees entirely within
+     * the distance are counted without visiting their points.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param distance
+     *            distance from the query point in degrees, in [0, 180] range
+     * @return number of points within the distance
+     */
+    public int countWithin(double longitude, double latitude, double distance) {
+        return aggregateWithin(longitude, latitude, distance, null).count;
+    }
+
+    /**
+     * Find all points within the distance given from the coordinates, inclusive. The points are in no
+     * particular order.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param distance
+     *            distance from the query point in degrees, in [0, 180] range
+     * @return points within the distance
+     */
+    public List<Point<T>> findWithin(double longitude, double latitude, double distance) {
+        return aggregateWithin(longitude, latitude, distance, new ArrayList<Point<T>>()).points;
+    }
+
+    /**
+     * Sum the numbers of the points within the distance given from the coordinates, inclusive, taken by the
+     * extractor given in the constructor. Without the extractor it's the number of points.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param distance
+     *            distance from the query point in degrees, in [0, 180] range
+     * @return sum of the numbers of the points within the distance
+     */
+    public double sumWithin(double longitude, double latitude, double distance) {
+        return aggregateWithin(longitude, latitude, distance, null).sum;
+    }
+
+    /**
+     * @return modelled size of the tree on the heap in bytes, with the point objects but not their values, see
+     *         {@link MemoryFootprint}
+     */
+    public long getRetainedSize() {
+        return retainedSize(root == null ? 0 : root.count);
+    }
+
+    /**
+     * @return size of a tree with the number of points given, see {@link MemoryFootprint}
+     */
+    static long retainedSize(int points) {
+        // The tree has 3 references and the max distance, and 3 comparators with their axis. A point has 5
+        // doubles for the coordinates, 4 references, the count and the sum.
+        return MemoryFootprint.object(3 * MemoryFootprint.REFERENCE + 8) + MemoryFootprint.array(3, MemoryFootprint.REFERENCE) + 3 * MemoryFootprint.object(4)
+                + points * MemoryFootprint.object(5 * 8 + 4 * MemoryFootprint.REFERENCE + 4 + 8);
+    }
+
+    private Aggregate<T> aggregateWithin(double longitude, double latitude, double distance, List<Point<T>> points) {
+        if (distance > 180 || distance < 0) {
+            throw new IllegalArgumentException("Distance must be between 0 and 180.");
+        }
+        Aggregate<T> aggregate = new Aggregate<T>(extractor, points);
+        if (root != null) {
+            double chord = 2 * Math.sin(0.5 * distance / DEGREES_IN_RADIAN);
+            double azimuth = (longitude + 180) / DEGREES_IN_RADIAN;
+            double inclination = (-latitude + 90) / DEGREES_IN_RADIAN;
+            double sinInclination = Math.sin(inclination);
+            // The cell of the root is the cube around the sphere.
+            root.aggregate(sinInclination * Math.cos(azimuth), sinInclination * Math.sin(azimuth), Math.cos(inclination), chord * chord, -1, 1, -1, 1, -1, 1,
+                    aggregate);
+        }
+        return aggregate;
+    }
+
+    /**
+     * Continue the search for the nearest point to the query point, given as a point on the unit sphere, in
+     * this tree. Used to search several trees with one search.
+     */
+    void findNearest(double x, double y, double z, NearestPoint<T> nearest) {
+        if (root != null) {
+            root.findNearest(x, y, z, 0, 0, 0, 0, nearest);
+        }
+    }
+
+    /**
+     * Continue the search for the nearest points to the query point, given as a point on the unit sphere, in
+     * this tree. Used to search several trees with one search.
+     *
+     * @return the new start of the chain
+     */
+    LinkedList<T> findNearest(double x, double y, double z, LinkedList<T> nearestPoints) {
+        return root == null ? nearestPoints : root.findNearest(x, y, z, 0, 0, 0, 0, nearestPoints);
+    }
+
     private Point<T> buildTree(List<Point<T>> points, int axis) {
         if (points.size() == 0) {
             return null;
@@ -127,10 +276,42 @@ public class KDTreeSpherical<T> {
             // Build subtree. Bigger branch also contains points that has equal axis value to the pivot.
             p.smaller = buildTree(points.subList(0, pivotIdx), axis + 1);
             p.bigger = buildTree(points.subList(pivotIdx + 1, points.size()), axis + 1);
+            p.count = (p.smaller == null ? 0 : p.smaller.count) + (p.bigger == null ? 0 : p.bigger.count);
+            p.sum = (p.smaller == null ? 0 : p.smaller.sum) + (p.bigger == null ? 0 : p.bigger.sum);
+            for (Point<T> d = p; d != null; d = d.duplicate) {
+                p.count++;
+                p.sum += extractor == null ? 1 : extractor.extract(d.value);
+            }
             return p;
         }
     }
 
+    /**
+     * Chains the points with the same coordinates to the first of them.
+     *
+     * @return the first point of every group
+     */
+    private List<Point<T>> collapse(List<Point<T>> points) {
+        Collections.sort(points, new Comparator<Point<T>>() {
+            public int compare(Point<T> o1, Point<T> o2) {
+                int c = Double.compare(o1.longitude, o2.longitude);
+                return c != 0 ? c : Double.compare(o1.latitude, o2.latitude);
+            }
+        });
+        List<Point<T>> groups = new ArrayList<Point<T>>();
+        Point<T> last = null;
+        for (Point<T> p : points) {
+            p.duplicate = null;
+            if (last != null && last.longitude == p.longitude && last.latitude == p.latitude) {
+                last.duplicate = p;
+            } else {
+                groups.add(p);
+            }
+            last = p;
+        }
+        return groups;
+    }
+
     /**
      * Point in the 3-D space on a sphere with a user specified value attached to it.
      *
@@ -166,6 +347,14 @@ public class KDTreeSpherical<T> {
 
         private Point<T> smaller, bigger;
 
+        // Next point with the same coordinates, if the tree collapses them. Only the first point of a group is
+        // a node of the tree.
+        private Point<T> duplicate;
+
+        // Number of points and sum of their numbers in the subtree of this point.
+        private int count;
+        private double sum;
+
         private final T value;
 
         /**
@@ -228,8 +417,41 @@ public class KDTreeSpherical<T> {
             return "Longitude=" + longitude + ", Latitude=" + latitude;
         }
 
-        private LinkedList<T> findNearest(double queryAxis, double queryOther, double queryOther2, LinkedList<T> currentBest) {
-            // Negative number means this point is on the left to the query point.
+        private void aggregate(double queryAxis, double queryOther, double queryOther2, double distance, double axisMin, double axisMax, double otherMin,
+                double otherMax, double other2Min, double other2Max, Aggregate<T> aggregate) {
+            // Squared distances from the query to the nearest and to the farthest point of the cell.
+            double nearAxis = queryAxis < axisMin ? axisMin - queryAxis : (queryAxis > axisMax ? queryAxis - axisMax : 0);
+            double nearOther = queryOther < otherMin ? otherMin - queryOther : (queryOther > otherMax ? queryOther - otherMax : 0);
+            double nearOther2 = queryOther2 < other2Min ? other2Min - queryOther2 : (queryOther2 > other2Max ? queryOther2 - other2Max : 0);
+            if (nearAxis * nearAxis + nearOther * nearOther + nearOther2 * nearOther2 > distance) {
+                return;
+            }
+            double farAxis = Math.max(queryAxis - axisMin, axisMax - queryAxis);
+            double farOther = Math.max(queryOther - otherMin, otherMax - queryOther);
+            double farOther2 = Math.max(queryOther2 - other2Min, other2Max - queryOther2);
+            if (farAxis * farAxis + farOther * farOther + farOther2 * farOther2 <= distance) {
+                aggregate.addSubtree(this);
+                return;
+            }
+            double diffAxis = queryAxis - axisValue;
+            double diffOther = queryOther - otherValue;
+            double diffOther2 = queryOther2 - otherValue2;
+            if (diffAxis * diffAxis + diffOther * diffOther + diffOther2 * diffOther2 <= distance) {
+                aggregate.add(this);
+            }
+            // Children cells are split by the axis value, the axes rotate for the children.
+            if (smaller != null) {
+                smaller.aggregate(queryOther, queryOther2, queryAxis, distance, otherMin, otherMax, other2Min, other2Max, axisMin, axisValue, aggregate);
+            }
+            if (bigger != null) {
+                bigger.aggregate(queryOther, queryOther2, queryAxis, distance, otherMin, otherMax, other2Min, other2Max, axisValue, axisMax, aggregate);
+            }
+        }
+
+        private LinkedList<T> findNearest(double queryAxis, double queryOther, double queryOther2, double offsetAxis, double offsetOther, double offsetOther2,
+                double cellDistance, LinkedList<T> currentBest) {
+            // Offsets are the distances of the query from the cell of this point along the axes, cell
+            // distance is the squared distance from the query to the cell.
             double diffAxis = queryAxis - axisValue;
             Point<T> closerChild, fartherChild;
             if (diffAxis >= 0) {
@@ -239,56 +461,31 @@ public class KDTreeSpherical<T> {
                 closerChild = smaller;
                 fartherChild = bigger;
             }
-            // First check the closer side
+            // The closer child has the query on its side of the split, so the cell distance stays.
             if (closerChild != null) {
-                currentBest = closerChild.findNearest(queryOther, queryOther2, queryAxis, currentBest);
+                currentBest = closerChild.findNearest(queryOther, queryOther2, queryAxis, offsetOther, offsetOther2, offsetAxis, cellDistance, currentBest);
             }
-            // Now let's see it the other side is still relevant. Since that search
-            // might have narrowed the circle.
-
-            // Calculate distance to axis.
-            double distanceToHyperplane = diffAxis * diffAxis;
-            // See if line intersects circle
-            if (distanceToHyperplane <= currentBest.distance) {
-                // If it does then this point might be the best one.
+            // Across the split the offset along the axis becomes the distance to the split, and the cell of
+            // the farther child can be skipped when it's farther than the current best, not just the split.
+            double fartherDistance = cellDistance - offsetAxis * offsetAxis + diffAxis * diffAxis;
+            if (fartherDistance <= currentBest.distance) {
                 double diffOther = queryOther - otherValue;
                 double diffOther2 = queryOther2 - otherValue2;
-                double d = distanceToHyperplane + diffOther * diffOther + diffOther2 * diffOther2;
+                double d = diffAxis * diffAxis + diffOther * diffOther + diffOther2 * diffOther2;
                 if (d <= currentBest.distance) {
-                    // Start with the farthest point in the list
-                    // This point is farther than the this point
-                    LinkedList<T> farther = currentBest;
-                    LinkedList<T> newHead = currentBest;
-                    // Scroll down the list to find the last node that is farther than this node
-                    while (farther.tail != null && d <= farther.tail.distance) {
-                        farther = farther.tail;
-                        newHead = currentBest.tail;
-                    }
-                    currentBest.head = this;
-                    currentBest.distance = d;
-                    // Here's a bit of a trickeroo. We've got 2 scenarios:
-                    // - The farthest (first) point in the list is the one being replaced. In that case
-                    // it's really easy, we're done already.
-                    // - In other cases we need assign first point (currentBest) into the chain as tail of
-                    // "farther" then we need to update currentBest as tail of currentBest to keep the
-                    // currentBest as the start of the chain.
-                    //
-                    // The trick both cases can be solved by the same code.
-                    LinkedList<T> tail = farther.tail;
-                    farther.tail = currentBest;
-                    currentBest.tail = tail;
-                    currentBest = newHead;
+                    currentBest = currentBest.insertGroup(this, d);
                 }
-                // Search the other side.
                 if (fartherChild != null) {
-                    currentBest = fartherChild.findNearest(queryOther, queryOther2, queryAxis, currentBest);
+                    currentBest = fartherChild.findNearest(queryOther, queryOther2, queryAxis, offsetOther, offsetOther2, diffAxis, fartherDistance, currentBest);
                 }
             }
             return currentBest;
         }
 
-        private void findNearest(double queryAxis, double queryOther, double queryOther2, NearestPoint<T> currentBest) {
-            // Negative number means this point is on the left to the query point.
+        private void findNearest(double queryAxis, double queryOther, double queryOther2, double offsetAxis, double offsetOther, double offsetOther2,
+                double cellDistance, NearestPoint<T> currentBest) {
+            // Offsets are the distances of the query from the cell of this point along the axes, cell
+            // distance is the squared distance from the query to the cell.
             double diffAxis = queryAxis - axisValue;
             Point<T> closerChild, fartherChild;
             if (diffAxis >= 0) {
@@ -298,28 +495,23 @@ public class KDTreeSpherical<T> {
                 closerChild = smaller;
                 fartherChild = bigger;
             }
-            // First check the closer side
+            // The closer child has the query on its side of the split, so the cell distance stays.
             if (closerChild != null) {
-                closerChild.findNearest(queryOther, queryOther2, queryAxis, currentBest);
+                closerChild.findNearest(queryOther, queryOther2, queryAxis, offsetOther, offsetOther2, offsetAxis, cellDistance, currentBest);
             }
-            // Now let's see it the other side is still relevant. Since that search
-            // might have narrowed the circle.
-
-            // Calculate distance to axis.
-            double distanceToHyperplane = diffAxis * diffAxis;
-            // See if line intersects circle
-            if (distanceToHyperplane <= currentBest.distance) {
-                // If it does then this point might be the best one.
+            // Across the split the offset along the axis becomes the distance to the split, and the cell of
+            // the farther child can be skipped when it's farther than the current best, not just the split.
+            double fartherDistance = cellDistance - offsetAxis * offsetAxis + diffAxis * diffAxis;
+            if (fartherDistance <= currentBest.distance) {
                 double diffOther = queryOther - otherValue;
                 double diffOther2 = queryOther2 - otherValue2;
-                double d = distanceToHyperplane + diffOther * diffOther + diffOther2 * diffOther2;
+                double d = diffAxis * diffAxis + diffOther * diffOther + diffOther2 * diffOther2;
                 if (d <= currentBest.distance) {
                     currentBest.p = this;
                     currentBest.distance = d;
                 }
-                // Search the other side.
                 if (fartherChild != null) {
-                    fartherChild.findNearest(queryOther, queryOther2, queryAxis, currentBest);
+                    fartherChild.findNearest(queryOther, queryOther2, queryAxis, offsetOther, offsetOther2, diffAxis, fartherDistance, currentBest);
                 }
             }
         }
@@ -341,9 +533,9 @@ public class KDTreeSpherical<T> {
 
     }
 
-    private static class LinkedList<T> implements Iterable<Point<T>> {
+    static class LinkedList<T> implements Iterable<Point<T>> {
 
-        private static <T> LinkedList<T> constructChain(int length, double distance) {
+        static <T> LinkedList<T> constructChain(int length, double distance) {
             LinkedList<T> ret = new LinkedList<T>(distance);
             for (int i = 1; i < length; i++) {
                 LinkedList<T> nextNode = new LinkedList<T>(distance);
@@ -361,6 +553,50 @@ public class KDTreeSpherical<T> {
             this.distance = distance;
         }
 
+        /**
+         * Inserts the point into the chain, replacing the farthest point, which is the head of the chain.
+         *
+         * @return new head of the chain
+         */
+        private LinkedList<T> insert(Point<T> point, double distance) {
+            // Start with the farthest point in the list
+            // This point is farther than the this point
+            LinkedList<T> farther = this;
+            LinkedList<T> newHead = this;
+            // Scroll down the list to find the last node that is farther than this node
+            while (farther.tail != null && distance <= farther.tail.distance) {
+                farther = farther.tail;
+                newHead = this.tail;
+            }
+            this.head = point;
+            this.distance = distance;
+            // Here's a bit of a trickeroo. We've got 2 scenarios:
+            // - The farthest (first) point in the list is the one being replaced. In that case
+            // it's really easy, we're done already.
+            // - In other cases we need assign first point (this) into the chain as tail of
+            // "farther" then we need to update the new head to keep it as the start of the chain.
+            //
+            // The trick both cases can be solved by the same code.
+            LinkedList<T> fartherTail = farther.tail;
+            farther.tail = this;
+            this.tail = fartherTail;
+            return newHead;
+        }
+
+        /**
+         * Inserts the point and the points with the same coordinates, while the chain has room for them.
+         *
+         * @return new head of the chain
+         */
+        private LinkedList<T> insertGroup(Point<T> point, double distance) {
+            LinkedList<T> c = insert(point, distance);
+            // With the chain full, a point at the same distance doesn't improve it.
+            for (Point<T> p = point.duplicate; p != null && (c.head == null || distance < c.distance); p = p.duplicate) {
+                c = c.insert(p, distance);
+            }
+            return c;
+        }
+
         public LinkedList<T> dropEmptyPrefix() {
             LinkedList<T> c = LinkedList.this;
             while (c != null && c.head == null) {
@@ -403,8 +639,46 @@ public class KDTreeSpherical<T> {
         }
     }
 
-    private static class NearestPoint<T> {
-        private double distance;
-        private Point<T> p;
+    private static class Aggregate<T> {
+        private int count;
+        private final ValueExtractor<? super T> extractor;
+        // Points found, if the points are collected and not only counted.
+        private final List<Point<T>> points;
+        private double sum;
+
+        private Aggregate(ValueExtractor<? super T> extractor, List<Point<T>> points) {
+            this.extractor = extractor;
+            this.points = points;
+        }
+
+        private void add(Point<T> p) {
+            for (; p != null; p = p.duplicate) {
+                count++;
+                sum += extractor == null ? 1 : extractor.extract(p.value);
+                if (points != null) {
+                    points.add(p);
+                }
+            }
+        }
+
+        private void addSubtree(Point<T> p) {
+            if (points == null) {
+                count += p.count;
+                sum += p.sum;
+            } else {
+                add(p);
+                if (p.smaller != null) {
+                    addSubtree(p.smaller);
+                }
+                if (p.bigger != null) {
+                    addSubtree(p.bigger);
+                }
+            }
+        }
+    }
+
+    static class NearestPoint<T> {
+        double distance;
+        Point<T> p;
     }
 }
@@ -0,0 +1,404 @@
+package com.roklenarcic.tree;
+
+/**
+ * 3-D tree with coordinates on a sphere, where every point carries an int id instead of a value object.
+ *
+ * The points are kept in flat primitive arrays of cartesian coordinates in the tree order, the same way as in
+ * {@link KDTreeIntIds}. The longitude and latitude are not kept, which together with no point objects makes
+ * the tree a lot smaller than {@link KDTreeSpherical}.
+ *
+ * A tree can also be built over a {@link PointStoreSpherical}, which it doesn't change. The tree then keeps
+ * only an array with its ordering of the points, so many trees can share the same points.
+ *
+ * Queries return the ids of the points. The id -1 is returned when no point is found, so ids shouldn't be
+ * negative.
+ *
+ * @author Rok Lenarcic
+ */
+public class KDTreeSphericalIds {
+
+    private static final double DEGREES_IN_RADIAN = 57.29577951308233;
+
+    // Number of levels of the tree.
+    private final int height;
+    private final int[] ids;
+    private final double maxDistance;
+    // Tree order of the points, the node of a range is at its middle, the values are indexes in the point arrays.
+    // Null when the tree owns the arrays, which are then in the tree order themselves.
+    private final int[] order;
+    // The arrays of the points belong to a store.
+    private final boolean shared;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+
+    /**
+     * Build a tree from arrays of coordinates and ids, where the point i is given by longitudes[i],
+     * latitudes[i] and ids[i]. The longitudes are limited to [-180, 180] and the latitudes to [-90, 90].
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     */
+    public KDTreeSphericalIds(double[] longitudes, double[] latitudes, int[] ids, double maxDistance) {
+        this(longitudes, latitudes, ids, maxDistance, true);
+    }
+
+    /**
+     * Build a tree from arrays of coordinates, where the point i is given by longitudes[i] and latitudes[i],
+     * and its id is i. The longitudes are limited to [-180, 180] and the latitudes to [-90, 90].
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     */
+    public KDTreeSphericalIds(double[] longitudes, double[] latitudes, double maxDistance) {
+        this(longitudes, latitudes, null, maxDistance, true);
+    }
+
+    /**
+     * Build a tree over the points of the store. The store isn't changed, the tree only keeps its own ordering
+     * of the points, so the store can be shared by many trees.
+     *
+     * @param store
+     *            points with coordinates and ids
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     */
+    public KDTreeSphericalIds(PointStoreSpherical store, double maxDistance) {
+        this.maxDistance = chordSquared(maxDistance);
+        this.xs = store.xs;
+        this.ys = store.ys;
+        this.zs = store.zs;
+        this.ids = store.ids;
+        this.shared = true;
+        this.order = PointStoreInt.indexes(xs.length);
+        this.height = 32 - Integer.numberOfLeadingZeros(xs.length);
+        buildTree(order, 0, xs.length, xs, ys, zs);
+    }
+
+    private KDTreeSphericalIds(double[] longitudes, double[] latitudes, int[] ids, double maxDistance, boolean copy) {
+        this.maxDistance = chordSquared(maxDistance);
+        if (longitudes.length != latitudes.length || (ids != null && longitudes.length != ids.length)) {
+            throw new IllegalArgumentException("Coordinate and id arrays have different lengths.");
+        }
+        int n = longitudes.length;
+        for (int i = 0; i < n; i++) {
+            if (longitudes[i] > 180 || longitudes[i] < -180 || latitudes[i] > 90 || latitudes[i] < -90) {
+                throw new IllegalArgumentException("Point Longitude=" + longitudes[i] + ", Latitude=" + latitudes[i]
+                        + " has longitude outside [-180, 180] or latitude outside [-90, 90].");
+            }
+        }
+        if (ids == null) {
+            ids = PointStoreInt.indexes(n);
+        } else if (copy) {
+            ids = ids.clone();
+        }
+        this.shared = false;
+        // When building in place the longitude and latitude arrays are reused for the x and y coordinates.
+        this.xs = copy ? new double[n] : longitudes;
+        this.ys = copy ? new double[n] : latitudes;
+        this.zs = new double[n];
+        this.ids = ids;
+        for (int i = 0; i < n; i++) {
+            double azimuth = (longitudes[i] + 180) / DEGREES_IN_RADIAN;
+            double inclination = (-latitudes[i] + 90) / DEGREES_IN_RADIAN;
+            double sinInclination = Math.sin(inclination);
+            xs[i] = sinInclination * Math.cos(azimuth);
+            ys[i] = sinInclination * Math.sin(azimuth);
+            zs[i] = Math.cos(inclination);
+        }
+        this.order = null;
+        this.height = 32 - Integer.numberOfLeadingZeros(n);
+        int[] order = PointStoreInt.indexes(n);
+        buildTree(order, 0, n, xs, ys, zs);
+        // The arrays are owned by the tree, so move the points into the tree order for locality. The nodes are
+        // then found without the order.
+        permuteToTreeOrder(order, xs, ys, zs, ids);
+    }
+
+    /**
+     * Build a tree from arrays of coordinates and ids, where the point i is given by longitudes[i],
+     * latitudes[i] and ids[i], reusing the arrays. The longitude and latitude arrays are overwritten with
+     * cartesian coordinates and all arrays are reordered into the tree order and kept by the tree, so they
+     * must not be used afterwards. This halves the peak memory of the build for large columnar inputs.
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     * @return the tree
+     */
+    public static KDTreeSphericalIds buildInPlace(double[] longitudes, double[] latitudes, int[] ids, double maxDistance) {
+        return new KDTreeSphericalIds(longitudes, latitudes, ids, maxDistance, false);
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance, inclusive. The
+     * smaller the maximum distance, the faster the query.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @return the id of the point in the tree closest to the coordinates given within max distance or -1
+     */
+    public int findNearest(double longitude, double latitude) {
+        NearestIds nearest = new NearestIds(1, maxDistance);
+        findNearest(longitude, latitude, nearest);
+        return nearest.size == 0 ? -1 : ids[nearest.indexes[0]];
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The smaller the maximum distance, the faster the query. The ids returned are sorted from the
+     * closest point to the farthest.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param numberOfNearest
+     *            number of points to return
+     * @return ids of the points in the tree closest to the coordinates given, in order of ascending distance
+     */
+    public int[] findNearest(double longitude, double latitude, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return new int[0];
+        }
+        NearestIds nearest = new NearestIds(numberOfNearest, maxDistance);
+        findNearest(longitude, latitude, nearest);
+        int[] ret = new int[nearest.size];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ids[nearest.indexes[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * @return modelled size of the tree on the heap in bytes, without the arrays of a store it shares, see
+     *         {@link MemoryFootprint}
+     */
+    public long getRetainedSize() {
+        return retainedSize(xs.length, shared);
+    }
+
+    /**
+     * @return size of a tree with the number of points given, see {@link MemoryFootprint}
+     */
+    static long retainedSize(int points, boolean shared) {
+        // The tree has the height, 5 array references, the max distance and the shared flag.
+        // A tree over a store keeps only its order, a tree that owns the arrays keeps only the arrays.
+        return MemoryFootprint.object(4 + 5 * MemoryFootprint.REFERENCE + 8 + 1) + (shared ? MemoryFootprint.array(points, 4) : MemoryFootprint.array(points, 4) + 3 * MemoryFootprint.array(points, 8));
+    }
+
+    /**
+     * @return number of points in the tree
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    private static double chordSquared(double maxDistance) {
+        if (maxDistance > 180 || maxDistance < 0) {
+            throw new IllegalArgumentException("Max distance must be between 0 and 180.");
+        }
+        // Convert maxDistance along the sphere into chord length
+        double chord = 2 * Math.sin(0.5 * maxDistance / DEGREES_IN_RADIAN);
+        return chord * chord;
+    }
+
+    private void buildTree(int[] order, int lo, int hi, double[] axisValues, double[] otherValues, double[] otherValues2) {
+        if (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(order, lo, hi - 1, mid, axisValues);
+            buildTree(order, lo, mid, otherValues, otherValues2, axisValues);
+            buildTree(order, mid + 1, hi, otherValues, otherValues2, axisValues);
+        }
+    }
+
+    private void findNearest(double longitude, double latitude, NearestIds nearest) {
+        if (xs.length != 0) {
+            // Calculate those cartesian coordinates
+            double azimuth = (longitude + 180) / DEGREES_IN_RADIAN;
+            double inclination = (-latitude + 90) / DEGREES_IN_RADIAN;
+            double sinInclination = Math.sin(inclination);
+            search(sinInclination * Math.cos(azimuth), sinInclination * Math.sin(azimuth), Math.cos(inclination), nearest);
+        }
+    }
+
+    private void search(double x, double y, double z, NearestIds currentBest) {
+        // Farther subtrees still to be searched, with their range, axis and squared distance from the query to
+        // their splitting plane. Every pending subtree is a sibling of a node on the current path, so the tree
+        // height is enough.
+        int[] pendingRanges = new int[3 * height];
+        double[] pendingDistances = new double[height];
+        int pending = 0;
+        int[] order = this.order;
+        int lo = 0, hi = xs.length, axis = 0;
+        while (true) {
+            // Go down the closer side, checking the nodes on the way.
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int p = order == null ? mid : order[mid];
+                double diffX = x - xs[p];
+                double diffY = y - ys[p];
+                double diffZ = z - zs[p];
+                // Negative number means this point is on the left to the query point.
+                double diffAxis;
+                if (axis == 0) {
+                    diffAxis = diffX;
+                    axis = 1;
+                } else if (axis == 1) {
+                    diffAxis = diffY;
+                    axis = 2;
+                } else {
+                    diffAxis = diffZ;
+                    axis = 0;
+                }
+                double d = diffX * diffX + diffY * diffY + diffZ * diffZ;
+                if (d <= currentBest.distance) {
+                    currentBest.insert(p, d);
+                }
+                double distanceToHyperplane = diffAxis * diffAxis;
+                if (diffAxis >= 0) {
+                    if (lo < mid && distanceToHyperplane <= currentBest.distance) {
+                        pendingRanges[3 * pending] = lo;
+                        pendingRanges[3 * pending + 1] = mid;
+                        pendingRanges[3 * pending + 2] = axis;
+                        pendingDistances[pending++] = distanceToHyperplane;
+                    }
+                    lo = mid + 1;
+                } else {
+                    if (mid + 1 < hi && distanceToHyperplane <= currentBest.distance) {
+                        pendingRanges[3 * pending] = mid + 1;
+                        pendingRanges[3 * pending + 1] = hi;
+                        pendingRanges[3 * pending + 2] = axis;
+                        pendingDistances[pending++] = distanceToHyperplane;
+                    }
+                    hi = mid;
+                }
+            }
+            // Continue with the last pending subtree that the plane still intersects.
+            do {
+                if (pending == 0) {
+                    return;
+                }
+                pending--;
+            } while (pendingDistances[pending] > currentBest.distance);
+            lo = pendingRanges[3 * pending];
+            hi = pendingRanges[3 * pending + 1];
+            axis = pendingRanges[3 * pending + 2];
+        }
+    }
+
+    /**
+     * Moves the point with the k-th smallest key in the range [lo, hi] of the tree order to index k, with points
+     * with smaller or equal keys before it and greater or equal keys after it.
+     */
+    private void select(int[] order, int lo, int hi, int k, double[] keys) {
+        while (hi > lo) {
+            double pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the points in the arrays into the tree order given, following the cycles of the permutation, so no
+     * extra arrays are needed. The order is marked on the way and isn't usable afterwards.
+     */
+    private static void permuteToTreeOrder(int[] order, double[] xs, double[] ys, double[] zs, int[] ids) {
+        for (int start = 0; start < order.length; start++) {
+            if (order[start] >= 0) {
+                double x = xs[start], y = ys[start], z = zs[start];
+                int id = ids[start];
+                int j = start;
+                while (true) {
+                    // Position j takes the point at position k, visited positions are marked by negation.
+                    int k = order[j];
+                    order[j] = ~k;
+                    if (k == start) {
+                        xs[j] = x;
+                        ys[j] = y;
+                        zs[j] = z;
+                        ids[j] = id;
+                        break;
+                    }
+                    xs[j] = xs[k];
+                    ys[j] = ys[k];
+                    zs[j] = zs[k];
+                    ids[j] = ids[k];
+                    j = k;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes of the nearest points found so far, sorted by ascending distance. When all slots are taken the
+     * distance of the search is the distance of the last one.
+     */
+    private static class NearestIds {
+
+        private double distance;
+        private final double[] distances;
+        private final int[] indexes;
+        private int size;
+
+        private NearestIds(int length, double distance) {
+            // Nothing fits in an empty list.
+            this.distance = length == 0 ? -1 : distance;
+            this.distances = new double[length];
+            this.indexes = new int[length];
+        }
+
+        private void insert(int index, double d) {
+            int i = size < indexes.length ? size++ : size - 1;
+            // Shift farther points to the right, dropping the farthest one if full.
+            while (i > 0 && distances[i - 1] > d) {
+                distances[i] = distances[i - 1];
+                indexes[i] = indexes[i - 1];
+                i--;
+            }
+            distances[i] = d;
+            indexes[i] = index;
+            if (size == indexes.length) {
+                distance = distances[size - 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.roklenarcic.tree;
+
+/**
+ * Heap sizes of the trees, to choose the variant of a tree or the number of shards before building them.
+ *
+ * The sizes are in bytes and computed from a model of the object layout of a 64-bit HotSpot JVM with compressed
+ * references, which is the default for heaps up to 32 GB: objects have a 12 byte header, arrays a 16 byte one,
+ * references take 4 bytes and everything is aligned to 8 bytes. They aren't measured, so on other JVMs or with
+ * other settings, e.g. without compressed references, the real sizes differ. They count the tree and everything it
+ * keeps, its nodes, point objects and coordinate arrays, but not the values of the points, value extractors and
+ * coordinate sources, which belong to the application. Queries keep no buffers between calls, their results are
+ * allocated for every query.
+ *
+ * The estimate for a number of points is the size of the tree built from that many points, with the trees
+ * with int ids owning their arrays. The trees report their own size with getRetainedSize().
+ *
+ * @author Rok Lenarcic
+ */
+public final class MemoryFootprint {
+
+    static final int ARRAY_HEADER = 16;
+    static final int HEADER = 12;
+    static final int REFERENCE = 4;
+
+    /**
+     * Variants of the trees.
+     */
+    public enum Variant {
+        /**
+         * {@link KDTreeInt}
+         */
+        INT,
+        /**
+         * {@link KDTreeDouble}
+         */
+        DOUBLE,
+        /**
+         * {@link KDTreeSpherical}
+         */
+        SPHERICAL,
+        /**
+         * {@link KDTreeIntIds}
+         */
+        INT_IDS,
+        /**
+         * {@link KDTreeDoubleIds}
+         */
+        DOUBLE_IDS,
+        /**
+         * {@link KDTreeSphericalIds}
+         */
+        SPHERICAL_IDS,
+        /**
+         * {@link KDTreeDoubleCompact}
+         */
+        DOUBLE_COMPACT
+    }
+
+    private MemoryFootprint() {
+    }
+
+    /**
+     * Estimate the size of a tree of the variant given with the number of points given.
+     *
+     * @param variant
+     *            variant of the tree
+     * @param points
+     *            number of points, at least 0
+     * @return size of the tree in bytes
+     */
+    public static long estimate(Variant variant, int points) {
+        if (points < 0) {
+            throw new IllegalArgumentException("Number of points must be at least 0.");
+        }
+        switch (variant) {
+        case INT:
+            return KDTreeInt.retainedSize(points);
+        case DOUBLE:
+            return KDTreeDouble.retainedSize(points);
+        case SPHERICAL:
+            return KDTreeSpherical.retainedSize(points);
+        case INT_IDS:
+            return KDTreeIntIds.retainedSize(points, false);
+        case DOUBLE_IDS:
+            return KDTreeDoubleIds.retainedSize(points, false);
+        case SPHERICAL_IDS:
+            return KDTreeSphericalIds.retainedSize(points, false);
+        case DOUBLE_COMPACT:
+            return KDTreeDoubleCompact.retainedSize(points);
+        default:
+            throw new IllegalArgumentException("Unknown variant " + variant);
+        }
+    }
+
+    /**
+     * @return size of an array with the length and the size of the elements given
+     */
+    static long array(long length, int elementSize) {
+        return align(ARRAY_HEADER + length * elementSize);
+    }
+
+    /**
+     * @return size of an object with fields of the total size given
+     */
+    static long object(int fieldSize) {
+        return align(HEADER + fieldSize);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,24 @@
+package com.roklenarcic.tree;
+
+/**
+ * Distance between two points used by a search in a 2-D tree.
+ *
+ * @author Rok Lenarcic
+ */
+public enum Metric {
+
+    /**
+     * Straight line distance, sqrt(dx^2 + dy^2).
+     */
+    EUCLIDEAN,
+
+    /**
+     * Distance along a grid of streets, |dx| + |dy|.
+     */
+    MANHATTAN,
+
+    /**
+     * Distance when moving along both axes at once takes as long as along one, max(|dx|, |dy|).
+     */
+    CHEBYSHEV
+}
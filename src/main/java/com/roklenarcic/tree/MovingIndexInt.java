@@ -0,0 +1,554 @@
+package com.roklenarcic.tree;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of moving points with coordinates of the int type, where every point has an int id and its position
+ * can be updated.
+ *
+ * The area is split by a 2-D tree into cells of about 16 points, and the points of a cell are kept in flat
+ * arrays of the cell. A point that moves within its cell only has its coordinates overwritten. A point that
+ * leaves its cell is moved to the cell of its new position, found by a descent of the tree. The updates
+ * don't change the tree, so cells that many points move into get crowded and the queries slow down.
+ * {@link #rebalance()} builds a new tree for the current positions. It can be scheduled to run periodically,
+ * and the queries and updates only wait for it while the positions are copied and while the new tree is
+ * swapped in.
+ *
+ * Ids index arrays of the index, so they must not be negative and should be small, e.g. the indexes of the
+ * objects tracked. Queries return the id -1 when no point is found.
+ *
+ * The index is thread safe. Queries run in parallel, updates one at a time.
+ *
+ * Coordinates can use the whole int range, squared distances are computed in long.
+ *
+ * @author Rok Lenarcic
+ */
+public class MovingIndexInt {
+
+    static final int CELL_SIZE = 16;
+
+    // Points added while a rebalance builds the new tree, to be added to the new tree too, null when there's no
+    // rebalance running.
+    private int[] changed;
+    private int changedCount;
+    // Cells of the points by id, null for ids without a point.
+    private Cell[] cells;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object rebalanceLock = new Object();
+    private Cell root;
+    private int size;
+    // Indexes of the points in the arrays of their cells, by id.
+    private int[] slots;
+    private final int xMax;
+    private final int xMin;
+    private final int yMax;
+    private final int yMin;
+
+    /**
+     * Create an empty index of the area given, inclusive. Until it is rebalanced, the whole area is a single
+     * cell.
+     *
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public MovingIndexInt(int xMin, int yMin, int xMax, int yMax) {
+        this(new int[0], new int[0], xMin, yMin, xMax, yMax);
+    }
+
+    /**
+     * Create an index from arrays of coordinates, where the point with the id i is given by xs[i] and ys[i].
+     * The map area is limited by the limits given, inclusive.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     */
+    public MovingIndexInt(int[] xs, int[] ys, int xMin, int yMin, int xMax, int yMax) {
+        if (xMin < xMax && yMin < yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+            if (xs.length != ys.length) {
+                throw new IllegalArgumentException("Coordinate arrays have different lengths.");
+            }
+            for (int i = 0; i < xs.length; i++) {
+                checkArea(xs[i], ys[i]);
+            }
+            this.cells = new Cell[Math.max(xs.length, CELL_SIZE)];
+            this.slots = new int[cells.length];
+            this.size = xs.length;
+            this.root = buildTree(PointStoreInt.indexes(xs.length), xs.clone(), ys.clone(), 0, xs.length, xMin, yMin, xMax, yMax, cells, slots);
+        } else {
+            throw new IllegalArgumentException("Area limits are not correctly ordered: " + xMin + " < " + xMax + " " + yMin + " < " + yMax);
+        }
+    }
+
+    private static void add(Cell c, int id, int x, int y, Cell[] cells, int[] slots) {
+        if (c.size == c.ids.length) {
+            c.ids = grow(c.ids, c.size * 2);
+            c.xs = grow(c.xs, c.size * 2);
+            c.ys = grow(c.ys, c.size * 2);
+        }
+        c.ids[c.size] = id;
+        c.xs[c.size] = x;
+        c.ys[c.size] = y;
+        cells[id] = c;
+        slots[id] = c.size++;
+    }
+
+    /**
+     * Builds the cells of the points in the range [lo, hi) of the arrays, which are reordered.
+     */
+    private static Cell buildTree(int[] ids, int[] xs, int[] ys, int lo, int hi, int cellXMin, int cellYMin, int cellXMax, int cellYMax, Cell[] cells,
+            int[] slots) {
+        Cell c = new Cell(cellXMin, cellYMin, cellXMax, cellYMax);
+        // Split the longer side, unless it's a single value.
+        int axis = (long) cellYMax - cellYMin > (long) cellXMax - cellXMin ? 1 : 0;
+        if (axis == 0 ? cellXMin == cellXMax : cellYMin == cellYMax) {
+            axis ^= 1;
+        }
+        if (hi - lo <= CELL_SIZE || (cellXMin == cellXMax && cellYMin == cellYMax)) {
+            int n = hi - lo;
+            c.ids = new int[Math.max(n, 2 * CELL_SIZE)];
+            c.xs = new int[c.ids.length];
+            c.ys = new int[c.ids.length];
+            for (int i = lo; i < hi; i++) {
+                add(c, ids[i], xs[i], ys[i], cells, slots);
+            }
+            return c;
+        }
+        int[] keys = axis == 0 ? xs : ys;
+        int mid = (lo + hi) >>> 1;
+        select(ids, xs, ys, keys, lo, hi - 1, mid);
+        // Points less than the split go to the smaller cell, both cells get at least a single value.
+        c.axis = axis;
+        c.split = Math.max(keys[mid], (axis == 0 ? cellXMin : cellYMin) + 1);
+        int i = lo;
+        for (int j = lo; j < hi; j++) {
+            if (keys[j] < c.split) {
+                swap(ids, xs, ys, i++, j);
+            }
+        }
+        if (axis == 0) {
+            c.smaller = buildTree(ids, xs, ys, lo, i, cellXMin, cellYMin, c.split - 1, cellYMax, cells, slots);
+            c.bigger = buildTree(ids, xs, ys, i, hi, c.split, cellYMin, cellXMax, cellYMax, cells, slots);
+        } else {
+            c.smaller = buildTree(ids, xs, ys, lo, i, cellXMin, cellYMin, cellXMax, c.split - 1, cells, slots);
+            c.bigger = buildTree(ids, xs, ys, i, hi, cellXMin, c.split, cellXMax, cellYMax, cells, slots);
+        }
+        return c;
+    }
+
+    private static Cell[] grow(Cell[] array, int length) {
+        Cell[] ret = new Cell[length];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+
+    private static int[] grow(int[] array, int length) {
+        int[] ret = new int[length];
+        System.arraycopy(array, 0, ret, 0, Math.min(array.length, length));
+        return ret;
+    }
+
+    /**
+     * @return the cell of the coordinates, going down from the cell given
+     */
+    private static Cell locate(Cell c, int x, int y) {
+        while (c.ids == null) {
+            c = (c.axis == 0 ? x : y) < c.split ? c.smaller : c.bigger;
+        }
+        return c;
+    }
+
+    private static void remove(int id, Cell[] cells, int[] slots) {
+        Cell c = cells[id];
+        int slot = slots[id];
+        // The last point of the cell takes the place of the removed one.
+        int last = --c.size;
+        c.ids[slot] = c.ids[last];
+        c.xs[slot] = c.xs[last];
+        c.ys[slot] = c.ys[last];
+        slots[c.ids[slot]] = slot;
+        cells[id] = null;
+    }
+
+    /**
+     * Moves the point with the k-th smallest key in the range [lo, hi] to index k, with points with smaller or
+     * equal keys before it and greater or equal keys after it.
+     */
+    private static void select(int[] ids, int[] xs, int[] ys, int[] keys, int lo, int hi, int k) {
+        while (hi > lo) {
+            int pivot = keys[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(ids, xs, ys, i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] ids, int[] xs, int[] ys, int i, int j) {
+        int t = ids[i];
+        ids[i] = ids[j];
+        ids[j] = t;
+        t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the id of the point closest to the coordinates given within max distance or -1
+     */
+    public int findNearest(int x, int y, int maxDistance) {
+        long md = maxDistance;
+        NearestIds nearest = new NearestIds(1, md * md);
+        lock.readLock().lock();
+        try {
+            search(root, x, y, nearest);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return nearest.size == 0 ? -1 : nearest.ids[0];
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The ids returned are sorted from the closest point to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return ids of the points closest to the coordinates given, in order of ascending distance
+     */
+    public int[] findNearest(int x, int y, int maxDistance, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return new int[0];
+        }
+        long md = maxDistance;
+        NearestIds nearest = new NearestIds(numberOfNearest, md * md);
+        lock.readLock().lock();
+        try {
+            search(root, x, y, nearest);
+        } finally {
+            lock.readLock().unlock();
+        }
+        int[] ret = new int[nearest.size];
+        System.arraycopy(nearest.ids, 0, ret, 0, nearest.size);
+        return ret;
+    }
+
+    /**
+     * Builds a new tree for the current positions of the points, so every cell has about 16 points again.
+     * Queries and updates run during the build, the updates made during the build are applied to the new
+     * tree before it replaces the old one.
+     */
+    public void rebalance() {
+        synchronized (rebalanceLock) {
+            int[] ids, xs, ys;
+            int capacity;
+            lock.writeLock().lock();
+            try {
+                ids = new int[size];
+                xs = new int[size];
+                ys = new int[size];
+                int n = 0;
+                for (int id = 0; id < cells.length; id++) {
+                    Cell c = cells[id];
+                    if (c != null) {
+                        ids[n] = id;
+                        xs[n] = c.xs[slots[id]];
+                        ys[n++] = c.ys[slots[id]];
+                    }
+                }
+                capacity = cells.length;
+                changed = new int[CELL_SIZE];
+                changedCount = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Cell newRoot = null;
+            Cell[] newCells = new Cell[capacity];
+            int[] newSlots = new int[capacity];
+            try {
+                newRoot = buildTree(ids, xs, ys, 0, ids.length, xMin, yMin, xMax, yMax, newCells, newSlots);
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    if (newRoot != null) {
+                        if (newCells.length < cells.length) {
+                            newCells = grow(newCells, cells.length);
+                            newSlots = grow(newSlots, cells.length);
+                        }
+                        // Points updated during the build are moved to their current positions.
+                        for (int i = 0; i < changedCount; i++) {
+                            int id = changed[i];
+                            if (newCells[id] != null) {
+                                remove(id, newCells, newSlots);
+                            }
+                            Cell c = cells[id];
+                            if (c != null) {
+                                int x = c.xs[slots[id]], y = c.ys[slots[id]];
+                                add(locate(newRoot, x, y), id, x, y, newCells, newSlots);
+                            }
+                        }
+                        root = newRoot;
+                        cells = newCells;
+                        slots = newSlots;
+                    }
+                    changed = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the point with the id given.
+     *
+     * @param id
+     *            id of the point
+     * @return true if there was a point with the id
+     */
+    public boolean remove(int id) {
+        lock.writeLock().lock();
+        try {
+            if (id < 0 || id >= cells.length || cells[id] == null) {
+                return false;
+            }
+            remove(id, cells, slots);
+            size--;
+            addChanged(id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs {@link #rebalance()} on the executor given, with the delay given between the end of a rebalance and
+     * the start of the next one.
+     *
+     * @param executor
+     *            executor to run the rebalances on
+     * @param delay
+     *            delay between the rebalances
+     * @param unit
+     *            unit of the delay
+     * @return future that cancels the rebalances
+     */
+    public ScheduledFuture<?> scheduleRebalancing(ScheduledExecutorService executor, long delay, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                rebalance();
+            }
+        }, delay, delay, unit);
+    }
+
+    /**
+     * @return number of points in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the position of the point with the id given, adding the point if there's none. A point that stays
+     * in its cell is updated in place.
+     *
+     * @param id
+     *            id of the point, at least 0
+     * @param x
+     *            new x coordinate of the point
+     * @param y
+     *            new y coordinate of the point
+     */
+    public void update(int id, int x, int y) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Id " + id + " is negative.");
+        }
+        checkArea(x, y);
+        lock.writeLock().lock();
+        try {
+            if (id >= cells.length) {
+                cells = grow(cells, Math.max(id + 1, cells.length * 2));
+                slots = grow(slots, cells.length);
+            }
+            Cell c = cells[id];
+            if (c != null && x >= c.xMin && x <= c.xMax && y >= c.yMin && y <= c.yMax) {
+                c.xs[slots[id]] = x;
+                c.ys[slots[id]] = y;
+            } else {
+                if (c != null) {
+                    remove(id, cells, slots);
+                } else {
+                    size++;
+                }
+                add(locate(root, x, y), id, x, y, cells, slots);
+            }
+            addChanged(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addChanged(int id) {
+        if (changed != null) {
+            if (changedCount == changed.length) {
+                changed = grow(changed, changedCount * 2);
+            }
+            changed[changedCount++] = id;
+        }
+    }
+
+    private void checkArea(int x, int y) {
+        if (x > xMax || x < xMin || y > yMax || y < yMin) {
+            throw new IllegalArgumentException("Point X=" + x + ", Y=" + y + " has coordinates out of the index area.");
+        }
+    }
+
+    private void search(Cell c, long x, long y, NearestIds nearest) {
+        if (c.ids != null) {
+            int[] cellXs = c.xs, cellYs = c.ys;
+            for (int i = 0, n = c.size; i < n; i++) {
+                long dx = x - cellXs[i], dy = y - cellYs[i];
+                // Points farther than the int range along an axis are out of any max distance, and the square
+                // of their distance could overflow.
+                if ((Math.abs(dx) | Math.abs(dy)) <= Integer.MAX_VALUE) {
+                    long d = dx * dx + dy * dy;
+                    if (d <= nearest.distance) {
+                        nearest.insert(c.ids[i], d);
+                    }
+                }
+            }
+        } else {
+            Cell closer, farther;
+            if ((c.axis == 0 ? x : y) < c.split) {
+                closer = c.smaller;
+                farther = c.bigger;
+            } else {
+                closer = c.bigger;
+                farther = c.smaller;
+            }
+            search(closer, x, y, nearest);
+            // Squared distance from the query to the cell of the farther child.
+            long dx = x < farther.xMin ? farther.xMin - x : (x > farther.xMax ? x - farther.xMax : 0);
+            long dy = y < farther.yMin ? farther.yMin - y : (y > farther.yMax ? y - farther.yMax : 0);
+            if ((dx | dy) <= Integer.MAX_VALUE && dx * dx + dy * dy <= nearest.distance) {
+                search(farther, x, y, nearest);
+            }
+        }
+    }
+
+    /**
+     * Cell of the tree, with the bounds of its area, inclusive. Inner cells are split into two by a line along
+     * the axis, cells at the bottom of the tree hold the points in their area.
+     */
+    private static class Cell {
+
+        private int axis;
+        private Cell smaller, bigger;
+        private int size;
+        // Points with the axis value less than the split are in the smaller cell.
+        private int split;
+        private final int xMin, yMin, xMax, yMax;
+        // Points of the cell, null for inner cells.
+        private int[] ids, xs, ys;
+
+        private Cell(int xMin, int yMin, int xMax, int yMax) {
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+        }
+    }
+
+    /**
+     * Ids of the nearest points found so far, sorted by ascending distance. When all slots are taken the
+     * distance of the search is the distance of the last one.
+     */
+    private static class NearestIds {
+
+        private long distance;
+        private final long[] distances;
+        private final int[] ids;
+        private int size;
+
+        private NearestIds(int length, long distance) {
+            // Nothing fits in an empty list.
+            this.distance = length == 0 ? -1 : distance;
+            this.distances = new long[length];
+            this.ids = new int[length];
+        }
+
+        private void insert(int id, long d) {
+            int i = size < ids.length ? size++ : size - 1;
+            // Shift farther points to the right, dropping the farthest one if full.
+            while (i > 0 && distances[i - 1] > d) {
+                distances[i] = distances[i - 1];
+                ids[i] = ids[i - 1];
+                i--;
+            }
+            distances[i] = d;
+            ids[i] = id;
+            if (size == ids.length) {
+                distance = distances[size - 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.roklenarcic.tree;
+
+/**
+ * Graph of the nearest neighbours of all points of a tree, in flat arrays.
+ *
+ * The graph has a row for every point, row r is the point with id getIds()[r], and its neighbours are at
+ * indexes r * k to r * k + k - 1 of the neighbour and distance arrays, where k is the number of neighbours,
+ * from the closest to the farthest. A point is never its own neighbour, but other points with the same
+ * coordinates are. Rows of points with fewer than k other points have the rest of the row filled with the id -1
+ * and the distance {@link Double#POSITIVE_INFINITY}.
+ *
+ * @author Rok Lenarcic
+ */
+public class NeighbourGraph {
+
+    private final double[] distances;
+    private final int[] ids;
+    private final int[] neighbours;
+    private final int numberOfNearest;
+
+    NeighbourGraph(int[] ids, int[] neighbours, double[] distances, int numberOfNearest) {
+        this.ids = ids;
+        this.neighbours = neighbours;
+        this.distances = distances;
+        this.numberOfNearest = numberOfNearest;
+    }
+
+    /**
+     * @return distances to the neighbours, k per row
+     */
+    public double[] getDistances() {
+        return distances;
+    }
+
+    /**
+     * @return ids of the points of the rows
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * @return ids of the neighbours, k per row
+     */
+    public int[] getNeighbours() {
+        return neighbours;
+    }
+
+    /**
+     * @return number of neighbours per row
+     */
+    public int getNumberOfNearest() {
+        return numberOfNearest;
+    }
+}
@@ -0,0 +1,125 @@
+package com.roklenarcic.tree;
+
+/**
+ * Immutable store of points with int coordinates and int ids.
+ *
+ * A store can back any number of {@link KDTreeIntIds} trees. The trees never change the store, they only keep
+ * their own ordering of the points, so one copy of the points can serve several trees, e.g. trees with
+ * different area limits, or an old and a new version of a tree during a swap.
+ *
+ * @author Rok Lenarcic
+ */
+public final class PointStoreInt {
+
+    final int[] ids;
+    final int[] xs;
+    final int[] ys;
+
+    /**
+     * New store with the points given by xs[i], ys[i] and ids[i]. The arrays are copied.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     */
+    public PointStoreInt(int[] xs, int[] ys, int[] ids) {
+        this(xs, ys, ids, false);
+    }
+
+    /**
+     * New store with the points given by xs[i], ys[i] and ids[i]. The arrays are copied. If curve order is
+     * requested the points are stored in the order along a Hilbert curve over the area of the points, so the
+     * points that a search visits together are close in memory, which makes searches of trees built over the
+     * store faster when the points don't fit into the cache. The indexes of the points in the store are then
+     * different from the indexes in the arrays, but the ids aren't changed.
+     *
+     * @param xs
+     *            x coordinates of the points
+     * @param ys
+     *            y coordinates of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param curveOrder
+     *            store the points in the Hilbert curve order
+     */
+    public PointStoreInt(int[] xs, int[] ys, int[] ids, boolean curveOrder) {
+        if (xs.length != ys.length || (ids != null && xs.length != ids.length)) {
+            throw new IllegalArgumentException("Coordinate and id arrays have different lengths.");
+        }
+        if (curveOrder) {
+            int[] order = curveOrder(xs, ys);
+            this.xs = new int[order.length];
+            this.ys = new int[order.length];
+            this.ids = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                int p = order[i];
+                this.xs[i] = xs[p];
+                this.ys[i] = ys[p];
+                this.ids[i] = ids == null ? p : ids[p];
+            }
+        } else {
+            this.xs = xs.clone();
+            this.ys = ys.clone();
+            this.ids = ids == null ? indexes(xs.length) : ids.clone();
+        }
+    }
+
+    private static int[] curveOrder(int[] xs, int[] ys) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        long[] keys = new long[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            int index = HilbertCurve.index(HilbertCurve.cell(xs[i], minX, maxX), HilbertCurve.cell(ys[i], minY, maxY));
+            keys[i] = (long) index << 32 | i;
+        }
+        return HilbertCurve.order(keys);
+    }
+
+    static int[] indexes(int length) {
+        int[] ids = new int[length];
+        for (int i = 0; i < length; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+
+    /**
+     *
+     * @return the id of the point at the index
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     *
+     * @return the x coordinate of the point at the index
+     */
+    public int getX(int index) {
+        return xs[index];
+    }
+
+    /**
+     *
+     * @return the y coordinate of the point at the index
+     */
+    public int getY(int index) {
+        return ys[index];
+    }
+
+    /**
+     *
+     * @return number of points in the store
+     */
+    public int size() {
+        return xs.length;
+    }
+}
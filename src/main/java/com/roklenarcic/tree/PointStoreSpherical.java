@@ -0,0 +1,106 @@
+package com.roklenarcic.tree;
+
+/**
+ * Immutable store of points on a sphere with int ids.
+ *
+ * A store can back any number of {@link KDTreeSphericalIds} trees. The trees never change the store, they
+ * only keep their own ordering of the points, so one copy of the points can serve several trees, e.g. trees
+ * with different max distances, or an old and a new version of a tree during a swap. The store keeps the
+ * cartesian coordinates of the points, the longitude and latitude are not kept.
+ *
+ * @author Rok Lenarcic
+ */
+public final class PointStoreSpherical {
+
+    private static final double DEGREES_IN_RADIAN = 57.29577951308233;
+
+    final int[] ids;
+    final double[] xs;
+    final double[] ys;
+    final double[] zs;
+
+    /**
+     * New store with the points given by longitudes[i], latitudes[i] and ids[i]. The longitudes are limited
+     * to [-180, 180] and the latitudes to [-90, 90].
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     */
+    public PointStoreSpherical(double[] longitudes, double[] latitudes, int[] ids) {
+        this(longitudes, latitudes, ids, false);
+    }
+
+    /**
+     * New store with the points given by longitudes[i], latitudes[i] and ids[i]. The longitudes are limited
+     * to [-180, 180] and the latitudes to [-90, 90]. If curve order is requested the points are stored in the
+     * order along a Hilbert curve over the longitude and latitude, so the points that a search visits together
+     * are close in memory, which makes searches of trees built over the store faster when the points don't fit
+     * into the cache. The indexes of the points in the store are then different from the indexes in the
+     * arrays, but the ids aren't changed.
+     *
+     * @param longitudes
+     *            longitudes of the points
+     * @param latitudes
+     *            latitudes of the points
+     * @param ids
+     *            ids of the points, if null the id of a point is its index in the coordinate arrays
+     * @param curveOrder
+     *            store the points in the Hilbert curve order
+     */
+    public PointStoreSpherical(double[] longitudes, double[] latitudes, int[] ids, boolean curveOrder) {
+        if (longitudes.length != latitudes.length || (ids != null && longitudes.length != ids.length)) {
+            throw new IllegalArgumentException("Coordinate and id arrays have different lengths.");
+        }
+        int n = longitudes.length;
+        for (int i = 0; i < n; i++) {
+            if (longitudes[i] > 180 || longitudes[i] < -180 || latitudes[i] > 90 || latitudes[i] < -90) {
+                throw new IllegalArgumentException("Point Longitude=" + longitudes[i] + ", Latitude=" + latitudes[i]
+                        + " has longitude outside [-180, 180] or latitude outside [-90, 90].");
+            }
+        }
+        int[] order = curveOrder ? curveOrder(longitudes, latitudes) : PointStoreInt.indexes(n);
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.zs = new double[n];
+        this.ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            int p = order[i];
+            double azimuth = (longitudes[p] + 180) / DEGREES_IN_RADIAN;
+            double inclination = (-latitudes[p] + 90) / DEGREES_IN_RADIAN;
+            double sinInclination = Math.sin(inclination);
+            xs[i] = sinInclination * Math.cos(azimuth);
+            ys[i] = sinInclination * Math.sin(azimuth);
+            zs[i] = Math.cos(inclination);
+            this.ids[i] = ids == null ? p : ids[p];
+        }
+    }
+
+    private static int[] curveOrder(double[] longitudes, double[] latitudes) {
+        long[] keys = new long[longitudes.length];
+        for (int i = 0; i < keys.length; i++) {
+            int index = HilbertCurve.index(HilbertCurve.cell(longitudes[i], -180, 180), HilbertCurve.cell(latitudes[i], -90, 90));
+            keys[i] = (long) index << 32 | i;
+        }
+        return HilbertCurve.order(keys);
+    }
+
+    /**
+     *
+     * @return the id of the point at the index
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     *
+     * @return number of points in the store
+     */
+    public int size() {
+        return xs.length;
+    }
+}
@@ -0,0 +1,219 @@
+package com.roklenarcic.tree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread safe cache of query results, keyed by the grid cell of the query point, the max distance and
+ * the number of points asked for. When full, the least recently used result is evicted.
+ *
+ * The cache is split into segments with their own lock and their own share of the size, so concurrent queries
+ * rarely wait for each other. Counters of hits, misses and evictions are kept for tuning the size and the cell
+ * size of the cache.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <V>
+ *            Cached result.
+ */
+public final class ResultCache<V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final AtomicLong evictions = new AtomicLong();
+    // Results computed before the last clear are not put into the cache.
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final int maximumSize;
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<Key, V>[] segments;
+
+    /**
+     * New cache that holds up to the number of results given.
+     *
+     * @param maximumSize
+     *            maximum number of results in the cache
+     */
+    public ResultCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1.");
+        }
+        this.maximumSize = maximumSize;
+        // Small caches have fewer segments, so that every segment holds at least one result.
+        int count = Integer.highestOneBit(Math.min(SEGMENTS, maximumSize));
+        @SuppressWarnings("unchecked")
+        Map<Key, V>[] segments = (Map<Key, V>[]) new Map<?, ?>[count];
+        this.segments = segments;
+        for (int i = 0; i < count; i++) {
+            // Segments hold an equal share of the size, the first ones also hold the remainder.
+            final int segmentSize = maximumSize / count + (i < maximumSize % count ? 1 : 0);
+            segments[i] = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                    if (size() > segmentSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    } else {
+                        return false;
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Removes all the results, e.g. when the tree is replaced. Results of the queries that are running
+     * while the cache is cleared are not cached.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        for (Map<Key, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return number of results evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     *
+     * @return number of queries answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return share of the queries answered from the cache, 0 if there were no queries
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     *
+     * @return maximum number of results in the cache
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     *
+     * @return number of queries not found in the cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return number of results in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Key, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the cached result or null
+     */
+    V get(Key key) {
+        Map<Key, V> segment = segments[key.segment(segments.length)];
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @return generation to be given when putting the result of the query that starts now
+     */
+    int generation() {
+        return generation.get();
+    }
+
+    void put(Key key, V value, int generation) {
+        Map<Key, V> segment = segments[key.segment(segments.length)];
+        synchronized (segment) {
+            // A clear increments the generation before clearing the segments, so a stale result is either
+            // refused here or removed by the clear.
+            if (generation == this.generation.get()) {
+                segment.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Grid cell of the query point, the max distance and the number of points of a query.
+     */
+    static final class Key {
+
+        private final long cellX;
+        private final long cellY;
+        private final int count;
+        private final long distance;
+
+        Key(long cellX, long cellY, long distance, int count) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.distance = distance;
+            this.count = count;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return cellX == other.cellX && cellY == other.cellY && distance == other.distance && count == other.count;
+            } else {
+                return false;
+            }
+        }
+
+        public int hashCode() {
+            long h = cellX * 31 + cellY;
+            h = h * 31 + distance;
+            h = h * 31 + count;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * @return segment of the key, out of the number of segments given, which is a power of 2
+         */
+        private int segment(int count) {
+            int h = hashCode();
+            // Spread the bits, the low bits of nearby cells are too alike.
+            h ^= (h >>> 16);
+            h *= 0x85ebca6b;
+            h ^= (h >>> 13);
+            return h & (count - 1);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+/**
+ * Index of points on a sphere, split into tiles of longitude and latitude with a {@link KDTreeSpherical} for
+ * each tile.
+ *
+ * The trees of the tiles are built in parallel, and the tree of a single tile can be rebuilt when the points
+ * of its region change, without touching the other tiles. A query searches the tiles that the max distance
+ * reaches from the query point, which is usually the tile of the query point and a few of its neighbours.
+ *
+ * Building a tree changes the points, so the points given to a rebuild must not be in any tree that is still
+ * being queried.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public class ShardedKDTreeSpherical<T> {
+
+    private static final double DEGREES_IN_RADIAN = 57.29577951308233;
+    // Margin for rounding errors in the tiles a query reaches, in degrees.
+    private static final double MARGIN = 1E-9;
+
+    // Squared chord length of the max distance.
+    private final double chordDistance;
+    private final int columns;
+    private final double maxDistance;
+    private final int rows;
+    // Trees of the tiles, row by row, null for tiles without points.
+    private final AtomicReferenceArray<KDTreeSpherical<T>> shards;
+    private final double tileSize;
+
+    /**
+     * Build the index from list of points, building the trees of the tiles in parallel on a thread for each
+     * processor.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     * @param tileSize
+     *            size of the tiles in degrees, must be in (0, 180] range and divide 360
+     */
+    public ShardedKDTreeSpherical(List<Point<T>> points, double maxDistance, double tileSize) {
+        this(points, maxDistance, tileSize, null);
+    }
+
+    /**
+     * Build the index from list of points, building the trees of the tiles in parallel with the executor
+     * given.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param maxDistance
+     *            max distance from query point to search, must be in [0, 180] range
+     * @param tileSize
+     *            size of the tiles in degrees, must be in (0, 180] range and divide 360
+     * @param executor
+     *            executor to build the trees with, if null a thread for each processor is used
+     */
+    public ShardedKDTreeSpherical(List<Point<T>> points, double maxDistance, double tileSize, ExecutorService executor) {
+        this.maxDistance = maxDistance;
+        this.tileSize = tileSize;
+        validate(maxDistance, tileSize);
+        double chord = 2 * Math.sin(0.5 * maxDistance / DEGREES_IN_RADIAN);
+        this.chordDistance = chord * chord;
+        this.columns = (int) Math.round(360 / tileSize);
+        this.rows = (int) Math.ceil(180 / tileSize);
+        this.shards = new AtomicReferenceArray<KDTreeSpherical<T>>(columns * rows);
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                build(points, executor);
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            build(points, executor);
+        }
+    }
+
+    private static void validate(double maxDistance, double tileSize) {
+        if (maxDistance > 180 || maxDistance < 0) {
+            throw new IllegalArgumentException("Max distance must be between 0 and 180.");
+        }
+        // Tiles must fit around the globe exactly, so the columns wrap across the date line.
+        if (!(tileSize > 0 && tileSize <= 180) || Math.abs(Math.round(360 / tileSize) * tileSize - 360) > 1E-9) {
+            throw new IllegalArgumentException("Tile size must be more than 0, at most 180 and divide 360.");
+        }
+    }
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance, inclusive.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @return the point closest to the coordinates given within max distance
+     */
+    public Point<T> findNearest(double longitude, double latitude) {
+        KDTreeSpherical.NearestPoint<T> nearest = new KDTreeSpherical.NearestPoint<T>();
+        nearest.distance = chordDistance;
+        double[] q = cartesian(longitude, latitude);
+        // One search over the trees, the nearest point found so far limits the search of the next tree.
+        for (KDTreeSpherical<T> shard : reachedShards(longitude, latitude)) {
+            shard.findNearest(q[0], q[1], q[2], nearest);
+        }
+        return nearest.p;
+    }
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance,
+     * inclusive. The points returned are sorted from the closest to the farthest.
+     *
+     * @param longitude
+     *            longitude coordinate of the query point
+     * @param latitude
+     *            latitude coordinate of the query point
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points closest to the coordinates given, in order of ascending distance
+     */
+    public Iterable<Point<T>> findNearest(double longitude, double latitude, int numberOfNearest) {
+        if (numberOfNearest < 1) {
+            return Collections.emptyList();
+        }
+        KDTreeSpherical.LinkedList<T> nearestPoints = KDTreeSpherical.LinkedList.constructChain(numberOfNearest, chordDistance);
+        double[] q = cartesian(longitude, latitude);
+        for (KDTreeSpherical<T> shard : reachedShards(longitude, latitude)) {
+            nearestPoints = shard.findNearest(q[0], q[1], q[2], nearestPoints);
+        }
+        nearestPoints = nearestPoints.dropEmptyPrefix();
+        if (nearestPoints != null) {
+            return nearestPoints.reverse();
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     *
+     * @return number of tiles
+     */
+    public int getShardCount() {
+        return shards.length();
+    }
+
+    /**
+     * Replaces the points of the tile of the coordinates given with the points given, by building a new tree
+     * for the tile. Queries running during the rebuild use the old tree of the tile.
+     *
+     * @param longitude
+     *            longitude of a location in the tile
+     * @param latitude
+     *            latitude of a location in the tile
+     * @param points
+     *            new points of the tile, all must be in the tile and not in any other tree
+     */
+    public void rebuildShard(double longitude, double latitude, List<Point<T>> points) {
+        int shard = shard(longitude, latitude);
+        for (Point<T> p : points) {
+            if (shard(p.getLongitude(), p.getLatitude()) != shard) {
+                throw new IllegalArgumentException("Point " + p + " is not in the tile of Longitude=" + longitude + ", Latitude=" + latitude + ".");
+            }
+        }
+        shards.set(shard, points.isEmpty() ? null : new KDTreeSpherical<T>(points, maxDistance));
+    }
+
+    private void build(List<Point<T>> points, ExecutorService executor) {
+        List<List<Point<T>>> tiles = new ArrayList<List<Point<T>>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            tiles.add(null);
+        }
+        for (Point<T> p : points) {
+            int shard = shard(p.getLongitude(), p.getLatitude());
+            if (tiles.get(shard) == null) {
+                tiles.set(shard, new ArrayList<Point<T>>());
+            }
+            tiles.get(shard).add(p);
+        }
+        List<Future<?>> builds = new ArrayList<Future<?>>();
+        for (int i = 0; i < tiles.size(); i++) {
+            final int shard = i;
+            final List<Point<T>> tile = tiles.get(i);
+            if (tile != null) {
+                builds.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        shards.set(shard, new KDTreeSpherical<T>(tile, maxDistance));
+                        return null;
+                    }
+                }));
+            }
+        }
+        try {
+            for (Future<?> build : builds) {
+                build.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the tiles.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new IllegalStateException("Building a tile failed.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return the point on the unit sphere, with the same axes as the points of {@link KDTreeSpherical}
+     */
+    private static double[] cartesian(double longitude, double latitude) {
+        double azimuth = (longitude + 180) / DEGREES_IN_RADIAN;
+        double inclination = (-latitude + 90) / DEGREES_IN_RADIAN;
+        double sinInclination = Math.sin(inclination);
+        return new double[] { sinInclination * Math.cos(azimuth), sinInclination * Math.sin(azimuth), Math.cos(inclination) };
+    }
+
+    private int column(double longitude) {
+        return Math.min(columns - 1, Math.max(0, (int) ((longitude + 180) / tileSize)));
+    }
+
+    /**
+     * @return the trees of the tiles that are within the max distance of the coordinates, the tree of the
+     *         tile of the coordinates first
+     */
+    private List<KDTreeSpherical<T>> reachedShards(double longitude, double latitude) {
+        double latLo = latitude - maxDistance - MARGIN;
+        double latHi = latitude + maxDistance + MARGIN;
+        int firstColumn = 0, lastColumn = columns - 1;
+        if (latLo > -90 && latHi < 90) {
+            // Longitudes reached by the circle around the query, unless it reaches over a pole.
+            double sinSpan = Math.sin(maxDistance / DEGREES_IN_RADIAN) / Math.cos(latitude / DEGREES_IN_RADIAN);
+            if (sinSpan < 1) {
+                double span = Math.asin(sinSpan) * DEGREES_IN_RADIAN + MARGIN;
+                if (2 * span < 360 - tileSize) {
+                    firstColumn = (int) Math.floor((longitude - span + 180) / tileSize);
+                    lastColumn = (int) Math.floor((longitude + span + 180) / tileSize);
+                }
+            }
+        }
+        List<KDTreeSpherical<T>> reached = new ArrayList<KDTreeSpherical<T>>();
+        // Its own tile usually has the nearest point, which makes the search of the others short.
+        int own = shard(longitude, latitude);
+        if (shards.get(own) != null) {
+            reached.add(shards.get(own));
+        }
+        for (int row = row(latLo); row <= row(latHi); row++) {
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                // Columns wrap across the date line.
+                int column = c < 0 ? c + columns : c >= columns ? c - columns : c;
+                KDTreeSpherical<T> shard = shards.get(row * columns + column);
+                if (shard != null && row * columns + column != own) {
+                    reached.add(shard);
+                }
+            }
+        }
+        return reached;
+    }
+
+    private int row(double latitude) {
+        return Math.min(rows - 1, Math.max(0, (int) ((latitude + 90) / tileSize)));
+    }
+
+    private int shard(double longitude, double latitude) {
+        return row(latitude) * columns + column(longitude);
+    }
+}
@@ -0,0 +1,113 @@
+package com.roklenarcic.tree;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+/**
+ * Index of points with coordinates of the int type, which finds the nearest points to a query point.
+ *
+ * Implemented by {@link KDTreeInt} and {@link GridIndexInt}, {@link SpatialIndexes} picks the faster one for
+ * the points given.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            Value to be stored in points.
+ */
+public interface SpatialIndexInt<T> {
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the point closest to the coordinates given within max distance
+     */
+    Point<T> findNearest(int x, int y, int maxDistance);
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The points returned are sorted from the closest to the farthest.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points closest to the coordinates given, in order of ascending distance
+     */
+    Iterable<Point<T>> findNearest(int x, int y, int maxDistance, int numberOfNearest);
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The search wraps across the x axis of the area of the index.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @return the point closest to the coordinates given within max distance
+     */
+    Point<T> findNearestWithWrapping(int x, int y, int maxDistance);
+
+    /**
+     * Find the nearest point to the coordinates given, that is within the maximum distance given, inclusive.
+     * The search wraps across the axes given of the area of the index.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param wrapping
+     *            axes to wrap across
+     * @return the point closest to the coordinates given within max distance
+     */
+    Point<T> findNearestWithWrapping(int x, int y, int maxDistance, Wrapping wrapping);
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The points returned are sorted from the closest to the farthest. The search wraps across the
+     * x axis of the area of the index.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @return an iterable of points closest to the coordinates given, in order of ascending distance
+     */
+    Iterable<Point<T>> findNearestWithWrapping(int x, int y, int maxDistance, int numberOfNearest);
+
+    /**
+     * Find a number of nearest points to the coordinates given that are within the maximum distance given,
+     * inclusive. The points returned are sorted from the closest to the farthest. The search wraps across the
+     * axes given of the area of the index, every point is returned at most once, at its shortest wrapped
+     * distance.
+     *
+     * @param x
+     *            x coordinate of the query point
+     * @param y
+     *            y coordinate of the query point
+     * @param maxDistance
+     *            maximum distance from the point of the query to search
+     * @param numberOfNearest
+     *            number of points to return
+     * @param wrapping
+     *            axes to wrap across
+     * @return an iterable of points closest to the coordinates given, in order of ascending distance
+     */
+    Iterable<Point<T>> findNearestWithWrapping(int x, int y, int maxDistance, int numberOfNearest, Wrapping wrapping);
+}
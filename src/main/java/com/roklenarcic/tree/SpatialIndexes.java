@@ -0,0 +1,71 @@
+package com.roklenarcic.tree;
+
+import java.util.List;
+
+/**
+ * Factory of spatial indexes, which picks the structure that is faster for the points given.
+ *
+ * A sample of the points is put on a grid with as many points per cell as {@link GridIndexInt} has and the
+ * average number of points in the cell of a point is measured. For points spread evenly over the area it's
+ * about 3, and a grid is built. For clustered points it's higher, and a tree is built, which adapts to the
+ * density of the points.
+ *
+ * @author Rok Lenarcic
+ */
+public final class SpatialIndexes {
+
+    // Twice the crowding of points spread evenly.
+    private static final double MAX_GRID_CROWDING = 6;
+    private static final int SAMPLE_SIZE = 1000;
+
+    private SpatialIndexes() {
+    }
+
+    /**
+     * Build the index that is faster for the points given, {@link GridIndexDouble} or {@link KDTreeDouble}.
+     * The map area is limited by the limits given, inclusive.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @return the index
+     */
+    public static <T> SpatialIndexDouble<T> newIndexDouble(List<KDTreeDouble.Point<T>> points, double xMin, double yMin, double xMax, double yMax) {
+        if (GridIndexDouble.crowding(points, xMin, yMin, xMax, yMax, SAMPLE_SIZE) <= MAX_GRID_CROWDING) {
+            return new GridIndexDouble<T>(points, xMin, yMin, xMax, yMax);
+        } else {
+            return new KDTreeDouble<T>(points, xMin, yMin, xMax, yMax);
+        }
+    }
+
+    /**
+     * Build the index that is faster for the points given, {@link GridIndexInt} or {@link KDTreeInt}. The map
+     * area is limited by the limits given, inclusive.
+     *
+     * @param points
+     *            list of points with coordinates and values
+     * @param xMin
+     *            minimum value of x coordinate of a point, inclusive
+     * @param yMin
+     *            minimum value of y coordinate of a point, inclusive
+     * @param xMax
+     *            maximum value of x coordinate of a point, inclusive
+     * @param yMax
+     *            maximum value of y coordinate of a point, inclusive
+     * @return the index
+     */
+    public static <T> SpatialIndexInt<T> newIndexInt(List<KDTreeInt.Point<T>> points, int xMin, int yMin, int xMax, int yMax) {
+        if (GridIndexInt.crowding(points, xMin, yMin, xMax, yMax, SAMPLE_SIZE) <= MAX_GRID_CROWDING) {
+            return new GridIndexInt<T>(points, xMin, yMin, xMax, yMax);
+        } else {
+            return new KDTreeInt<T>(points, xMin, yMin, xMax, yMax);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.roklenarcic.tree;
+
+/**
+ * How a 2-D tree picks the axis and the point that split the points of a subtree.
+ *
+ * There's no surface-area heuristic. It's a cost model for ray traversal, which prices a split by the chance
+ * that a ray hits each child, and doesn't apply to searches by distance.
+ *
+ * @author Rok Lenarcic
+ */
+public enum SplitStrategy {
+
+    /**
+     * Split at the median, with the axes alternating on every level. Gives a balanced tree and is the best for
+     * points spread evenly over the area.
+     */
+    MEDIAN,
+
+    /**
+     * Split at the median of the axis where the points of the subtree have the larger spread.
+     */
+    WIDEST_SPREAD,
+
+    /**
+     * Split at the median of the axis where the coordinates of the points of the subtree have the larger
+     * variance, which is less affected by a few distant points than the spread.
+     */
+    VARIANCE,
+
+    /**
+     * Split the longer side of the cell at the point closest to its middle, so the cells stay about square
+     * and empty regions end up in few large cells. For clustered points. A split leaves at least 1/8 of the
+     * points on each side, which keeps the depth of the tree logarithmic.
+     */
+    SLIDING_MIDPOINT
+}
@@ -0,0 +1,19 @@
+package com.roklenarcic.tree;
+
+/**
+ * Number taken from the value of a point, summed by the aggregate queries of the trees.
+ *
+ * @author Rok Lenarcic
+ *
+ * @param <T>
+ *            type of value
+ */
+public interface ValueExtractor<T> {
+
+    /**
+     * @param value
+     *            value of a point
+     * @return the number to be summed for the point
+     */
+    double extract(T value);
+}
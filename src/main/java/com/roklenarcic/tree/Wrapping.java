@@ -0,0 +1,32 @@
+package com.roklenarcic.tree;
+
+/**
+ * Axes across which a search in a 2-D tree wraps around the borders of the tree area.
+ *
+ * @author Rok Lenarcic
+ */
+public enum Wrapping {
+
+    /**
+     * Wrap across the left and right border, like longitude on a map.
+     */
+    X,
+
+    /**
+     * Wrap across the bottom and top border.
+     */
+    Y,
+
+    /**
+     * Wrap across both pairs of borders, treating the area as a torus.
+     */
+    XY;
+
+    boolean wrapsX() {
+        return this != Y;
+    }
+
+    boolean wrapsY() {
+        return this != X;
+    }
+}
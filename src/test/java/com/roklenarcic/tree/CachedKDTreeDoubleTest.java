@@ -0,0 +1,39 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeDouble.Point;
+
+public class CachedKDTreeDoubleTest {
+
+    @Test
+    public void testCells() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(-0.4, 0, null));
+        datasetPoints.add(new Point<Void>(0.6, 0, null));
+        CachedKDTreeDouble<Void> k = new CachedKDTreeDouble<Void>(new KDTreeDouble<Void>(datasetPoints, -10, -10, 10, 10), 0.5, 100);
+        // Cell [0, 0.5) has the center 0.25, cell [-0.5, 0) has the center -0.25.
+        Assert.assertEquals(0.6, k.findNearest(0.01, 0, 10).getX(), 0);
+        Assert.assertEquals(0.6, k.findNearest(0.49, 0.2, 10).getX(), 0);
+        Assert.assertEquals(-0.4, k.findNearest(-0.01, 0, 10).getX(), 0);
+        Assert.assertEquals(null, k.findNearest(-0.01, 0, 0.1));
+        Assert.assertEquals(1, k.getCache().getHitCount());
+        Assert.assertEquals(3, k.getCache().getMissCount());
+    }
+
+    @Test
+    public void testSetTree() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(0, 0, null));
+        CachedKDTreeDouble<Void> k = new CachedKDTreeDouble<Void>(new KDTreeDouble<Void>(datasetPoints, -100, -100, 100, 100), 1, 100);
+        Assert.assertEquals(0, k.findNearest(10, 0, 100, 3).iterator().next().getX(), 0);
+        datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(20, 0, null));
+        k.setTree(new KDTreeDouble<Void>(datasetPoints, -100, -100, 100, 100));
+        Assert.assertEquals(20, k.findNearest(10, 0, 100, 3).iterator().next().getX(), 0);
+    }
+}
@@ -0,0 +1,85 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+public class CachedKDTreeIntTest {
+
+    @Test
+    public void speedTestHotLocations() {
+        CachedKDTreeInt<Void> k = new CachedKDTreeInt<Void>(new KDTreeInt<Void>(generateRandomPoints(40000, 1000000), 0, 0, 1000000, 1000000), 1, 1000);
+        List<Point<Void>> hotPoints = generateRandomPoints(500, 1000000);
+        Random r = new Random();
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100000; i++) {
+            Point<Void> p = hotPoints.get(r.nextInt(hotPoints.size()));
+            sum += k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE).getX();
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / 100000 + " hit rate " + k.getCache().getHitRate());
+    }
+
+    @Test
+    public void testExact() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
+        KDTreeInt<Void> tree = new KDTreeInt<Void>(datasetPoints, 0, 0, 100000, 100000);
+        CachedKDTreeInt<Void> k = new CachedKDTreeInt<Void>(tree, 1, 1000);
+        List<Point<Void>> checkPoints = generateRandomPoints(50, 100000);
+        for (int i = 0; i < 3; i++) {
+            for (Point<Void> p : checkPoints) {
+                Assert.assertSame(tree.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE), k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE));
+                Iterator<Point<Void>> expected = tree.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE, 5).iterator();
+                for (Point<Void> found : k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE, 5)) {
+                    Assert.assertSame(expected.next(), found);
+                }
+                Assert.assertFalse(expected.hasNext());
+            }
+        }
+        Assert.assertEquals(100, k.getCache().getMissCount());
+        Assert.assertEquals(200, k.getCache().getHitCount());
+    }
+
+    @Test
+    public void testCells() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(-5, 0, null));
+        datasetPoints.add(new Point<Void>(5, 0, null));
+        CachedKDTreeInt<Void> k = new CachedKDTreeInt<Void>(new KDTreeInt<Void>(datasetPoints, -100, -100, 100, 100), 10, 100);
+        // Cell [0, 10) has the center 5, cell [-10, 0) has the center -5.
+        Assert.assertEquals(5, k.findNearest(0, 0, 100).getX());
+        Assert.assertEquals(5, k.findNearest(9, 9, 100).getX());
+        Assert.assertEquals(-5, k.findNearest(-1, 0, 100).getX());
+        Assert.assertEquals(-5, k.findNearest(-10, 0, 100).getX());
+        Assert.assertEquals(null, k.findNearest(-10, 0, 1));
+        Assert.assertEquals(2, k.getCache().getHitCount());
+    }
+
+    @Test
+    public void testSetTree() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(0, 0, null));
+        CachedKDTreeInt<Void> k = new CachedKDTreeInt<Void>(new KDTreeInt<Void>(datasetPoints, -100, -100, 100, 100), 1, 100);
+        Assert.assertEquals(0, k.findNearest(10, 0, 100).getX());
+        datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(20, 0, null));
+        k.setTree(new KDTreeInt<Void>(datasetPoints, -100, -100, 100, 100));
+        Assert.assertEquals(0, k.getCache().size());
+        Assert.assertEquals(20, k.findNearest(10, 0, 100).getX());
+    }
+
+    private List<Point<Void>> generateRandomPoints(int number, int range) {
+        Random r = new Random();
+        List<Point<Void>> l = new ArrayList<KDTreeInt.Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            l.add(new Point<Void>(r.nextInt(range), r.nextInt(range), null));
+        }
+        return l;
+    }
+}
@@ -0,0 +1,25 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+public class CachedKDTreeSphericalTest {
+
+    @Test
+    public void testCells() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(0.5, 0.5, null));
+        datasetPoints.add(new Point<Void>(179.5, 89.9, null));
+        CachedKDTreeSpherical<Void> k = new CachedKDTreeSpherical<Void>(new KDTreeSpherical<Void>(datasetPoints, 1), 1, 100);
+        Assert.assertEquals(0.5, k.findNearest(0.1, 0.9).getLongitude(), 0);
+        Assert.assertEquals(0.5, k.findNearest(0.9, 0.1).getLongitude(), 0);
+        // The cell over the pole and the date line is snapped to the edge of the map.
+        Assert.assertEquals(179.5, k.findNearest(180, 90).getLongitude(), 0);
+        Assert.assertEquals(1, k.getCache().getHitCount());
+    }
+}
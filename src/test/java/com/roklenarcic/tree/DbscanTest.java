@@ -0,0 +1,205 @@
+package com.roklenarcic.tree;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DbscanTest {
+
+    @Test
+    public void speedTest() {
+        Random r = new Random(1);
+        double[][] data = generateClusteredPoints(r, 500000, 1000000);
+        long start = System.nanoTime();
+        int[] clusters = Dbscan.cluster(data[0], data[1], 300, 10);
+        int sum = 0;
+        for (int c : clusters) {
+            sum = Math.max(sum, c + 1);
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / data[0].length + " for clustering per point.");
+    }
+
+    @Test
+    public void testCluster() {
+        Random r = new Random();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        for (int round = 0; round < 10; round++) {
+            double[][] data = generateClusteredPoints(r, r.nextInt(1500), 100000);
+            // Some duplicates and points on a line.
+            for (int i = 1; i < data[0].length; i += 11) {
+                data[0][i] = data[0][i - 1];
+                data[1][i] = round == 0 ? 5 : data[1][i - 1];
+            }
+            double distance = 500 + r.nextDouble() * 2000;
+            int minPoints = r.nextInt(8) + 1;
+            int[] clusters = Dbscan.cluster(data[0], data[1], distance, minPoints, executor);
+            double[][] distances = new double[data[0].length][data[0].length];
+            for (int i = 0; i < data[0].length; i++) {
+                for (int j = 0; j < data[0].length; j++) {
+                    double dx = data[0][i] - data[0][j], dy = data[1][i] - data[1][j];
+                    distances[i][j] = Math.sqrt(dx * dx + dy * dy);
+                }
+            }
+            check(clusters, distances, distance, minPoints, true);
+        }
+        executor.shutdown();
+        Assert.assertEquals(0, Dbscan.cluster(new double[0], new double[0], 1, 1).length);
+        Assert.assertArrayEquals(new int[] { 0 }, Dbscan.cluster(new double[] { 1 }, new double[] { 1 }, 1, 1));
+        Assert.assertArrayEquals(new int[] { Dbscan.NOISE }, Dbscan.cluster(new double[] { 1 }, new double[] { 1 }, 1, 2));
+        try {
+            Dbscan.cluster(new double[] { 1 }, new double[] { 1 }, -1, 2);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testClusterSpherical() {
+        Random r = new Random();
+        for (int round = 0; round < 5; round++) {
+            int n = r.nextInt(1500);
+            double[] longitudes = new double[n], latitudes = new double[n];
+            double[] centerLongitudes = new double[5], centerLatitudes = new double[5];
+            for (int i = 0; i < 5; i++) {
+                // One of the clusters around the date line.
+                centerLongitudes[i] = i == 0 ? 180 : r.nextDouble() * 360 - 180;
+                centerLatitudes[i] = r.nextDouble() * 160 - 80;
+            }
+            for (int i = 0; i < n; i++) {
+                if (i % 4 == 0) {
+                    longitudes[i] = r.nextDouble() * 360 - 180;
+                    latitudes[i] = r.nextDouble() * 180 - 90;
+                } else {
+                    double longitude = centerLongitudes[i % 5] + r.nextGaussian() * 2;
+                    longitudes[i] = longitude > 180 ? longitude - 360 : (longitude < -180 ? longitude + 360 : longitude);
+                    latitudes[i] = Math.max(-90, Math.min(90, centerLatitudes[i % 5] + r.nextGaussian() * 2));
+                }
+            }
+            double distance = 0.2 + r.nextDouble();
+            int minPoints = r.nextInt(5) + 1;
+            int[] clusters = Dbscan.clusterSpherical(longitudes, latitudes, distance, minPoints);
+            double[][] distances = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    distances[i][j] = angle(longitudes[i], latitudes[i], longitudes[j], latitudes[j]);
+                }
+            }
+            check(clusters, distances, distance, minPoints, false);
+        }
+    }
+
+    private double angle(double longitude1, double latitude1, double longitude2, double latitude2) {
+        double sinLatitude = Math.sin(Math.toRadians(latitude1 - latitude2) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(longitude1 - longitude2) / 2);
+        double a = sinLatitude * sinLatitude + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+        return Math.toDegrees(2 * Math.asin(Math.min(1, Math.sqrt(a))));
+    }
+
+    private void check(int[] clusters, double[][] distances, double distance, int minPoints, boolean exactOwner) {
+        int n = clusters.length;
+        boolean[] core = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int count = 0;
+            for (int j = 0; j < n; j++) {
+                count += distances[i][j] <= distance ? 1 : 0;
+            }
+            core[i] = count >= minPoints;
+        }
+        // Components of the core points, by their smallest point.
+        int[] components = new int[n];
+        for (int i = 0; i < n; i++) {
+            components[i] = -1;
+        }
+        int[] stack = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (core[i] && components[i] == -1) {
+                int size = 0;
+                stack[size++] = i;
+                components[i] = i;
+                while (size > 0) {
+                    int p = stack[--size];
+                    for (int j = 0; j < n; j++) {
+                        if (core[j] && components[j] == -1 && distances[p][j] <= distance) {
+                            components[j] = i;
+                            stack[size++] = j;
+                        }
+                    }
+                }
+            }
+        }
+        int[] clusterOfComponent = new int[n];
+        for (int i = 0; i < n; i++) {
+            clusterOfComponent[i] = -2;
+        }
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            // Clusters are numbered in the order of their first point.
+            Assert.assertTrue(clusters[i] <= count);
+            if (clusters[i] == count) {
+                count++;
+            }
+            if (core[i]) {
+                if (clusterOfComponent[components[i]] == -2) {
+                    clusterOfComponent[components[i]] = clusters[i];
+                }
+                Assert.assertEquals(clusterOfComponent[components[i]], clusters[i]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!core[i]) {
+                int owner = -1;
+                for (int j = 0; j < n; j++) {
+                    if (core[j] && distances[i][j] <= distance && (owner == -1 || distances[i][j] < distances[i][owner])) {
+                        owner = j;
+                    }
+                }
+                if (owner == -1) {
+                    Assert.assertEquals(Dbscan.NOISE, clusters[i]);
+                } else if (exactOwner) {
+                    Assert.assertEquals(distances[i][owner], distances[i][firstWithCluster(clusters, core, clusters[i], distances[i], distance)], 0);
+                } else {
+                    Assert.assertTrue(clusters[i] != Dbscan.NOISE);
+                }
+            } else {
+                Assert.assertTrue(clusters[i] != Dbscan.NOISE);
+            }
+        }
+    }
+
+    /**
+     * @return the nearest core point of the cluster within the distance
+     */
+    private int firstWithCluster(int[] clusters, boolean[] core, int cluster, double[] distances, double distance) {
+        int nearest = -1;
+        for (int j = 0; j < clusters.length; j++) {
+            if (core[j] && clusters[j] == cluster && distances[j] <= distance && (nearest == -1 || distances[j] < distances[nearest])) {
+                nearest = j;
+            }
+        }
+        return nearest;
+    }
+
+    private double[][] generateClusteredPoints(Random r, int number, int range) {
+        double[][] data = new double[2][number];
+        double[] centerXs = new double[20], centerYs = new double[20];
+        for (int i = 0; i < centerXs.length; i++) {
+            centerXs[i] = r.nextDouble() * range;
+            centerYs[i] = r.nextDouble() * range;
+        }
+        for (int i = 0; i < number; i++) {
+            // A fifth of the points is noise, the rest in clusters of different sizes.
+            if (i % 5 == 0) {
+                data[0][i] = r.nextDouble() * range;
+                data[1][i] = r.nextDouble() * range;
+            } else {
+                int c = i % centerXs.length;
+                data[0][i] = centerXs[c] + r.nextGaussian() * range / 200 * (1 + c % 3);
+                data[1][i] = centerYs[c] + r.nextGaussian() * range / 200 * (1 + c % 3);
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,138 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+public class ExpiringKDTreeIntTest {
+
+    @Test
+    public void speedTestIngest() {
+        Random r = new Random(1);
+        ExpiringKDTreeInt<Void> index = new ExpiringKDTreeInt<Void>(0, 0, 99999, 99999, 60000, 5000);
+        // 1000 points a second for 10 minutes, with a minute to live.
+        long start = System.nanoTime();
+        for (int i = 0; i < 600000; i++) {
+            index.add(r.nextInt(100000), r.nextInt(100000), null, i);
+        }
+        System.out.println("Sum " + index.size() + " Time " + (System.nanoTime() - start) / 600000 + " for adding points.");
+        for (boolean merged : new boolean[] { false, true }) {
+            if (merged) {
+                index.merge();
+            }
+            start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 100000; i++) {
+                sum += index.findNearest(r.nextInt(100000), r.nextInt(100000), Integer.MAX_VALUE).getX();
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / 100000 + " for lookups in " + index.getBucketCount() + " buckets"
+                    + (merged ? " merged." : "."));
+        }
+    }
+
+    @Test
+    public void testConcurrentMerge() throws Exception {
+        Random r = new Random();
+        ExpiringKDTreeInt<Integer> index = new ExpiringKDTreeInt<Integer>(0, 0, 99999, 99999, 20000, 1000);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledFuture<?> merging = index.scheduleMerging(executor, 1, TimeUnit.MILLISECONDS);
+        List<Point<Integer>> added = new ArrayList<Point<Integer>>();
+        List<Long> times = new ArrayList<Long>();
+        for (int i = 0; i < 100000; i++) {
+            added.add(new Point<Integer>(r.nextInt(100000), r.nextInt(100000), i));
+            times.add((long) i);
+            index.add(added.get(i).getX(), added.get(i).getY(), i, i);
+        }
+        merging.cancel(false);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        check(index, added, times, 99999, 20000, 1000, r);
+    }
+
+    @Test
+    public void testExpiry() {
+        Random r = new Random();
+        ExpiringKDTreeInt<Integer> index = new ExpiringKDTreeInt<Integer>(0, 0, 99999, 99999, 1000, 100);
+        List<Point<Integer>> added = new ArrayList<Point<Integer>>();
+        List<Long> times = new ArrayList<Long>();
+        long now = -3000;
+        for (int i = 0; i < 20000; i++) {
+            // Mostly increasing times, some late and some already expired.
+            long time = now - (r.nextInt(10) == 0 ? r.nextInt(1500) : 0);
+            Point<Integer> p = new Point<Integer>(r.nextInt(100000), r.nextInt(100000), added.size());
+            if (index.add(p.getX(), p.getY(), added.size(), time)) {
+                added.add(p);
+                times.add(time);
+            } else {
+                Assert.assertTrue(time < now - 1000);
+            }
+            now += r.nextInt(3);
+            if (i % 1000 == 999) {
+                index.expire(now);
+                check(index, added, times, now, 1000, 100, r);
+                if (i % 3000 == 2999) {
+                    index.merge();
+                    check(index, added, times, now, 1000, 100, r);
+                }
+            }
+        }
+        index.expire(now + 2000);
+        Assert.assertEquals(0, index.size());
+        Assert.assertEquals(0, index.getBucketCount());
+        Assert.assertNull(index.findNearest(0, 0, Integer.MAX_VALUE));
+    }
+
+    private void check(ExpiringKDTreeInt<Integer> index, List<Point<Integer>> added, List<Long> times, long now, long timeToLive, long bucketSpan, Random r) {
+        // Live points are the ones in buckets that end after the expiry time.
+        List<Point<Integer>> live = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < added.size(); i++) {
+            long time = times.get(i);
+            long end = time - (time % bucketSpan + bucketSpan) % bucketSpan + bucketSpan;
+            if (end > now - timeToLive) {
+                live.add(added.get(i));
+            }
+            if (time >= now - timeToLive) {
+                Assert.assertTrue(end > now - timeToLive);
+            }
+        }
+        Assert.assertEquals(live.size(), index.size());
+        for (int i = 0; i < 100; i++) {
+            int x = r.nextInt(100000), y = r.nextInt(100000);
+            List<Long> expected = new ArrayList<Long>();
+            for (Point<Integer> p : live) {
+                long dx = p.getX() - x, dy = p.getY() - y;
+                if (dx * dx + dy * dy <= 10000L * 10000) {
+                    expected.add(dx * dx + dy * dy);
+                }
+            }
+            Collections.sort(expected);
+            Iterator<Point<Integer>> iter = index.findNearest(x, y, 10000, 10).iterator();
+            for (long distance : expected.subList(0, Math.min(10, expected.size()))) {
+                Point<Integer> p = iter.next();
+                long dx = p.getX() - x, dy = p.getY() - y;
+                Assert.assertEquals(distance, dx * dx + dy * dy);
+                // The value is of the point with these coordinates.
+                Assert.assertEquals(p.getX(), added.get(p.getValue()).getX());
+            }
+            Assert.assertFalse(iter.hasNext());
+            Point<Integer> nearest = index.findNearest(x, y, 10000);
+            if (expected.isEmpty()) {
+                Assert.assertNull(nearest);
+            } else {
+                long dx = nearest.getX() - x, dy = nearest.getY() - y;
+                Assert.assertEquals(expected.get(0).longValue(), dx * dx + dy * dy);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeInt.Point;
+
+public class GridIndexIntTest {
+
+    @Test
+    public void speedTestRandom() {
+        GridIndexInt<Void> k = new GridIndexInt<Void>(generateRandomPoints(40000, 1000000), 0, 0, 1000000, 1000000);
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 1000000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (Point<Void> p : checkPoints) {
+                sum += k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE).getX();
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()));
+    }
+
+    @Test
+    public void testEmpty() {
+        GridIndexInt<Void> k = new GridIndexInt<Void>(new ArrayList<Point<Void>>(), 0, 0, 10, 10);
+        Assert.assertEquals(null, k.findNearest(1, 1, Integer.MAX_VALUE));
+        Assert.assertEquals(false, k.findNearestWithWrapping(1, 1, Integer.MAX_VALUE, 3, Wrapping.XY).iterator().hasNext());
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        GridIndexInt<Void> k = new GridIndexInt<Void>(datasetPoints, 0, 0, 100000, 100000);
+        for (Point<Void> p : checkPoints) {
+            List<Long> expected = new ArrayList<Long>();
+            for (Point<Void> d : datasetPoints) {
+                expected.add(distance(p.getX(), p.getY(), d));
+            }
+            java.util.Collections.sort(expected);
+            Iterator<Point<Void>> iter = k.findNearest(p.getX(), p.getY(), 20000, 5).iterator();
+            for (int i = 0; i < 5 && expected.get(i) <= 20000L * 20000L; i++) {
+                Assert.assertEquals(expected.get(i).longValue(), distance(p.getX(), p.getY(), iter.next()));
+            }
+            Assert.assertEquals(false, iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
+        List<Point<Void>> checkPoints = generateRandomPoints(10000, 100000);
+        // Points outside of the area are also queried.
+        checkPoints.add(new Point<Void>(-500000, 500000, null));
+        GridIndexInt<Void> k = new GridIndexInt<Void>(datasetPoints, 0, 0, 100000, 100000);
+        for (Point<Void> p : checkPoints) {
+            long minDist = Long.MAX_VALUE;
+            for (Point<Void> d : datasetPoints) {
+                minDist = Math.min(minDist, distance(p.getX(), p.getY(), d));
+            }
+            Assert.assertEquals(minDist, distance(p.getX(), p.getY(), k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void testWrapping() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        GridIndexInt<Void> k = new GridIndexInt<Void>(datasetPoints, 0, 0, 99999, 99999);
+        KDTreeInt<Void> tree = new KDTreeInt<Void>(new ArrayList<Point<Void>>(datasetPoints), 0, 0, 99999, 99999);
+        for (Wrapping wrapping : Wrapping.values()) {
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> expected = tree.findNearestWithWrapping(p.getX(), p.getY(), 30000, 5, wrapping).iterator();
+                Iterator<Point<Void>> found = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, 5, wrapping).iterator();
+                while (expected.hasNext()) {
+                    Assert.assertEquals(wrappedDistance(p, expected.next(), wrapping), wrappedDistance(p, found.next(), wrapping));
+                }
+                Assert.assertEquals(false, found.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void testWrappingAcrossBorder() {
+        // The point at the far border is closer across the wrap than the points next to the query.
+        List<Point<Void>> points = new ArrayList<Point<Void>>();
+        for (int i = 0; i < 7; i++) {
+            points.add(new Point<Void>(260, 0, null));
+        }
+        points.add(new Point<Void>(399, 0, null));
+        GridIndexInt<Void> k = new GridIndexInt<Void>(points, 0, 0, 399, 1);
+        KDTreeInt<Void> tree = new KDTreeInt<Void>(new ArrayList<Point<Void>>(points), 0, 0, 399, 1);
+        Assert.assertSame(points.get(7), tree.findNearestWithWrapping(110, 0, 1000, Wrapping.X));
+        Assert.assertSame(points.get(7), k.findNearestWithWrapping(110, 0, 1000, Wrapping.X));
+        Assert.assertSame(points.get(7), k.findNearestWithWrapping(110, 0, 1000, 1, Wrapping.XY).iterator().next());
+    }
+
+    private long distance(int x, int y, Point<Void> p) {
+        long dx = p.getX() - x;
+        long dy = p.getY() - y;
+        return dx * dx + dy * dy;
+    }
+
+    private List<Point<Void>> generateRandomPoints(int number, int range) {
+        Random r = new Random();
+        List<Point<Void>> l = new ArrayList<KDTreeInt.Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            l.add(new Point<Void>(r.nextInt(range), r.nextInt(range), null));
+        }
+        return l;
+    }
+
+    private long wrappedDistance(Point<Void> q, Point<Void> p, Wrapping wrapping) {
+        long dx = Math.abs(p.getX() - q.getX());
+        long dy = Math.abs(p.getY() - q.getY());
+        if (wrapping != Wrapping.Y) {
+            dx = Math.min(dx, 100000 - dx);
+        }
+        if (wrapping != Wrapping.X) {
+            dy = Math.min(dy, 100000 - dy);
+        }
+        return dx * dx + dy * dy;
+    }
+}
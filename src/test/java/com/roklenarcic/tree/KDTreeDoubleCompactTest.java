@@ -0,0 +1,147 @@
+package com.roklenarcic.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KDTreeDoubleCompactTest {
+
+    @Test
+    public void speedTest() {
+        Random r = new Random(1);
+        int n = 1000000;
+        ArraySource source = new ArraySource(n);
+        for (int i = 0; i < n; i++) {
+            source.xs[i] = r.nextDouble() * 1000000;
+            source.ys[i] = r.nextDouble() * 1000000;
+        }
+        long start = System.nanoTime();
+        KDTreeDoubleCompact tree = new KDTreeDoubleCompact(source, n);
+        System.out.println("Sum " + tree.size() + " Time " + (System.nanoTime() - start) + " for build.");
+        start = System.nanoTime();
+        long sum = 0;
+        source.reads = 0;
+        for (int i = 0; i < 100000; i++) {
+            sum += tree.findNearest(r.nextDouble() * 1000000, r.nextDouble() * 1000000, Double.POSITIVE_INFINITY);
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / 100000 + " for lookups with " + source.reads / 100000
+                + " reads of the source per lookup.");
+    }
+
+    @Test
+    public void testEmptyAndSingle() {
+        ArraySource source = new ArraySource(1);
+        Assert.assertEquals(-1, new KDTreeDoubleCompact(source, 0).findNearest(0, 0, Double.POSITIVE_INFINITY));
+        Assert.assertEquals(0, new KDTreeDoubleCompact(source, 0).findNearest(0, 0, Double.POSITIVE_INFINITY, 3).length);
+        source.xs[0] = 5;
+        source.ys[0] = -5;
+        KDTreeDoubleCompact tree = new KDTreeDoubleCompact(source, 1);
+        Assert.assertEquals(0, tree.findNearest(0, 0, 10));
+        Assert.assertEquals(-1, tree.findNearest(0, 0, 7));
+        Assert.assertEquals(0, tree.findNearest(0, 0, 10, 0).length);
+        Assert.assertEquals(0, tree.findNearest(0, 0, 10, -1).length);
+        source.xs[0] = Double.NaN;
+        try {
+            new KDTreeDoubleCompact(source, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testFewReads() {
+        Random r = new Random();
+        int n = 100000;
+        ArraySource source = new ArraySource(n);
+        for (int i = 0; i < n; i++) {
+            source.xs[i] = r.nextDouble() * 1000;
+            source.ys[i] = r.nextDouble() * 1000;
+        }
+        KDTreeDoubleCompact tree = new KDTreeDoubleCompact(source, n);
+        source.reads = 0;
+        for (int i = 0; i < 1000; i++) {
+            tree.findNearest(r.nextDouble() * 1000, r.nextDouble() * 1000, Double.POSITIVE_INFINITY);
+        }
+        // Offsets tell most of the points apart, the source is read for a few of them.
+        Assert.assertTrue("Reads " + source.reads, source.reads < 1000 * 2 * 10);
+    }
+
+    @Test
+    public void testNearest() {
+        Random r = new Random();
+        for (int round = 0; round < 20; round++) {
+            int n = r.nextInt(5000);
+            ArraySource source = new ArraySource(n);
+            // Spread points, clustered points, duplicates and points far from the origin in a small area.
+            double scale = round % 4 == 0 ? 1E-6 : 1000;
+            double base = round % 4 == 0 ? 1E6 : 0;
+            for (int i = 0; i < n; i++) {
+                if (i > 0 && round % 3 == 0 && r.nextBoolean()) {
+                    int j = r.nextInt(i);
+                    source.xs[i] = source.xs[j];
+                    source.ys[i] = source.ys[j];
+                } else if (round % 2 == 0) {
+                    source.xs[i] = base + r.nextGaussian() * scale / 50 + (i % 5) * scale / 5;
+                    source.ys[i] = base + r.nextGaussian() * scale / 50;
+                } else {
+                    source.xs[i] = base + r.nextDouble() * scale;
+                    source.ys[i] = base + r.nextDouble() * scale;
+                }
+            }
+            KDTreeDoubleCompact tree = new KDTreeDoubleCompact(source, n);
+            Assert.assertEquals(n, tree.size());
+            for (int i = 0; i < 200; i++) {
+                double x = base + r.nextDouble() * scale, y = base + r.nextDouble() * scale;
+                double maxDistance = r.nextBoolean() ? scale / 20 : Double.POSITIVE_INFINITY;
+                double[] expected = new double[n];
+                int count = 0;
+                for (int j = 0; j < n; j++) {
+                    double d = source.distance(j, x, y);
+                    if (d <= maxDistance * maxDistance) {
+                        expected[count++] = d;
+                    }
+                }
+                Arrays.sort(expected, 0, count);
+                int[] nearest = tree.findNearest(x, y, maxDistance, 10);
+                Assert.assertEquals(Math.min(10, count), nearest.length);
+                for (int j = 0; j < nearest.length; j++) {
+                    Assert.assertEquals(expected[j], source.distance(nearest[j], x, y), 0);
+                }
+                int closest = tree.findNearest(x, y, maxDistance);
+                if (count == 0) {
+                    Assert.assertEquals(-1, closest);
+                } else {
+                    Assert.assertEquals(expected[0], source.distance(closest, x, y), 0);
+                }
+            }
+        }
+    }
+
+    private static class ArraySource implements CoordinateSource {
+
+        private long reads;
+        private final double[] xs;
+        private final double[] ys;
+
+        private ArraySource(int size) {
+            this.xs = new double[size];
+            this.ys = new double[size];
+        }
+
+        public double getX(int index) {
+            reads++;
+            return xs[index];
+        }
+
+        public double getY(int index) {
+            return ys[index];
+        }
+
+        private double distance(int index, double x, double y) {
+            double dx = xs[index] - x, dy = ys[index] - y;
+            return dx * dx + dy * dy;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.roklenarcic.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KDTreeDoubleIdsTest {
+
+    @Test
+    public void speedTestRandom() {
+        double[][] data = generateRandomPoints(40000, 1000000);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(data[0], data[1], indexes(data[0].length), 0, 0, 1000000, 1000000);
+        double[][] checkPoints = generateRandomPoints(1000, 1000000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < checkPoints[0].length; j++) {
+                sum += k.findNearest(checkPoints[0][j], checkPoints[1][j], Integer.MAX_VALUE);
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints[0].length));
+    }
+
+    @Test
+    public void speedTestNeighbourGraph() {
+        double[][] data = generateRandomPoints(200000, 1000000);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(data[0], data[1], 0, 0, 1000000, 1000000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < data[0].length; i++) {
+            int[] nearest = k.findNearest(data[0][i], data[1][i], Double.POSITIVE_INFINITY, 11);
+            for (int j = 0; j < nearest.length; j++) {
+                sum += nearest[j] == i ? 0 : nearest[j];
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / data[0].length + " for a query of every point.");
+        start = System.nanoTime();
+        sum = 0;
+        for (int neighbour : k.nearestNeighbours(10).getNeighbours()) {
+            sum += neighbour;
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / data[0].length + " for the neighbour graph.");
+    }
+
+    @Test
+    public void testCurveOrder() {
+        double[][] data = generateRandomPoints(300, 100000);
+        PointStoreDouble store = new PointStoreDouble(data[0], data[1], null, true);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(store, 0, 0, 100000, 100000);
+        for (int i = 0; i < store.size(); i++) {
+            int id = store.getId(i);
+            Assert.assertEquals(data[0][id], store.getX(i), 0);
+            Assert.assertEquals(data[1][id], store.getY(i), 0);
+        }
+        double[][] checkPoints = generateRandomPoints(1000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            double minDist = Double.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Double.MAX_VALUE)), 0);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KDTreeDoubleIds k = new KDTreeDoubleIds(new double[0], new double[0], new int[0], 0, 0, 10, 10);
+        Assert.assertEquals(-1, k.findNearest(1, 1, Integer.MAX_VALUE));
+        Assert.assertEquals(0, k.findNearest(1, 1, Integer.MAX_VALUE, 3).length);
+        k = new KDTreeDoubleIds(new double[] { 1 }, new double[] { 1 }, 0, 0, 10, 10);
+        Assert.assertEquals(0, k.findNearest(1, 1, Integer.MAX_VALUE, 0).length);
+        Assert.assertEquals(0, k.findNearest(1, 1, Integer.MAX_VALUE, -1).length);
+    }
+
+    @Test
+    public void testInPlace() {
+        double[][] data = generateRandomPoints(300, 100000);
+        double[] xs = data[0].clone(), ys = data[1].clone();
+        KDTreeDoubleIds k = KDTreeDoubleIds.buildInPlace(xs, ys, null, 0, 0, 100000, 100000);
+        KDTreeDoubleIds copied = new KDTreeDoubleIds(data[0], data[1], 0, 0, 100000, 100000);
+        double[][] checkPoints = generateRandomPoints(1000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            Assert.assertEquals(distance(x, y, data, copied.findNearest(x, y, Integer.MAX_VALUE)),
+                    distance(x, y, data, k.findNearest(x, y, Integer.MAX_VALUE)), 0);
+        }
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        double[][] data = generateRandomPoints(300, 100000);
+        double[][] checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(data[0], data[1], indexes(data[0].length), 0, 0, 100000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            double[] expected = new double[data[0].length];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = distance(x, y, data, i);
+            }
+            Arrays.sort(expected);
+            int[] found = k.findNearest(x, y, 20000, 5);
+            int expectedCount = 0;
+            while (expectedCount < 5 && expected[expectedCount] <= 20000.0 * 20000.0) {
+                expectedCount++;
+            }
+            Assert.assertEquals(expectedCount, found.length);
+            for (int i = 0; i < found.length; i++) {
+                Assert.assertEquals(expected[i], distance(x, y, data, found[i]), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        double[][] data = generateRandomPoints(300, 100000);
+        double[][] checkPoints = generateRandomPoints(10000, 100000);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(data[0], data[1], indexes(data[0].length), 0, 0, 100000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            double minDist = Double.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Integer.MAX_VALUE)), 0);
+        }
+    }
+
+    @Test
+    public void testSharedStore() {
+        double[][] data = generateRandomPoints(300, 100000);
+        int[] ids = indexes(300);
+        PointStoreDouble store = new PointStoreDouble(data[0], data[1], ids);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(store, 0, 0, 100000, 100000);
+        KDTreeDoubleIds other = new KDTreeDoubleIds(store, -100000, -100000, 200000, 200000);
+        double[][] checkPoints = generateRandomPoints(1000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double x = checkPoints[0][j], y = checkPoints[1][j];
+            double minDist = Double.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Double.MAX_VALUE)), 0);
+            Assert.assertEquals(minDist, distance(x, y, data, other.findNearest(x, y, Double.MAX_VALUE)), 0);
+        }
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(data[0][i], store.getX(i), 0);
+            Assert.assertEquals(data[1][i], store.getY(i), 0);
+            Assert.assertEquals(i, store.getId(i));
+        }
+    }
+
+    @Test
+    public void testNeighbourGraph() {
+        Random r = new Random();
+        for (int round = 0; round < 10; round++) {
+            double[][] data = generateRandomPoints(r.nextInt(3000), 1000);
+            // Some duplicates, which are neighbours of each other but not of themselves.
+            for (int i = 1; i < data[0].length; i += 7) {
+                data[0][i] = data[0][i - 1];
+                data[1][i] = data[1][i - 1];
+            }
+            int numberOfNearest = round == 0 ? 0 : r.nextInt(40) + 1;
+            PointStoreDouble store = new PointStoreDouble(data[0], data[1], null, false);
+            KDTreeDoubleIds k = round % 2 == 0 ? new KDTreeDoubleIds(data[0], data[1], 0, 0, 1000, 1000) : new KDTreeDoubleIds(store, 0, 0, 1000, 1000);
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            NeighbourGraph graph = k.nearestNeighbours(numberOfNearest, executor);
+            executor.shutdown();
+            Assert.assertEquals(numberOfNearest, graph.getNumberOfNearest());
+            int[] rowIds = graph.getIds().clone();
+            Arrays.sort(rowIds);
+            Assert.assertArrayEquals(indexes(data[0].length), rowIds);
+            for (int row = 0; row < data[0].length; row++) {
+                int id = graph.getIds()[row];
+                double[] expected = new double[data[0].length - 1];
+                for (int i = 0, j = 0; i < data[0].length; i++) {
+                    if (i != id) {
+                        expected[j++] = distance(data[0][id], data[1][id], data, i);
+                    }
+                }
+                Arrays.sort(expected);
+                for (int i = 0; i < numberOfNearest; i++) {
+                    int neighbour = graph.getNeighbours()[row * numberOfNearest + i];
+                    double d = graph.getDistances()[row * numberOfNearest + i];
+                    if (i < expected.length) {
+                        Assert.assertTrue(neighbour != id);
+                        Assert.assertEquals(expected[i], distance(data[0][id], data[1][id], data, neighbour), 0);
+                        Assert.assertEquals(Math.sqrt(expected[i]), d, 0);
+                    } else {
+                        Assert.assertEquals(-1, neighbour);
+                        Assert.assertEquals(Double.POSITIVE_INFINITY, d, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSmallMaxDistance() {
+        double[][] data = generateRandomPoints(300, 100000);
+        KDTreeDoubleIds k = new KDTreeDoubleIds(data[0], data[1], indexes(data[0].length), 0, 0, 100000, 100000);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(0, distance(data[0][i], data[1][i], data, k.findNearest(data[0][i], data[1][i], 0)), 0);
+        }
+        Assert.assertEquals(-1, k.findNearest(-10, -10, 1));
+    }
+
+    private double distance(double x, double y, double[][] data, int id) {
+        double dx = data[0][id] - x;
+        double dy = data[1][id] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private double[][] generateRandomPoints(int number, int range) {
+        Random r = new Random();
+        double[][] data = new double[2][number];
+        for (int i = 0; i < number; i++) {
+            data[0][i] = r.nextDouble() * range;
+            data[1][i] = r.nextDouble() * range;
+        }
+        return data;
+    }
+
+    private int[] indexes(int number) {
+        int[] ids = new int[number];
+        for (int i = 0; i < number; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+}
@@ -2,8 +2,10 @@ package com.roklenarcic.tree;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.junit.Assert;
@@ -55,6 +57,74 @@ public class KDTreeDoubleTest {
         System.out.println("Sum " + sum + " Time with wrapping " + (System.nanoTime() - start) / (100 * checkPoints.size()));
     }
 
+    @Test
+    public void speedTestSplitStrategies() {
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 100000);
+        for (SplitStrategy strategy : SplitStrategy.values()) {
+            KDTreeDouble<Void> k = new KDTreeDouble<Void>(generateClusteredPoints(40000, new Random(1)), 0, 0, 99999, 99999, strategy);
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 100; i++) {
+                for (Point<Void> p : checkPoints) {
+                    sum += k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE).getX();
+                }
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()) + " for clustered points split by " + strategy + ".");
+        }
+    }
+
+    @Test
+    public void testAggregates() {
+        Random r = new Random(1);
+        List<Point<Integer>> datasetPoints = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            datasetPoints.add(new Point<Integer>(r.nextDouble() * 99999, r.nextDouble() * 99999, r.nextInt(10)));
+        }
+        // Building a tree changes the points, so every tree gets its own.
+        List<Point<Integer>> copy = new ArrayList<Point<Integer>>();
+        for (Point<Integer> p : datasetPoints) {
+            copy.add(new Point<Integer>(p.getX(), p.getY(), p.getValue()));
+        }
+        KDTreeDouble<Integer> k = new KDTreeDouble<Integer>(datasetPoints, 0, 0, 99999, 99999, new ValueExtractor<Integer>() {
+            public double extract(Integer value) {
+                return value;
+            }
+        });
+        KDTreeDouble<Integer> unweighted = new KDTreeDouble<Integer>(copy, 0, 0, 99999, 99999);
+        for (int i = 0; i < 500; i++) {
+            double x = r.nextDouble() * 100000, y = r.nextDouble() * 100000, distance = r.nextDouble() * 100000 / 5;
+            double xMin = r.nextDouble() * 100000, yMin = r.nextDouble() * 100000;
+            double xMax = xMin + r.nextDouble() * 100000 / 3, yMax = yMin + r.nextDouble() * 100000 / 3;
+            int within = 0, inRectangle = 0;
+            double sumWithin = 0, sumInRectangle = 0;
+            for (Point<Integer> p : datasetPoints) {
+                double dx = p.getX() - x, dy = p.getY() - y;
+                if (dx * dx + dy * dy <= distance * distance) {
+                    within++;
+                    sumWithin += p.getValue();
+                }
+                if (p.getX() >= xMin && p.getX() <= xMax && p.getY() >= yMin && p.getY() <= yMax) {
+                    inRectangle++;
+                    sumInRectangle += p.getValue();
+                }
+            }
+            Assert.assertEquals(within, k.countWithin(x, y, distance));
+            Assert.assertEquals(sumWithin, k.sumWithin(x, y, distance), 0);
+            Assert.assertEquals(within, unweighted.sumWithin(x, y, distance), 0);
+            double sumFound = 0;
+            for (Point<Integer> p : k.findWithin(x, y, distance)) {
+                double dx = p.getX() - x, dy = p.getY() - y;
+                Assert.assertTrue(dx * dx + dy * dy <= distance * distance);
+                sumFound += p.getValue();
+            }
+            Assert.assertEquals(within, k.findWithin(x, y, distance).size());
+            Assert.assertEquals(sumWithin, sumFound, 0);
+            Assert.assertEquals(inRectangle, k.countInRectangle(xMin, yMin, xMax, yMax));
+            Assert.assertEquals(sumInRectangle, k.sumInRectangle(xMin, yMin, xMax, yMax), 0);
+        }
+        Assert.assertEquals(3000, k.countInRectangle(0, 0, 99999, 99999));
+    }
+
     @Test
     public void testBalancing() {
         List<Point<Void>> datasetPoints = generateRandomPoints1D(300, 100000);
@@ -65,6 +135,99 @@ public class KDTreeDoubleTest {
         }
     }
 
+    @Test
+    public void testCollapseDuplicates() {
+        // Many points at few locations, and a query at every location.
+        Random r = new Random(1);
+        List<Point<Void>> locations = generateRandomPoints(200, 99999);
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        for (int i = 0; i < 3000; i++) {
+            Point<Void> location = locations.get(r.nextInt(locations.size()));
+            datasetPoints.add(new Point<Void>(location.getX(), location.getY(), null));
+        }
+        KDTreeDouble<Void> k = new KDTreeDouble<Void>(new ArrayList<Point<Void>>(datasetPoints), 0, 0, 99999, 99999, null, SplitStrategy.MEDIAN, true);
+        List<Point<Void>> checkPoints = generateRandomPoints(200, 100000);
+        checkPoints.addAll(locations);
+        for (Point<Void> p : checkPoints) {
+            confirm(p.getX(), p.getY(), k.findNearest(p.getX(), p.getY(), 100000), datasetPoints, 100000);
+            List<Double> expected = new ArrayList<Double>();
+            for (Point<Void> d : datasetPoints) {
+                double dx = d.getX() - p.getX(), dy = d.getY() - p.getY();
+                if (dx * dx + dy * dy <= 20000L * 20000) {
+                    expected.add(dx * dx + dy * dy);
+                }
+            }
+            Collections.sort(expected);
+            Iterable<Point<Void>> nearest = k.findNearest(p.getX(), p.getY(), 20000, 30);
+            Iterator<Point<Void>> iter = nearest.iterator();
+            for (Double distance : expected.subList(0, Math.min(30, expected.size()))) {
+                Point<Void> n = iter.next();
+                double dx = n.getX() - p.getX(), dy = n.getY() - p.getY();
+                Assert.assertEquals(distance, dx * dx + dy * dy, 0);
+            }
+            Assert.assertEquals(false, iter.hasNext());
+            Iterable<Point<Void>> wrapped = k.findNearestWithWrapping(p.getX(), p.getY(), 20000, 30, Wrapping.XY);
+            iter = wrapped.iterator();
+            for (Double distance : getClosestWrapped(p.getX(), p.getY(), datasetPoints, 20000, 30, Wrapping.XY)) {
+                Assert.assertEquals(distance, wrappedDistance(p.getX(), p.getY(), iter.next(), Wrapping.XY), 0);
+            }
+            Assert.assertEquals(false, iter.hasNext());
+            // Every point of a group is returned once.
+            assertDistinct(nearest);
+            assertDistinct(wrapped);
+            int within = 0, inRectangle = 0;
+            for (Point<Void> d : datasetPoints) {
+                double dx = d.getX() - p.getX(), dy = d.getY() - p.getY();
+                if (dx * dx + dy * dy <= 10000L * 10000) {
+                    within++;
+                }
+                if (d.getX() >= p.getX() && d.getX() <= p.getX() + 20000 && d.getY() >= p.getY() - 20000 && d.getY() <= p.getY()) {
+                    inRectangle++;
+                }
+            }
+            Assert.assertEquals(within, k.countWithin(p.getX(), p.getY(), 10000));
+            // Every point of a group is found once.
+            Map<Point<Void>, Boolean> found = new IdentityHashMap<Point<Void>, Boolean>();
+            for (Point<Void> n : k.findWithin(p.getX(), p.getY(), 10000)) {
+                Assert.assertNull(found.put(n, true));
+            }
+            Assert.assertEquals(within, found.size());
+            Assert.assertEquals(inRectangle, k.countInRectangle(p.getX(), p.getY() - 20000, p.getX() + 20000, p.getY()));
+        }
+        Assert.assertEquals(3000, k.countInRectangle(0, 0, 99999, 99999));
+    }
+
+    @Test
+    public void testMetrics() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 99999);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeDouble<Void> k = new KDTreeDouble<Void>(datasetPoints, 0, 0, 99999, 99999);
+        for (Metric metric : Metric.values()) {
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> iter = k.findNearest(p.getX(), p.getY(), 10000, 5, metric).iterator();
+                List<Double> expected = new ArrayList<Double>();
+                for (Point<Void> d : datasetPoints) {
+                    double dist = metricDistance(p.getX(), p.getY(), d, metric);
+                    if (dist <= (metric == Metric.EUCLIDEAN ? 10000L * 10000 : 10000)) {
+                        expected.add(dist);
+                    }
+                }
+                Collections.sort(expected);
+                expected = expected.subList(0, Math.min(5, expected.size()));
+                for (double distance : expected) {
+                    Assert.assertEquals(distance, metricDistance(p.getX(), p.getY(), iter.next(), metric), 0);
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> nearest = k.findNearest(p.getX(), p.getY(), 10000, metric);
+                if (expected.isEmpty()) {
+                    Assert.assertEquals(null, nearest);
+                } else {
+                    Assert.assertEquals(expected.get(0), metricDistance(p.getX(), p.getY(), nearest, metric), 0);
+                }
+            }
+        }
+    }
+
     @Test
     public void testRandom() {
         List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
@@ -85,6 +248,78 @@ public class KDTreeDoubleTest {
         }
     }
 
+    @Test
+    public void testWeighted() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 99999);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeDouble<Void> k = new KDTreeDouble<Void>(datasetPoints, 0, 0, 99999, 99999);
+        for (double[] weights : new double[][] { { 1, 1 }, { 3, 0.5 }, { 0.01, 20 }, { 0, 1 } }) {
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> iter = k.findNearestWeighted(p.getX(), p.getY(), 10000, 5, weights[0], weights[1]).iterator();
+                List<Double> expected = new ArrayList<Double>();
+                for (Point<Void> d : datasetPoints) {
+                    double dist = weightedDistance(p.getX(), p.getY(), d, weights);
+                    if (dist <= 10000.0 * 10000) {
+                        expected.add(dist);
+                    }
+                }
+                Collections.sort(expected);
+                expected = expected.subList(0, Math.min(5, expected.size()));
+                for (double distance : expected) {
+                    Assert.assertEquals(distance, weightedDistance(p.getX(), p.getY(), iter.next(), weights), 0);
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> nearest = k.findNearestWeighted(p.getX(), p.getY(), 10000, weights[0], weights[1]);
+                if (expected.isEmpty()) {
+                    Assert.assertEquals(null, nearest);
+                } else {
+                    Assert.assertEquals(expected.get(0), weightedDistance(p.getX(), p.getY(), nearest, weights), 0);
+                }
+            }
+        }
+        try {
+            k.findNearestWeighted(0, 0, 10, -1, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testSplitStrategies() {
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 100000);
+        for (SplitStrategy strategy : SplitStrategy.values()) {
+            // Clustered points with many equal coordinates, and one far away point.
+            List<Point<Void>> datasetPoints = generateClusteredPoints(1000, new Random());
+            datasetPoints.add(new Point<Void>(99999, 0, null));
+            KDTreeDouble<Void> k = new KDTreeDouble<Void>(datasetPoints, 0, 0, 99999, 99999, strategy);
+            for (Point<Void> p : checkPoints) {
+                confirm(p.getX(), p.getY(), k.findNearest(p.getX(), p.getY(), 100000), datasetPoints, 100000);
+                Iterator<Point<Void>> iter = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, 5, Wrapping.XY).iterator();
+                for (Double distance : getClosestWrapped(p.getX(), p.getY(), datasetPoints, 30000, 5, Wrapping.XY)) {
+                    Assert.assertEquals(distance, wrappedDistance(p.getX(), p.getY(), iter.next(), Wrapping.XY), 0);
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> manhattan = k.findNearest(p.getX(), p.getY(), 10000, Metric.MANHATTAN);
+                double minDistance = 10000;
+                for (Point<Void> d : datasetPoints) {
+                    minDistance = Math.min(minDistance, metricDistance(p.getX(), p.getY(), d, Metric.MANHATTAN));
+                }
+                Assert.assertEquals(minDistance, manhattan == null ? 10000 : metricDistance(p.getX(), p.getY(), manhattan, Metric.MANHATTAN), 0);
+                int within = 0, inRectangle = 0;
+                for (Point<Void> d : datasetPoints) {
+                    if (metricDistance(p.getX(), p.getY(), d, Metric.EUCLIDEAN) <= 5000L * 5000) {
+                        within++;
+                    }
+                    if (d.getX() >= p.getX() && d.getX() <= p.getX() + 20000 && d.getY() >= p.getY() - 5000 && d.getY() <= p.getY()) {
+                        inRectangle++;
+                    }
+                }
+                Assert.assertEquals(within, k.countWithin(p.getX(), p.getY(), 5000));
+                Assert.assertEquals(inRectangle, k.countInRectangle(p.getX(), p.getY() - 5000, p.getX() + 20000, p.getY()));
+            }
+        }
+    }
+
     @Test
     public void testWrapping() {
         List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
@@ -111,6 +346,51 @@ public class KDTreeDoubleTest {
         Assert.assertEquals(Collections.EMPTY_LIST, k.findNearestWithWrapping(1, 0, 1, 3));
     }
 
+    @Test
+    public void testWrappingTorus() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 99999);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeDouble<Void> k = new KDTreeDouble<Void>(datasetPoints, 0, 0, 99999, 99999);
+        for (Wrapping wrapping : Wrapping.values()) {
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> iter = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, 5, wrapping).iterator();
+                List<Double> expected = getClosestWrapped(p.getX(), p.getY(), datasetPoints, 30000, 5, wrapping);
+                for (double distance : expected) {
+                    Assert.assertEquals(distance, wrappedDistance(p.getX(), p.getY(), iter.next(), wrapping), 0);
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> nearest = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, wrapping);
+                if (expected.isEmpty()) {
+                    Assert.assertEquals(null, nearest);
+                } else {
+                    Assert.assertEquals(expected.get(0), wrappedDistance(p.getX(), p.getY(), nearest, wrapping), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWrappingY() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(0, 1000000, null));
+        datasetPoints.add(new Point<Void>(1000000, 0, null));
+        KDTreeDouble<Void> k = new KDTreeDouble<Void>(datasetPoints, 0, 0, 1000000, 1000000);
+        Assert.assertTrue(1000000 == k.findNearestWithWrapping(0, 1, 2, Wrapping.Y).getY());
+        Assert.assertTrue(0 == k.findNearestWithWrapping(1, 0, 2, Wrapping.Y).getX());
+        Assert.assertTrue(1000000 == k.findNearestWithWrapping(1, 0, 2, Wrapping.X).getX());
+        // Both points are found across the opposite borders, each of them only once.
+        Iterator<Point<Void>> iter = k.findNearestWithWrapping(1, 1, 3, 3, Wrapping.XY).iterator();
+        Assert.assertTrue(iter.next() != iter.next());
+        Assert.assertEquals(false, iter.hasNext());
+    }
+
+    private void assertDistinct(Iterable<Point<Void>> points) {
+        Map<Point<Void>, Boolean> returned = new IdentityHashMap<Point<Void>, Boolean>();
+        for (Point<Void> n : points) {
+            Assert.assertNull(returned.put(n, true));
+        }
+    }
+
     private void confirm(double x, double y, Point<Void> calculatedPoint, List<Point<Void>> datasetPoints, int maxDistance) {
         Point<Void> minPoint = getClosest(x, y, datasetPoints, maxDistance);
         if (calculatedPoint != null) {
@@ -127,6 +407,18 @@ public class KDTreeDoubleTest {
         }
     }
 
+    private List<Point<Void>> generateClusteredPoints(int number, Random r) {
+        // Points around a few centers, on a grid of 10, so many are equal.
+        List<Point<Void>> l = new ArrayList<Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            Random center = new Random(i % 20);
+            double x = Math.max(0, Math.min(99999, (center.nextInt(100000) + Math.round(r.nextGaussian() * 300) / 10 * 10)));
+            double y = Math.max(0, Math.min(99999, (center.nextInt(100000) + Math.round(r.nextGaussian() * 300) / 10 * 10)));
+            l.add(new Point<Void>(x, y, null));
+        }
+        return l;
+    }
+
     private List<Point<Void>> generateRandomPoints(int number, int range) {
         Random r = new Random();
         List<Point<Void>> l = new ArrayList<KDTreeDouble.Point<Void>>();
@@ -159,4 +451,46 @@ public class KDTreeDoubleTest {
         }
         return minPoint;
     }
+
+    private double metricDistance(double x, double y, Point<Void> p, Metric metric) {
+        double dx = Math.abs(p.getX() - x);
+        double dy = Math.abs(p.getY() - y);
+        if (metric == Metric.MANHATTAN) {
+            return dx + dy;
+        } else if (metric == Metric.CHEBYSHEV) {
+            return Math.max(dx, dy);
+        } else {
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private List<Double> getClosestWrapped(double x, double y, List<Point<Void>> datasetPoints, int maxDistance, int numberOfNearest, Wrapping wrapping) {
+        List<Double> distances = new ArrayList<Double>();
+        for (Point<Void> p : datasetPoints) {
+            double dist = wrappedDistance(x, y, p, wrapping);
+            if (dist <= ((long) maxDistance) * maxDistance) {
+                distances.add(dist);
+            }
+        }
+        Collections.sort(distances);
+        return distances.subList(0, Math.min(numberOfNearest, distances.size()));
+    }
+
+    private double weightedDistance(double x, double y, Point<Void> p, double[] weights) {
+        double dx = p.getX() - x;
+        double dy = p.getY() - y;
+        return weights[0] * weights[0] * dx * dx + weights[1] * weights[1] * dy * dy;
+    }
+
+    private double wrappedDistance(double x, double y, Point<Void> p, Wrapping wrapping) {
+        double dx = Math.abs(p.getX() - x);
+        double dy = Math.abs(p.getY() - y);
+        if (wrapping != Wrapping.Y) {
+            dx = Math.min(dx, 100000 - dx);
+        }
+        if (wrapping != Wrapping.X) {
+            dy = Math.min(dy, 100000 - dy);
+        }
+        return dx * dx + dy * dy;
+    }
 }
@@ -0,0 +1,99 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeGeodesic.Neighbour;
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+public class KDTreeGeodesicTest {
+
+    @Test
+    public void speedTestMultipleMatches() {
+        KDTreeGeodesic<Void> k = new KDTreeGeodesic<Void>(generateRandomPoints(40000, 90), 500000);
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 90);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (Point<Void> p : checkPoints) {
+                sum += k.findNearest(p.getLongitude(), p.getLatitude(), 5).size();
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()) + " for 5 matches.");
+    }
+
+    @Test
+    public void testDistance() {
+        // Flinders Peak to Buninyong, the example of Vincenty's paper.
+        double d = KDTreeGeodesic.distance(144 + 25 / 60.0 + 29.5244 / 3600, -(37 + 57 / 60.0 + 3.7203 / 3600), 143 + 55 / 60.0 + 35.3839 / 3600,
+                -(37 + 39 / 60.0 + 10.1561 / 3600));
+        Assert.assertEquals(54972.271, d, 0.001);
+        Assert.assertEquals(0, KDTreeGeodesic.distance(10, 20, 10, 20), 0);
+        // A quarter of the equator.
+        Assert.assertEquals(10018754.171, KDTreeGeodesic.distance(0, 0, 90, 0), 0.001);
+    }
+
+    @Test
+    public void testHighLatitudes() {
+        // Near ties at high latitudes, where the sphere ranks points wrongly.
+        Random r = new Random();
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        for (int i = 0; i < 2000; i++) {
+            double latitude = 60 + r.nextDouble() * 30;
+            datasetPoints.add(new Point<Void>(r.nextDouble() * 360 - 180, i % 2 == 0 ? latitude : -latitude, null));
+        }
+        check(datasetPoints, generateRandomPoints(1000, 90), 300000);
+    }
+
+    @Test
+    public void testRandom() {
+        check(generateRandomPoints(2000, 90), generateRandomPoints(1000, 90), 1000000);
+        check(generateRandomPoints(300, 90), generateRandomPoints(300, 90), 20000000);
+    }
+
+    private void check(List<Point<Void>> datasetPoints, List<Point<Void>> checkPoints, double maxDistance) {
+        KDTreeGeodesic<Void> k = new KDTreeGeodesic<Void>(new ArrayList<Point<Void>>(datasetPoints), maxDistance);
+        for (Point<Void> p : checkPoints) {
+            List<Double> expected = new ArrayList<Double>();
+            for (Point<Void> d : datasetPoints) {
+                double distance = KDTreeGeodesic.distance(p.getLongitude(), p.getLatitude(), d.getLongitude(), d.getLatitude());
+                if (distance <= maxDistance) {
+                    expected.add(distance);
+                }
+            }
+            Collections.sort(expected);
+            List<Neighbour<Void>> found = k.findNearest(p.getLongitude(), p.getLatitude(), 5);
+            // A list of its own, not a view of a longer one.
+            Assert.assertEquals(ArrayList.class, found.getClass());
+            Iterator<Neighbour<Void>> iter = found.iterator();
+            for (double distance : expected.subList(0, Math.min(5, expected.size()))) {
+                Neighbour<Void> n = iter.next();
+                Assert.assertEquals(distance, n.getDistance(), 0);
+                Assert.assertEquals(distance,
+                        KDTreeGeodesic.distance(p.getLongitude(), p.getLatitude(), n.getPoint().getLongitude(), n.getPoint().getLatitude()), 0);
+            }
+            Assert.assertEquals(false, iter.hasNext());
+            Neighbour<Void> nearest = k.findNearest(p.getLongitude(), p.getLatitude());
+            if (expected.isEmpty()) {
+                Assert.assertEquals(null, nearest);
+            } else {
+                Assert.assertEquals(expected.get(0), nearest.getDistance(), 0);
+            }
+        }
+    }
+
+    private List<Point<Void>> generateRandomPoints(int number, double latitudeRange) {
+        Random r = new Random();
+        List<Point<Void>> l = new ArrayList<KDTreeSpherical.Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            l.add(new Point<Void>(r.nextDouble() * 360 - 180, r.nextDouble() * latitudeRange * 2 - latitudeRange, null));
+        }
+        return l;
+    }
+}
@@ -0,0 +1,176 @@
+package com.roklenarcic.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KDTreeIntIdsTest {
+
+    @Test
+    public void speedTestRandom() {
+        int[][] data = generateRandomPoints(40000, 1000000);
+        KDTreeIntIds k = new KDTreeIntIds(data[0], data[1], data[2], 0, 0, 1000000, 1000000);
+        int[][] checkPoints = generateRandomPoints(1000, 1000000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < checkPoints[0].length; j++) {
+                sum += k.findNearest(checkPoints[0][j], checkPoints[1][j], Integer.MAX_VALUE);
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints[0].length));
+    }
+
+    @Test
+    public void testCurveOrder() {
+        int[][] data = generateRandomPoints(300, 100000);
+        PointStoreInt store = new PointStoreInt(data[0], data[1], null, true);
+        KDTreeIntIds k = new KDTreeIntIds(store, 0, 0, 100000, 100000);
+        for (int i = 0; i < store.size(); i++) {
+            int id = store.getId(i);
+            Assert.assertEquals(data[0][id], store.getX(i));
+            Assert.assertEquals(data[1][id], store.getY(i));
+        }
+        int[][] checkPoints = generateRandomPoints(1000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            int x = checkPoints[0][j], y = checkPoints[1][j];
+            long minDist = Long.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void testDuplicates() {
+        int[] xs = new int[1000], ys = new int[1000];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i % 2;
+        }
+        KDTreeIntIds k = new KDTreeIntIds(xs, ys, 0, 0, 10, 10);
+        int[] found = k.findNearest(0, 0, 0, 600);
+        Assert.assertEquals(500, found.length);
+        for (int id : found) {
+            Assert.assertEquals(0, id % 2);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KDTreeIntIds k = new KDTreeIntIds(new int[0], new int[0], new int[0], 0, 0, 10, 10);
+        Assert.assertEquals(-1, k.findNearest(1, 1, Integer.MAX_VALUE));
+        Assert.assertEquals(0, k.findNearest(1, 1, Integer.MAX_VALUE, 3).length);
+        k = new KDTreeIntIds(new int[] { 1 }, new int[] { 1 }, 0, 0, 10, 10);
+        Assert.assertEquals(0, k.findNearest(1, 1, Integer.MAX_VALUE, 0).length);
+        Assert.assertEquals(0, k.findNearest(1, 1, Integer.MAX_VALUE, -1).length);
+    }
+
+    @Test
+    public void testInPlace() {
+        int[][] data = generateRandomPoints(300, 100000);
+        int[] xs = data[0].clone(), ys = data[1].clone();
+        KDTreeIntIds k = KDTreeIntIds.buildInPlace(xs, ys, null, 0, 0, 100000, 100000);
+        KDTreeIntIds copied = new KDTreeIntIds(data[0], data[1], 0, 0, 100000, 100000);
+        int[][] checkPoints = generateRandomPoints(1000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            int x = checkPoints[0][j], y = checkPoints[1][j];
+            Assert.assertEquals(distance(x, y, data, copied.findNearest(x, y, Integer.MAX_VALUE)),
+                    distance(x, y, data, k.findNearest(x, y, Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        int[][] data = generateRandomPoints(300, 100000);
+        int[][] checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeIntIds k = new KDTreeIntIds(data[0], data[1], data[2], 0, 0, 100000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            int x = checkPoints[0][j], y = checkPoints[1][j];
+            long[] expected = new long[data[0].length];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = distance(x, y, data, i);
+            }
+            Arrays.sort(expected);
+            int[] found = k.findNearest(x, y, 20000, 5);
+            int expectedCount = 0;
+            while (expectedCount < 5 && expected[expectedCount] <= 20000L * 20000L) {
+                expectedCount++;
+            }
+            Assert.assertEquals(expectedCount, found.length);
+            for (int i = 0; i < found.length; i++) {
+                Assert.assertEquals(expected[i], distance(x, y, data, found[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        int[][] data = generateRandomPoints(300, 100000);
+        int[][] checkPoints = generateRandomPoints(10000, 100000);
+        KDTreeIntIds k = new KDTreeIntIds(data[0], data[1], data[2], 0, 0, 100000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            int x = checkPoints[0][j], y = checkPoints[1][j];
+            long minDist = Long.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void testSharedStore() {
+        int[][] data = generateRandomPoints(300, 100000);
+        PointStoreInt store = new PointStoreInt(data[0], data[1], data[2]);
+        KDTreeIntIds k = new KDTreeIntIds(store, 0, 0, 100000, 100000);
+        KDTreeIntIds other = new KDTreeIntIds(store, -100000, -100000, 200000, 200000);
+        int[][] checkPoints = generateRandomPoints(1000, 100000);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            int x = checkPoints[0][j], y = checkPoints[1][j];
+            long minDist = Long.MAX_VALUE;
+            for (int i = 0; i < data[0].length; i++) {
+                minDist = Math.min(minDist, distance(x, y, data, i));
+            }
+            Assert.assertEquals(minDist, distance(x, y, data, k.findNearest(x, y, Integer.MAX_VALUE)));
+            Assert.assertEquals(minDist, distance(x, y, data, other.findNearest(x, y, Integer.MAX_VALUE)));
+        }
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(data[0][i], store.getX(i));
+            Assert.assertEquals(data[1][i], store.getY(i));
+            Assert.assertEquals(data[2][i], store.getId(i));
+        }
+    }
+
+    @Test
+    public void testSmallMaxDistance() {
+        int[][] data = generateRandomPoints(300, 100000);
+        KDTreeIntIds k = new KDTreeIntIds(data[0], data[1], data[2], 0, 0, 100000, 100000);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(0, distance(data[0][i], data[1][i], data, k.findNearest(data[0][i], data[1][i], 0)));
+        }
+        Assert.assertEquals(-1, k.findNearest(-10, -10, 1));
+    }
+
+    private long distance(int x, int y, int[][] data, int id) {
+        long dx = data[0][id] - x;
+        long dy = data[1][id] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns x coordinates, y coordinates and ids, where id is the index of the point.
+     */
+    private int[][] generateRandomPoints(int number, int range) {
+        Random r = new Random();
+        int[][] data = new int[3][number];
+        for (int i = 0; i < number; i++) {
+            data[0][i] = r.nextInt(range);
+            data[1][i] = r.nextInt(range);
+            data[2][i] = i;
+        }
+        return data;
+    }
+}
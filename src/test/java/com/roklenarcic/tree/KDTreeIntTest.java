@@ -2,8 +2,10 @@ package com.roklenarcic.tree;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.junit.Assert;
@@ -13,6 +15,32 @@ import com.roklenarcic.tree.KDTreeInt.Point;
 
 public class KDTreeIntTest {
 
+    @Test
+    public void speedTestDuplicates() {
+        // 40k points at 2000 locations.
+        List<Point<Void>> locations = generateRandomPoints(2000, 100000);
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 100000);
+        for (boolean collapse : new boolean[] { false, true }) {
+            List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+            for (int i = 0; i < 40000; i++) {
+                Point<Void> location = locations.get(i % locations.size());
+                datasetPoints.add(new Point<Void>(location.getX(), location.getY(), null));
+            }
+            KDTreeInt<Void> k = new KDTreeInt<Void>(datasetPoints, 0, 0, 99999, 99999, null, SplitStrategy.MEDIAN, collapse);
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 100; i++) {
+                for (Point<Void> p : checkPoints) {
+                    for (Point<Void> n : k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE, 5)) {
+                        sum += n.getX();
+                    }
+                }
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()) + " for 5 nearest of duplicated points"
+                    + (collapse ? " collapsed." : "."));
+        }
+    }
+
     @Test
     public void speedTestMultipleMatches() {
         KDTreeInt<Void> k = new KDTreeInt<Void>(generateRandomPoints(40000, 1000000), 0, 0, 1000000, 1000000);
@@ -55,6 +83,66 @@ public class KDTreeIntTest {
         System.out.println("Sum " + sum + " Time with wrapping " + (System.nanoTime() - start) / (100 * checkPoints.size()));
     }
 
+    @Test
+    public void speedTestSplitStrategies() {
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 100000);
+        for (SplitStrategy strategy : SplitStrategy.values()) {
+            KDTreeInt<Void> k = new KDTreeInt<Void>(generateClusteredPoints(40000, new Random(1)), 0, 0, 99999, 99999, strategy);
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 100; i++) {
+                for (Point<Void> p : checkPoints) {
+                    sum += k.findNearest(p.getX(), p.getY(), Integer.MAX_VALUE).getX();
+                }
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()) + " for clustered points split by " + strategy + ".");
+        }
+    }
+
+    @Test
+    public void testAggregates() {
+        Random r = new Random();
+        List<Point<Integer>> datasetPoints = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            datasetPoints.add(new Point<Integer>(r.nextInt(100000), r.nextInt(100000), r.nextInt(10)));
+        }
+        // Building a tree changes the points, so every tree gets its own.
+        List<Point<Integer>> copy = new ArrayList<Point<Integer>>();
+        for (Point<Integer> p : datasetPoints) {
+            copy.add(new Point<Integer>(p.getX(), p.getY(), p.getValue()));
+        }
+        KDTreeInt<Integer> k = new KDTreeInt<Integer>(datasetPoints, 0, 0, 99999, 99999, new ValueExtractor<Integer>() {
+            public double extract(Integer value) {
+                return value;
+            }
+        });
+        KDTreeInt<Integer> unweighted = new KDTreeInt<Integer>(copy, 0, 0, 99999, 99999);
+        for (int i = 0; i < 500; i++) {
+            int x = r.nextInt(100000), y = r.nextInt(100000), distance = r.nextInt(100000) / 5;
+            int xMin = r.nextInt(100000), yMin = r.nextInt(100000);
+            int xMax = xMin + r.nextInt(100000) / 3, yMax = yMin + r.nextInt(100000) / 3;
+            int within = 0, inRectangle = 0;
+            double sumWithin = 0, sumInRectangle = 0;
+            for (Point<Integer> p : datasetPoints) {
+                long dx = p.getX() - x, dy = p.getY() - y;
+                if (dx * dx + dy * dy <= (long) distance * distance) {
+                    within++;
+                    sumWithin += p.getValue();
+                }
+                if (p.getX() >= xMin && p.getX() <= xMax && p.getY() >= yMin && p.getY() <= yMax) {
+                    inRectangle++;
+                    sumInRectangle += p.getValue();
+                }
+            }
+            Assert.assertEquals(within, k.countWithin(x, y, distance));
+            Assert.assertEquals(sumWithin, k.sumWithin(x, y, distance), 0);
+            Assert.assertEquals(within, unweighted.sumWithin(x, y, distance), 0);
+            Assert.assertEquals(inRectangle, k.countInRectangle(xMin, yMin, xMax, yMax));
+            Assert.assertEquals(sumInRectangle, k.sumInRectangle(xMin, yMin, xMax, yMax), 0);
+        }
+        Assert.assertEquals(3000, k.countInRectangle(0, 0, 99999, 99999));
+    }
+
     @Test
     public void testBalancing() {
         List<Point<Void>> datasetPoints = generateRandomPoints1D(300, 100000);
@@ -65,6 +153,93 @@ public class KDTreeIntTest {
         }
     }
 
+    @Test
+    public void testCollapseDuplicates() {
+        // Many points at few locations, and a query at every location.
+        Random r = new Random();
+        List<Point<Void>> locations = generateRandomPoints(200, 100000);
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        for (int i = 0; i < 3000; i++) {
+            Point<Void> location = locations.get(r.nextInt(locations.size()));
+            datasetPoints.add(new Point<Void>(location.getX(), location.getY(), null));
+        }
+        KDTreeInt<Void> k = new KDTreeInt<Void>(new ArrayList<Point<Void>>(datasetPoints), 0, 0, 99999, 99999, null, SplitStrategy.MEDIAN, true);
+        List<Point<Void>> checkPoints = generateRandomPoints(200, 100000);
+        checkPoints.addAll(locations);
+        for (Point<Void> p : checkPoints) {
+            confirm(p.getX(), p.getY(), k.findNearest(p.getX(), p.getY(), 100000), datasetPoints, 100000);
+            List<Long> expected = new ArrayList<Long>();
+            for (Point<Void> d : datasetPoints) {
+                long dx = d.getX() - p.getX(), dy = d.getY() - p.getY();
+                if (dx * dx + dy * dy <= 20000L * 20000) {
+                    expected.add(dx * dx + dy * dy);
+                }
+            }
+            Collections.sort(expected);
+            Iterable<Point<Void>> nearest = k.findNearest(p.getX(), p.getY(), 20000, 30);
+            Iterator<Point<Void>> iter = nearest.iterator();
+            for (Long distance : expected.subList(0, Math.min(30, expected.size()))) {
+                Point<Void> n = iter.next();
+                long dx = n.getX() - p.getX(), dy = n.getY() - p.getY();
+                Assert.assertEquals(distance, dx * dx + dy * dy, 0);
+            }
+            Assert.assertEquals(false, iter.hasNext());
+            Iterable<Point<Void>> wrapped = k.findNearestWithWrapping(p.getX(), p.getY(), 20000, 30, Wrapping.XY);
+            iter = wrapped.iterator();
+            for (Long distance : getClosestWrapped(p.getX(), p.getY(), datasetPoints, 20000, 30, Wrapping.XY)) {
+                Assert.assertEquals(distance, wrappedDistance(p.getX(), p.getY(), iter.next(), Wrapping.XY), 0);
+            }
+            Assert.assertEquals(false, iter.hasNext());
+            // Every point of a group is returned once.
+            assertDistinct(nearest);
+            assertDistinct(wrapped);
+            int within = 0, inRectangle = 0;
+            for (Point<Void> d : datasetPoints) {
+                long dx = d.getX() - p.getX(), dy = d.getY() - p.getY();
+                if (dx * dx + dy * dy <= 10000L * 10000) {
+                    within++;
+                }
+                if (d.getX() >= p.getX() && d.getX() <= p.getX() + 20000 && d.getY() >= p.getY() - 20000 && d.getY() <= p.getY()) {
+                    inRectangle++;
+                }
+            }
+            Assert.assertEquals(within, k.countWithin(p.getX(), p.getY(), 10000));
+            Assert.assertEquals(inRectangle, k.countInRectangle(p.getX(), p.getY() - 20000, p.getX() + 20000, p.getY()));
+        }
+        Assert.assertEquals(3000, k.countInRectangle(0, 0, 99999, 99999));
+    }
+
+    @Test
+    public void testMetrics() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeInt<Void> k = new KDTreeInt<Void>(datasetPoints, 0, 0, 99999, 99999);
+        for (Metric metric : Metric.values()) {
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> iter = k.findNearest(p.getX(), p.getY(), 10000, 5, metric).iterator();
+                List<Long> expected = new ArrayList<Long>();
+                for (Point<Void> d : datasetPoints) {
+                    long dist = metricDistance(p.getX(), p.getY(), d, metric);
+                    if (dist <= (metric == Metric.EUCLIDEAN ? 10000L * 10000 : 10000)) {
+                        expected.add(dist);
+                    }
+                }
+                Collections.sort(expected);
+                expected = expected.subList(0, Math.min(5, expected.size()));
+                for (long distance : expected) {
+                    Assert.assertEquals(distance, metricDistance(p.getX(), p.getY(), iter.next(), metric), 0);
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> nearest = k.findNearest(p.getX(), p.getY(), 10000, metric);
+                if (expected.isEmpty()) {
+                    Assert.assertEquals(null, nearest);
+                } else {
+                    Assert.assertEquals(expected.get(0), metricDistance(p.getX(), p.getY(), nearest, metric), 0);
+                }
+            }
+        }
+    }
+
     @Test
     public void testRandom() {
         List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
@@ -85,6 +260,42 @@ public class KDTreeIntTest {
         }
     }
 
+    @Test
+    public void testSplitStrategies() {
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 100000);
+        for (SplitStrategy strategy : SplitStrategy.values()) {
+            // Clustered points with many equal coordinates, and one far away point.
+            List<Point<Void>> datasetPoints = generateClusteredPoints(1000, new Random());
+            datasetPoints.add(new Point<Void>(99999, 0, null));
+            KDTreeInt<Void> k = new KDTreeInt<Void>(datasetPoints, 0, 0, 99999, 99999, strategy);
+            for (Point<Void> p : checkPoints) {
+                confirm(p.getX(), p.getY(), k.findNearest(p.getX(), p.getY(), 100000), datasetPoints, 100000);
+                Iterator<Point<Void>> iter = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, 5, Wrapping.XY).iterator();
+                for (Long distance : getClosestWrapped(p.getX(), p.getY(), datasetPoints, 30000, 5, Wrapping.XY)) {
+                    Assert.assertEquals(distance, wrappedDistance(p.getX(), p.getY(), iter.next(), Wrapping.XY), 0);
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> manhattan = k.findNearest(p.getX(), p.getY(), 10000, Metric.MANHATTAN);
+                long minDistance = 10000;
+                for (Point<Void> d : datasetPoints) {
+                    minDistance = Math.min(minDistance, metricDistance(p.getX(), p.getY(), d, Metric.MANHATTAN));
+                }
+                Assert.assertEquals(minDistance, manhattan == null ? 10000 : metricDistance(p.getX(), p.getY(), manhattan, Metric.MANHATTAN), 0);
+                int within = 0, inRectangle = 0;
+                for (Point<Void> d : datasetPoints) {
+                    if (metricDistance(p.getX(), p.getY(), d, Metric.EUCLIDEAN) <= 5000L * 5000) {
+                        within++;
+                    }
+                    if (d.getX() >= p.getX() && d.getX() <= p.getX() + 20000 && d.getY() >= p.getY() - 5000 && d.getY() <= p.getY()) {
+                        inRectangle++;
+                    }
+                }
+                Assert.assertEquals(within, k.countWithin(p.getX(), p.getY(), 5000));
+                Assert.assertEquals(inRectangle, k.countInRectangle(p.getX(), p.getY() - 5000, p.getX() + 20000, p.getY()));
+            }
+        }
+    }
+
     @Test
     public void testWrapping() {
         List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
@@ -111,6 +322,51 @@ public class KDTreeIntTest {
         Assert.assertEquals(Collections.EMPTY_LIST, k.findNearestWithWrapping(1, 0, 1, 3));
     }
 
+    @Test
+    public void testWrappingTorus() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, 100000);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, 100000);
+        KDTreeInt<Void> k = new KDTreeInt<Void>(datasetPoints, 0, 0, 99999, 99999);
+        for (Wrapping wrapping : Wrapping.values()) {
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> iter = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, 5, wrapping).iterator();
+                List<Long> expected = getClosestWrapped(p.getX(), p.getY(), datasetPoints, 30000, 5, wrapping);
+                for (long distance : expected) {
+                    Assert.assertEquals(distance, wrappedDistance(p.getX(), p.getY(), iter.next(), wrapping));
+                }
+                Assert.assertEquals(false, iter.hasNext());
+                Point<Void> nearest = k.findNearestWithWrapping(p.getX(), p.getY(), 30000, wrapping);
+                if (expected.isEmpty()) {
+                    Assert.assertEquals(null, nearest);
+                } else {
+                    Assert.assertEquals(expected.get(0).longValue(), wrappedDistance(p.getX(), p.getY(), nearest, wrapping));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWrappingY() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(0, 1000000, null));
+        datasetPoints.add(new Point<Void>(1000000, 0, null));
+        KDTreeInt<Void> k = new KDTreeInt<Void>(datasetPoints, 0, 0, 1000000, 1000000);
+        Assert.assertTrue(1000000 == k.findNearestWithWrapping(0, 1, 2, Wrapping.Y).getY());
+        Assert.assertTrue(0 == k.findNearestWithWrapping(1, 0, 2, Wrapping.Y).getX());
+        Assert.assertTrue(1000000 == k.findNearestWithWrapping(1, 0, 2, Wrapping.X).getX());
+        // Both points are found across the opposite borders, each of them only once.
+        Iterator<Point<Void>> iter = k.findNearestWithWrapping(1, 1, 3, 3, Wrapping.XY).iterator();
+        Assert.assertTrue(iter.next() != iter.next());
+        Assert.assertEquals(false, iter.hasNext());
+    }
+
+    private void assertDistinct(Iterable<Point<Void>> points) {
+        Map<Point<Void>, Boolean> returned = new IdentityHashMap<Point<Void>, Boolean>();
+        for (Point<Void> n : points) {
+            Assert.assertNull(returned.put(n, true));
+        }
+    }
+
     private void confirm(int x, int y, Point<Void> calculatedPoint, List<Point<Void>> datasetPoints, int maxDistance) {
         Point<Void> minPoint = getClosest(x, y, datasetPoints, maxDistance);
         if (calculatedPoint != null) {
@@ -127,6 +383,18 @@ public class KDTreeIntTest {
         }
     }
 
+    private List<Point<Void>> generateClusteredPoints(int number, Random r) {
+        // Points around a few centers, on a grid of 10, so many are equal.
+        List<Point<Void>> l = new ArrayList<Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            Random center = new Random(i % 20);
+            int x = Math.max(0, Math.min(99999, (int) (center.nextInt(100000) + Math.round(r.nextGaussian() * 300) / 10 * 10)));
+            int y = Math.max(0, Math.min(99999, (int) (center.nextInt(100000) + Math.round(r.nextGaussian() * 300) / 10 * 10)));
+            l.add(new Point<Void>(x, y, null));
+        }
+        return l;
+    }
+
     private List<Point<Void>> generateRandomPoints(int number, int range) {
         Random r = new Random();
         List<Point<Void>> l = new ArrayList<KDTreeInt.Point<Void>>();
@@ -159,4 +427,40 @@ public class KDTreeIntTest {
         }
         return minPoint;
     }
+
+    private long metricDistance(int x, int y, Point<Void> p, Metric metric) {
+        long dx = Math.abs(p.getX() - x);
+        long dy = Math.abs(p.getY() - y);
+        if (metric == Metric.MANHATTAN) {
+            return dx + dy;
+        } else if (metric == Metric.CHEBYSHEV) {
+            return Math.max(dx, dy);
+        } else {
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private List<Long> getClosestWrapped(int x, int y, List<Point<Void>> datasetPoints, int maxDistance, int numberOfNearest, Wrapping wrapping) {
+        List<Long> distances = new ArrayList<Long>();
+        for (Point<Void> p : datasetPoints) {
+            long dist = wrappedDistance(x, y, p, wrapping);
+            if (dist <= ((long) maxDistance) * maxDistance) {
+                distances.add(dist);
+            }
+        }
+        Collections.sort(distances);
+        return distances.subList(0, Math.min(numberOfNearest, distances.size()));
+    }
+
+    private long wrappedDistance(int x, int y, Point<Void> p, Wrapping wrapping) {
+        long dx = Math.abs(p.getX() - x);
+        long dy = Math.abs(p.getY() - y);
+        if (wrapping != Wrapping.Y) {
+            dx = Math.min(dx, 100000 - dx);
+        }
+        if (wrapping != Wrapping.X) {
+            dy = Math.min(dy, 100000 - dy);
+        }
+        return dx * dx + dy * dy;
+    }
 }
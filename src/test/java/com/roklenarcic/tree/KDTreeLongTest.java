@@ -0,0 +1,159 @@
+package com.roklenarcic.tree;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeLong.Point;
+
+public class KDTreeLongTest {
+
+    private static final long RANGE = 1000000000000000000L;
+
+    @Test
+    public void speedTestRandom() {
+        KDTreeLong<Void> k = new KDTreeLong<Void>(generateRandomPoints(40000, 1000000), -1000000, -1000000, 1000000, 1000000);
+        List<Point<Void>> checkPoints = generateRandomPoints(1000, 1000000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (Point<Void> p : checkPoints) {
+                sum += k.findNearest(p.getX(), p.getY(), Long.MAX_VALUE).getX();
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()));
+    }
+
+    @Test
+    public void testLimits() {
+        try {
+            new KDTreeLong<Void>(new ArrayList<Point<Void>>(), -RANGE - 1, 0, 0, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testQueryLimits() {
+        List<Point<Void>> points = new ArrayList<Point<Void>>();
+        points.add(new Point<Void>(-RANGE, 0, null));
+        points.add(new Point<Void>(RANGE, 0, null));
+        KDTreeLong<Void> k = new KDTreeLong<Void>(points, -RANGE, -RANGE, RANGE, RANGE);
+        // Queries at the limit are exact, with the farthest point 5E18 away.
+        Assert.assertEquals(RANGE, k.findNearest(4 * RANGE, 4 * RANGE, Long.MAX_VALUE).getX());
+        Assert.assertEquals(-RANGE, k.findNearest(-4 * RANGE, -4 * RANGE, Long.MAX_VALUE).getX());
+        Iterator<Point<Void>> iter = k.findNearest(4 * RANGE, 0, Long.MAX_VALUE, 2).iterator();
+        Assert.assertEquals(RANGE, iter.next().getX());
+        Assert.assertEquals(-RANGE, iter.next().getX());
+        for (long[] query : new long[][] { { Long.MAX_VALUE, 0, 1 }, { 0, Long.MIN_VALUE, 1 }, { 4 * RANGE + 1, 0, 1 }, { 0, 0, -1 } }) {
+            try {
+                k.findNearest(query[0], query[1], query[2]);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                k.findNearest(query[0], query[1], query[2], 3);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                k.findNearestWithWrapping(query[0], query[1], query[2], Wrapping.XY);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                k.findNearestWithWrapping(query[0], query[1], query[2], 3, Wrapping.XY);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, RANGE);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000, RANGE);
+        KDTreeLong<Void> k = new KDTreeLong<Void>(datasetPoints, -RANGE, -RANGE, RANGE, RANGE);
+        for (Point<Void> p : checkPoints) {
+            List<BigInteger> expected = new ArrayList<BigInteger>();
+            for (Point<Void> d : datasetPoints) {
+                expected.add(distance(p.getX(), p.getY(), d));
+            }
+            Collections.sort(expected);
+            Iterator<Point<Void>> iter = k.findNearest(p.getX(), p.getY(), Long.MAX_VALUE, 5).iterator();
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(expected.get(i), distance(p.getX(), p.getY(), iter.next()));
+            }
+            Assert.assertEquals(false, iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, RANGE);
+        List<Point<Void>> checkPoints = generateRandomPoints(10000, RANGE);
+        KDTreeLong<Void> k = new KDTreeLong<Void>(datasetPoints, -RANGE, -RANGE, RANGE, RANGE);
+        for (Point<Void> p : checkPoints) {
+            Point<Void> calculatedPoint = k.findNearest(p.getX(), p.getY(), Long.MAX_VALUE);
+            BigInteger minDist = null;
+            for (Point<Void> d : datasetPoints) {
+                BigInteger dist = distance(p.getX(), p.getY(), d);
+                if (minDist == null || dist.compareTo(minDist) < 0) {
+                    minDist = dist;
+                }
+            }
+            Assert.assertEquals(minDist, distance(p.getX(), p.getY(), calculatedPoint));
+        }
+    }
+
+    @Test
+    public void testSmallMaxDistance() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(300, RANGE);
+        KDTreeLong<Void> k = new KDTreeLong<Void>(datasetPoints, -RANGE, -RANGE, RANGE, RANGE);
+        for (Point<Void> p : datasetPoints) {
+            Assert.assertTrue("Point " + p + " doesn't resolve to itself", k.findNearest(p.getX(), p.getY(), 0) == p);
+            Assert.assertEquals(null, k.findNearest(p.getX() + 2, p.getY(), 1));
+        }
+    }
+
+    @Test
+    public void testWrapping() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(RANGE, 0, null));
+        datasetPoints.add(new Point<Void>(RANGE - 1, 0, null));
+        datasetPoints.add(new Point<Void>(-RANGE + 3, 0, null));
+        KDTreeLong<Void> k = new KDTreeLong<Void>(datasetPoints, -RANGE, -RANGE, RANGE, RANGE);
+        Assert.assertEquals(RANGE, k.findNearestWithWrapping(-RANGE, 0, 1).getX());
+        Assert.assertEquals(null, k.findNearestWithWrapping(-RANGE, 0, 1, Wrapping.Y));
+        Iterator<Point<Void>> iter = k.findNearestWithWrapping(-RANGE, 0, 3, 3).iterator();
+        Assert.assertEquals(RANGE, iter.next().getX());
+        Assert.assertEquals(RANGE - 1, iter.next().getX());
+        Assert.assertEquals(-RANGE + 3, iter.next().getX());
+        Assert.assertEquals(false, iter.hasNext());
+    }
+
+    private BigInteger distance(long x, long y, Point<Void> p) {
+        BigInteger dx = BigInteger.valueOf(p.getX()).subtract(BigInteger.valueOf(x));
+        BigInteger dy = BigInteger.valueOf(p.getY()).subtract(BigInteger.valueOf(y));
+        return dx.multiply(dx).add(dy.multiply(dy));
+    }
+
+    private List<Point<Void>> generateRandomPoints(int number, long range) {
+        Random r = new Random();
+        List<Point<Void>> l = new ArrayList<KDTreeLong.Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            l.add(new Point<Void>(randomCoordinate(r, range), randomCoordinate(r, range), null));
+        }
+        return l;
+    }
+
+    private long randomCoordinate(Random r, long range) {
+        return (long) ((r.nextDouble() * 2 - 1) * range);
+    }
+}
@@ -0,0 +1,112 @@
+package com.roklenarcic.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KDTreeSphericalIdsTest {
+
+    @Test
+    public void speedTestRandom() {
+        double[][] data = generateRandomPoints(40000);
+        KDTreeSphericalIds k = new KDTreeSphericalIds(data[0], data[1], indexes(40000), 180);
+        double[][] checkPoints = generateRandomPoints(1000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < checkPoints[0].length; j++) {
+                sum += k.findNearest(checkPoints[0][j], checkPoints[1][j]);
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints[0].length));
+    }
+
+    @Test
+    public void testCurveOrder() {
+        double[][] data = generateRandomPoints(300);
+        KDTreeSphericalIds k = new KDTreeSphericalIds(new PointStoreSpherical(data[0], data[1], null, true), 0);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(i, k.findNearest(data[0][i], data[1][i]));
+        }
+    }
+
+    @Test
+    public void testInPlace() {
+        double[][] data = generateRandomPoints(300);
+        KDTreeSphericalIds k = KDTreeSphericalIds.buildInPlace(data[0].clone(), data[1].clone(), null, 0);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(i, k.findNearest(data[0][i], data[1][i]));
+        }
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        double[][] data = generateRandomPoints(300);
+        double[][] checkPoints = generateRandomPoints(2000);
+        KDTreeSphericalIds k = new KDTreeSphericalIds(data[0], data[1], indexes(300), 180);
+        for (int j = 0; j < checkPoints[0].length; j++) {
+            double[] expected = new double[data[0].length];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = distance(checkPoints[0][j], checkPoints[1][j], data, i);
+            }
+            Arrays.sort(expected);
+            int[] found = k.findNearest(checkPoints[0][j], checkPoints[1][j], 5);
+            Assert.assertEquals(5, found.length);
+            for (int i = 0; i < found.length; i++) {
+                Assert.assertEquals(expected[i], distance(checkPoints[0][j], checkPoints[1][j], data, found[i]), 1e-12);
+            }
+        }
+        Assert.assertEquals(0, k.findNearest(0, 0, 0).length);
+        Assert.assertEquals(0, k.findNearest(0, 0, -1).length);
+    }
+
+    @Test
+    public void testSharedStore() {
+        double[][] data = generateRandomPoints(300);
+        PointStoreSpherical store = new PointStoreSpherical(data[0], data[1], null);
+        KDTreeSphericalIds k = new KDTreeSphericalIds(store, 0);
+        KDTreeSphericalIds other = new KDTreeSphericalIds(store, 180);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(i, k.findNearest(data[0][i], data[1][i]));
+            Assert.assertEquals(i, other.findNearest(data[0][i], data[1][i]));
+            Assert.assertEquals(i, store.getId(i));
+        }
+    }
+
+    @Test
+    public void testSmallMaxDistance() {
+        double[][] data = generateRandomPoints(300);
+        KDTreeSphericalIds k = new KDTreeSphericalIds(data[0], data[1], 0);
+        for (int i = 0; i < data[0].length; i++) {
+            Assert.assertEquals(i, k.findNearest(data[0][i], data[1][i]));
+        }
+    }
+
+    private double distance(double longitude, double latitude, double[][] data, int id) {
+        // Great circle distance.
+        double dy = (data[1][id] - latitude) / 57.29578;
+        double dx = (data[0][id] - longitude) / 57.29578;
+        double a = Math.pow(Math.sin(dy / 2), 2) + Math.cos(data[1][id] / 57.29578) * Math.cos(latitude / 57.29578) * Math.pow(Math.sin(dx / 2), 2);
+        return 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private double[][] generateRandomPoints(int number) {
+        Random r = new Random();
+        double[][] data = new double[2][number];
+        for (int i = 0; i < number; i++) {
+            data[0][i] = r.nextDouble() * 360 - 180;
+            data[1][i] = r.nextDouble() * 180 - 90;
+        }
+        return data;
+    }
+
+    private int[] indexes(int number) {
+        int[] ids = new int[number];
+        for (int i = 0; i < number; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+}
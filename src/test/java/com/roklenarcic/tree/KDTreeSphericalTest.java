@@ -1,7 +1,10 @@
 package com.roklenarcic.tree;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.junit.Assert;
@@ -39,6 +42,105 @@ public class KDTreeSphericalTest {
         System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()));
     }
 
+    @Test
+    public void testAggregates() {
+        Random r = new Random();
+        List<Point<Integer>> datasetPoints = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            datasetPoints.add(new Point<Integer>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90, r.nextInt(10)));
+        }
+        // Building a tree changes the points, so every tree gets its own.
+        List<Point<Integer>> copy = new ArrayList<Point<Integer>>();
+        for (Point<Integer> p : datasetPoints) {
+            copy.add(new Point<Integer>(p.getLongitude(), p.getLatitude(), p.getValue()));
+        }
+        KDTreeSpherical<Integer> k = new KDTreeSpherical<Integer>(datasetPoints, 180, new ValueExtractor<Integer>() {
+            public double extract(Integer value) {
+                return value;
+            }
+        });
+        KDTreeSpherical<Integer> unweighted = new KDTreeSpherical<Integer>(copy, 180);
+        for (int i = 0; i < 500; i++) {
+            double longitude = r.nextDouble() * 360 - 180, latitude = r.nextDouble() * 180 - 90, distance = r.nextDouble() * (i % 2 == 0 ? 10 : 180);
+            int within = 0;
+            double sumWithin = 0;
+            for (Point<Integer> p : datasetPoints) {
+                if (angle(longitude, latitude, p) <= distance) {
+                    within++;
+                    sumWithin += p.getValue();
+                }
+            }
+            Assert.assertEquals(within, k.countWithin(longitude, latitude, distance));
+            Assert.assertEquals(sumWithin, k.sumWithin(longitude, latitude, distance), 0);
+            Assert.assertEquals(within, unweighted.sumWithin(longitude, latitude, distance), 0);
+            double sumFound = 0;
+            for (Point<Integer> p : k.findWithin(longitude, latitude, distance)) {
+                Assert.assertTrue(angle(longitude, latitude, p) <= distance + 1E-9);
+                sumFound += p.getValue();
+            }
+            Assert.assertEquals(within, k.findWithin(longitude, latitude, distance).size());
+            Assert.assertEquals(sumWithin, sumFound, 0);
+        }
+        Assert.assertEquals(3000, k.countWithin(0, 0, 180));
+    }
+
+    @Test
+    public void testCollapseDuplicates() {
+        // Many points at few locations, and a query at every location.
+        Random r = new Random();
+        List<Point<Integer>> locations = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 200; i++) {
+            locations.add(new Point<Integer>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90, null));
+        }
+        List<Point<Integer>> datasetPoints = new ArrayList<Point<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            Point<Integer> location = locations.get(r.nextInt(locations.size()));
+            datasetPoints.add(new Point<Integer>(location.getLongitude(), location.getLatitude(), r.nextInt(10)));
+        }
+        KDTreeSpherical<Integer> k = new KDTreeSpherical<Integer>(new ArrayList<Point<Integer>>(datasetPoints), 30, new ValueExtractor<Integer>() {
+            public double extract(Integer value) {
+                return value;
+            }
+        }, true);
+        List<Point<Integer>> checkPoints = new ArrayList<Point<Integer>>(locations);
+        for (int i = 0; i < 200; i++) {
+            checkPoints.add(new Point<Integer>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90, null));
+        }
+        for (Point<Integer> q : checkPoints) {
+            double longitude = q.getLongitude(), latitude = q.getLatitude();
+            List<Double> expected = new ArrayList<Double>();
+            int within = 0;
+            double sumWithin = 0;
+            for (Point<Integer> p : datasetPoints) {
+                double angle = angle(longitude, latitude, p);
+                if (angle <= 30) {
+                    expected.add(angle);
+                }
+                if (angle <= 10) {
+                    within++;
+                    sumWithin += p.getValue();
+                }
+            }
+            Collections.sort(expected);
+            // Every point of a group is returned once, and none is farther than the last of the nearest.
+            Map<Point<Integer>, Boolean> returned = new IdentityHashMap<Point<Integer>, Boolean>();
+            for (Point<Integer> p : k.findNearest(longitude, latitude, 30)) {
+                Assert.assertNull(returned.put(p, true));
+                Assert.assertTrue(angle(longitude, latitude, p) <= expected.get(Math.min(30, expected.size()) - 1) + 1E-9);
+            }
+            Assert.assertEquals(Math.min(30, expected.size()), returned.size());
+            Point<Integer> nearest = k.findNearest(longitude, latitude);
+            if (expected.isEmpty()) {
+                Assert.assertNull(nearest);
+            } else {
+                Assert.assertEquals(expected.get(0), angle(longitude, latitude, nearest), 1E-9);
+            }
+            Assert.assertEquals(within, k.countWithin(longitude, latitude, 10));
+            Assert.assertEquals(sumWithin, k.sumWithin(longitude, latitude, 10), 1E-9);
+        }
+        Assert.assertEquals(3000, k.countWithin(0, 0, 180));
+    }
+
     @Test
     public void testRandom() {
         List<Point<Void>> datasetPoints = generateRandomPoints(300);
@@ -60,6 +162,14 @@ public class KDTreeSphericalTest {
         }
     }
 
+    private double angle(double longitude, double latitude, Point<?> p) {
+        double dy = (p.getLatitude() - latitude) / 57.29577951308233;
+        double dx = (p.getLongitude() - longitude) / 57.29577951308233;
+        double a = Math.pow(Math.sin(dy / 2), 2) + Math.cos(p.getLatitude() / 57.29577951308233) * Math.cos(latitude / 57.29577951308233)
+                * Math.pow(Math.sin(dx / 2), 2);
+        return 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a)) * 57.29577951308233;
+    }
+
     private void confirm(double x, double y, Point<Void> calculatedPoint, List<Point<Void>> datasetPoints, double maxDistance) {
         Point<Void> minPoint = getClosest(x, y, datasetPoints, maxDistance);
         if (calculatedPoint != null) {
@@ -0,0 +1,111 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.MemoryFootprint.Variant;
+
+public class MemoryFootprintTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void speedTestMeasuredHeap() {
+        // Compares the layout model with the heap used, which is only approximate, so it's printed and not checked.
+        Random r = new Random(1);
+        int n = 500000;
+        int[] xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = r.nextInt(1000000);
+            ys[i] = r.nextInt(1000000);
+        }
+        KDTreeInt.Point<Void>[] points = (KDTreeInt.Point<Void>[]) new KDTreeInt.Point<?>[n];
+        long before = usedHeap();
+        for (int i = 0; i < n; i++) {
+            points[i] = new KDTreeInt.Point<Void>(xs[i], ys[i], null);
+        }
+        KDTreeInt<Void> tree = new KDTreeInt<Void>(Arrays.asList(points), 0, 0, 999999, 999999);
+        long measured = usedHeap() - before;
+        System.out.println("Measured " + measured + " Estimate " + MemoryFootprint.estimate(Variant.INT, n) + " for KDTreeInt with "
+                + tree.countInRectangle(0, 0, 999999, 999999) + " points.");
+        before = usedHeap();
+        KDTreeIntIds ids = new KDTreeIntIds(xs, ys, 0, 0, 999999, 999999);
+        measured = usedHeap() - before;
+        System.out.println("Measured " + measured + " Estimate " + MemoryFootprint.estimate(Variant.INT_IDS, n) + " for KDTreeIntIds with "
+                + ids.size() + " points, " + tree.countInRectangle(0, 0, 999999, 999999) + " in the other tree.");
+    }
+
+    @Test
+    public void testEstimates() {
+        Random r = new Random();
+        for (int n : new int[] { 0, 1, 2, 63, 64, 65, 1000, 12345 }) {
+            List<KDTreeInt.Point<Void>> intPoints = new ArrayList<KDTreeInt.Point<Void>>();
+            List<KDTreeDouble.Point<Void>> doublePoints = new ArrayList<KDTreeDouble.Point<Void>>();
+            List<KDTreeSpherical.Point<Void>> sphericalPoints = new ArrayList<KDTreeSpherical.Point<Void>>();
+            int[] xs = new int[n], ys = new int[n];
+            double[] dxs = new double[n], dys = new double[n], latitudes = new double[n];
+            for (int i = 0; i < n; i++) {
+                // Few distinct coordinates, so there are duplicates.
+                xs[i] = r.nextInt(100);
+                ys[i] = r.nextInt(100);
+                dxs[i] = xs[i];
+                dys[i] = ys[i];
+                latitudes[i] = ys[i] - 50;
+                intPoints.add(new KDTreeInt.Point<Void>(xs[i], ys[i], null));
+                doublePoints.add(new KDTreeDouble.Point<Void>(dxs[i], dys[i], null));
+                sphericalPoints.add(new KDTreeSpherical.Point<Void>(dxs[i], latitudes[i], null));
+            }
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.INT, n), new KDTreeInt<Void>(intPoints, 0, 0, 100, 100).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.INT, n),
+                    new KDTreeInt<Void>(intPoints, 0, 0, 100, 100, null, SplitStrategy.MEDIAN, true).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.DOUBLE, n), new KDTreeDouble<Void>(doublePoints, 0, 0, 100, 100).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.SPHERICAL, n), new KDTreeSpherical<Void>(sphericalPoints, 10).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.INT_IDS, n), new KDTreeIntIds(xs, ys, 0, 0, 100, 100).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.DOUBLE_IDS, n), new KDTreeDoubleIds(dxs, dys, 0, 0, 100, 100).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.SPHERICAL_IDS, n), new KDTreeSphericalIds(dxs, latitudes, null, 10).getRetainedSize());
+            Assert.assertEquals(MemoryFootprint.estimate(Variant.DOUBLE_COMPACT, n), new KDTreeDoubleCompact(new CoordinateSource() {
+
+                public double getX(int index) {
+                    return index;
+                }
+
+                public double getY(int index) {
+                    return -index;
+                }
+            }, n).getRetainedSize());
+        }
+    }
+
+    @Test
+    public void testSharedStores() {
+        int[] xs = { 1, 2, 3, 4 }, ys = { 4, 3, 2, 1 };
+        double[] dxs = { 1, 2, 3, 4 }, dys = { 4, 3, 2, 1 };
+        // A tree over a store keeps only the tree order.
+        long order = MemoryFootprint.array(4, 4);
+        Assert.assertEquals(MemoryFootprint.object(4 + 4 * MemoryFootprint.REFERENCE + 4 * 4 + 1) + order,
+                new KDTreeIntIds(new PointStoreInt(xs, ys, null), 0, 0, 10, 10).getRetainedSize());
+        // A tree that owns the arrays doesn't keep the order.
+        Assert.assertEquals(MemoryFootprint.object(4 + 4 * MemoryFootprint.REFERENCE + 4 * 4 + 1) + 3 * MemoryFootprint.array(4, 4),
+                new KDTreeIntIds(xs, ys, 0, 0, 10, 10).getRetainedSize());
+        Assert.assertEquals(MemoryFootprint.object(4 + 4 * MemoryFootprint.REFERENCE + 4 * 8 + 1) + order,
+                new KDTreeDoubleIds(new PointStoreDouble(dxs, dys, null), 0, 0, 10, 10).getRetainedSize());
+        Assert.assertEquals(MemoryFootprint.object(4 + 5 * MemoryFootprint.REFERENCE + 8 + 1) + order,
+                new KDTreeSphericalIds(new PointStoreSpherical(dxs, dys, null), 10).getRetainedSize());
+        try {
+            MemoryFootprint.estimate(Variant.INT, -1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
@@ -0,0 +1,196 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MovingIndexIntTest {
+
+    @Test
+    public void speedTestUpdates() {
+        Random r = new Random(1);
+        int n = 500000;
+        int[] xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = r.nextInt(1000000);
+            ys[i] = r.nextInt(1000000);
+        }
+        MovingIndexInt index = new MovingIndexInt(xs, ys, 0, 0, 999999, 999999);
+        for (int step : new int[] { 10, 10000 }) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 2000000; i++) {
+                int id = r.nextInt(n);
+                xs[id] = Math.max(0, Math.min(999999, xs[id] + r.nextInt(2 * step + 1) - step));
+                ys[id] = Math.max(0, Math.min(999999, ys[id] + r.nextInt(2 * step + 1) - step));
+                index.update(id, xs[id], ys[id]);
+            }
+            System.out.println("Sum " + index.size() + " Time " + (System.nanoTime() - start) / 2000000 + " for updates of moves up to " + step + ".");
+        }
+        for (boolean rebalanced : new boolean[] { false, true }) {
+            if (rebalanced) {
+                long start = System.nanoTime();
+                index.rebalance();
+                System.out.println("Sum " + index.size() + " Time " + (System.nanoTime() - start) + " for rebalance.");
+            }
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 100000; i++) {
+                sum += index.findNearest(r.nextInt(1000000), r.nextInt(1000000), Integer.MAX_VALUE);
+            }
+            System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / 100000 + " for lookups" + (rebalanced ? " after rebalance." : "."));
+        }
+    }
+
+    @Test
+    public void testConcurrentRebalance() throws Exception {
+        final Random r = new Random();
+        final int n = 20000;
+        final int[] xs = new int[n], ys = new int[n];
+        final MovingIndexInt index = new MovingIndexInt(0, 0, 99999, 99999);
+        for (int i = 0; i < n; i++) {
+            xs[i] = r.nextInt(100000);
+            ys[i] = r.nextInt(100000);
+            index.update(i, xs[i], ys[i]);
+        }
+        // Updates run while the index is rebalanced over and over on another thread.
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledFuture<?> rebalancing = index.scheduleRebalancing(executor, 1, TimeUnit.MILLISECONDS);
+        boolean[] removed = new boolean[n];
+        for (int i = 0; i < 300000; i++) {
+            int id = r.nextInt(n);
+            if (r.nextInt(20) == 0) {
+                removed[id] = true;
+                index.remove(id);
+            } else {
+                removed[id] = false;
+                xs[id] = Math.max(0, Math.min(99999, xs[id] + r.nextInt(2001) - 1000));
+                ys[id] = Math.max(0, Math.min(99999, ys[id] + r.nextInt(2001) - 1000));
+                index.update(id, xs[id], ys[id]);
+            }
+        }
+        rebalancing.cancel(false);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        int present = 0;
+        for (boolean b : removed) {
+            present += b ? 0 : 1;
+        }
+        Assert.assertEquals(present, index.size());
+        check(index, xs, ys, removed, r);
+    }
+
+    @Test
+    public void testUpdates() {
+        Random r = new Random();
+        int n = 3000;
+        int[] xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = r.nextInt(100000);
+            ys[i] = r.nextInt(100000);
+        }
+        MovingIndexInt index = new MovingIndexInt(xs, ys, 0, 0, 99999, 99999);
+        boolean[] removed = new boolean[n + 100];
+        int[] allXs = new int[n + 100], allYs = new int[n + 100];
+        System.arraycopy(xs, 0, allXs, 0, n);
+        System.arraycopy(ys, 0, allYs, 0, n);
+        for (int i = n; i < allXs.length; i++) {
+            removed[i] = true;
+        }
+        for (int round = 0; round < 20; round++) {
+            // Small moves, jumps, removals and new ids, with the points crowding into a corner.
+            for (int i = 0; i < 1000; i++) {
+                int id = r.nextInt(allXs.length);
+                int kind = r.nextInt(10);
+                if (kind == 0) {
+                    Assert.assertEquals(!removed[id], index.remove(id));
+                    removed[id] = true;
+                } else {
+                    int step = kind < 7 ? 100 : 50000;
+                    allXs[id] = Math.max(0, Math.min(99999, allXs[id] + r.nextInt(2 * step + 1) - step - round * 10));
+                    allYs[id] = Math.max(0, Math.min(99999, allYs[id] + r.nextInt(2 * step + 1) - step - round * 10));
+                    index.update(id, allXs[id], allYs[id]);
+                    removed[id] = false;
+                }
+            }
+            check(index, allXs, allYs, removed, r);
+            if (round % 5 == 4) {
+                index.rebalance();
+                check(index, allXs, allYs, removed, r);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyAndDuplicates() {
+        MovingIndexInt index = new MovingIndexInt(-10, -10, 10, 10);
+        Assert.assertEquals(-1, index.findNearest(0, 0, Integer.MAX_VALUE));
+        Assert.assertEquals(0, index.findNearest(0, 0, Integer.MAX_VALUE, 5).length);
+        // More points at one position than fit into a cell.
+        for (int i = 0; i < 100; i++) {
+            index.update(i, 3, 3);
+        }
+        index.rebalance();
+        Assert.assertEquals(100, index.size());
+        Assert.assertEquals(50, index.findNearest(-10, -10, Integer.MAX_VALUE, 50).length);
+        Assert.assertEquals(0, index.findNearest(-10, -10, Integer.MAX_VALUE, -1).length);
+        Assert.assertEquals(-1, index.findNearest(-10, -10, 5));
+        Assert.assertFalse(index.remove(100));
+        Assert.assertFalse(index.remove(-1));
+        try {
+            index.update(0, 11, 0);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testFullRange() {
+        int min = Integer.MIN_VALUE, max = Integer.MAX_VALUE;
+        MovingIndexInt index = new MovingIndexInt(new int[] { min, max, 0, max }, new int[] { min, max, 0, min }, min, min, max, max);
+        Assert.assertEquals(0, index.findNearest(min, min, Integer.MAX_VALUE));
+        Assert.assertEquals(1, index.findNearest(max, max, 0));
+        Assert.assertEquals(3, index.findNearest(max, min + 1, 1));
+        // The corners are out of the max distance from the center.
+        Assert.assertArrayEquals(new int[] { 2 }, index.findNearest(0, 0, Integer.MAX_VALUE, 4));
+        Assert.assertArrayEquals(new int[] { 0, 2 }, index.findNearest(min / 2, min / 2 - 1, Integer.MAX_VALUE, 4));
+        Assert.assertArrayEquals(new int[] { 1 }, index.findNearest(max, max / 2, Integer.MAX_VALUE, 4));
+    }
+
+    private void check(MovingIndexInt index, int[] xs, int[] ys, boolean[] removed, Random r) {
+        for (int i = 0; i < 200; i++) {
+            int x = r.nextInt(100000), y = r.nextInt(100000);
+            List<Long> expected = new ArrayList<Long>();
+            for (int id = 0; id < xs.length; id++) {
+                if (!removed[id]) {
+                    long dx = xs[id] - x, dy = ys[id] - y;
+                    if (dx * dx + dy * dy <= 20000L * 20000) {
+                        expected.add(dx * dx + dy * dy);
+                    }
+                }
+            }
+            Collections.sort(expected);
+            int[] nearest = index.findNearest(x, y, 20000, 10);
+            Assert.assertEquals(Math.min(10, expected.size()), nearest.length);
+            for (int j = 0; j < nearest.length; j++) {
+                Assert.assertFalse(removed[nearest[j]]);
+                long dx = xs[nearest[j]] - x, dy = ys[nearest[j]] - y;
+                Assert.assertEquals(expected.get(j).longValue(), dx * dx + dy * dy);
+            }
+            int closest = index.findNearest(x, y, 20000);
+            if (expected.isEmpty()) {
+                Assert.assertEquals(-1, closest);
+            } else {
+                long dx = xs[closest] - x, dy = ys[closest] - y;
+                Assert.assertEquals(expected.get(0).longValue(), dx * dx + dy * dy);
+            }
+        }
+    }
+}
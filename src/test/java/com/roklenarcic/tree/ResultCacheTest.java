@@ -0,0 +1,58 @@
+package com.roklenarcic.tree;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+    @Test
+    public void testEviction() {
+        ResultCache<String> cache = new ResultCache<String>(160);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new ResultCache.Key(i, 0, 0, 1), "v" + i, cache.generation());
+        }
+        Assert.assertTrue(cache.size() <= 160);
+        Assert.assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        Assert.assertEquals("v999", cache.get(new ResultCache.Key(999, 0, 0, 1)));
+    }
+
+    @Test
+    public void testMaximumSize() {
+        for (int maximumSize = 1; maximumSize <= 40; maximumSize++) {
+            ResultCache<String> cache = new ResultCache<String>(maximumSize);
+            for (int i = 0; i < 1000; i++) {
+                cache.put(new ResultCache.Key(i, -i, 0, 1), "v" + i, cache.generation());
+                Assert.assertTrue(cache.size() <= maximumSize);
+            }
+            // The last result put is always kept.
+            Assert.assertEquals("v999", cache.get(new ResultCache.Key(999, -999, 0, 1)));
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        // With size 16 every segment holds a single result.
+        ResultCache<String> cache = new ResultCache<String>(16);
+        ResultCache.Key key = new ResultCache.Key(1, 2, 3, 1);
+        cache.put(key, "a", cache.generation());
+        for (int i = 0; i < 1000; i++) {
+            ResultCache.Key other = new ResultCache.Key(i, i, 0, 2);
+            cache.put(other, "b", cache.generation());
+        }
+        Assert.assertEquals(null, cache.get(key));
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testStaleGeneration() {
+        ResultCache<String> cache = new ResultCache<String>(100);
+        ResultCache.Key key = new ResultCache.Key(1, 2, 3, 1);
+        int generation = cache.generation();
+        cache.clear();
+        cache.put(key, "stale", generation);
+        Assert.assertEquals(null, cache.get(key));
+        cache.put(key, "fresh", cache.generation());
+        Assert.assertEquals("fresh", cache.get(key));
+        Assert.assertEquals(0.5, cache.getHitRate(), 0);
+    }
+}
@@ -0,0 +1,127 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.tree.KDTreeSpherical.Point;
+
+public class ShardedKDTreeSphericalTest {
+
+    @Test
+    public void speedTestRandom() {
+        ShardedKDTreeSpherical<Void> k = new ShardedKDTreeSpherical<Void>(generateRandomPoints(40000), 2, 10);
+        List<Point<Void>> checkPoints = generateRandomPoints(1000);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 100; i++) {
+            for (Point<Void> p : checkPoints) {
+                Point<Void> found = k.findNearest(p.getLongitude(), p.getLatitude());
+                sum += found == null ? 0 : found.getLongitude();
+            }
+        }
+        System.out.println("Sum " + sum + " Time " + (System.nanoTime() - start) / (100 * checkPoints.size()));
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(3000);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000);
+        // Poles and the date line.
+        checkPoints.add(new Point<Void>(180, 89.9, null));
+        checkPoints.add(new Point<Void>(-180, -90, null));
+        for (double maxDistance : new double[] { 3, 20, 180 }) {
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            ShardedKDTreeSpherical<Void> k = new ShardedKDTreeSpherical<Void>(copy(datasetPoints), maxDistance, 10, executor);
+            executor.shutdown();
+            KDTreeSpherical<Void> tree = new KDTreeSpherical<Void>(copy(datasetPoints), maxDistance);
+            for (Point<Void> p : checkPoints) {
+                Iterator<Point<Void>> expected = tree.findNearest(p.getLongitude(), p.getLatitude(), 5).iterator();
+                Iterator<Point<Void>> found = k.findNearest(p.getLongitude(), p.getLatitude(), 5).iterator();
+                while (expected.hasNext()) {
+                    Assert.assertEquals(distance(p, expected.next()), distance(p, found.next()), 1E-12);
+                }
+                Assert.assertEquals(false, found.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        List<Point<Void>> datasetPoints = generateRandomPoints(3000);
+        List<Point<Void>> checkPoints = generateRandomPoints(2000);
+        ShardedKDTreeSpherical<Void> k = new ShardedKDTreeSpherical<Void>(datasetPoints, 10, 5);
+        Assert.assertEquals(72 * 36, k.getShardCount());
+        for (Point<Void> p : checkPoints) {
+            double minDist = Double.MAX_VALUE;
+            for (Point<Void> d : datasetPoints) {
+                minDist = Math.min(minDist, distance(p, d));
+            }
+            Point<Void> found = k.findNearest(p.getLongitude(), p.getLatitude());
+            if (minDist <= 10) {
+                Assert.assertEquals(minDist, distance(p, found), 1E-9);
+            } else {
+                Assert.assertEquals(null, found);
+            }
+        }
+    }
+
+    @Test
+    public void testRebuildShard() {
+        List<Point<Void>> datasetPoints = new ArrayList<Point<Void>>();
+        datasetPoints.add(new Point<Void>(1, 1, null));
+        datasetPoints.add(new Point<Void>(-1, 1, null));
+        ShardedKDTreeSpherical<Void> k = new ShardedKDTreeSpherical<Void>(datasetPoints, 5, 10);
+        Assert.assertEquals(1, k.findNearest(2, 1).getLongitude(), 0);
+        List<Point<Void>> tile = new ArrayList<Point<Void>>();
+        tile.add(new Point<Void>(9, 9, null));
+        k.rebuildShard(5, 5, tile);
+        Assert.assertEquals(-1, k.findNearest(2, 1).getLongitude(), 0);
+        Assert.assertEquals(9, k.findNearest(8, 8).getLongitude(), 0);
+        try {
+            k.rebuildShard(5, 5, datasetPoints);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testTileSize() {
+        try {
+            new ShardedKDTreeSpherical<Void>(new ArrayList<Point<Void>>(), 5, 7);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private List<Point<Void>> copy(List<Point<Void>> points) {
+        // Building a tree changes the points, so every tree gets its own.
+        List<Point<Void>> l = new ArrayList<Point<Void>>();
+        for (Point<Void> p : points) {
+            l.add(new Point<Void>(p.getLongitude(), p.getLatitude(), null));
+        }
+        return l;
+    }
+
+    private double distance(Point<Void> a, Point<Void> b) {
+        double lat1 = Math.toRadians(a.getLatitude()), lat2 = Math.toRadians(b.getLatitude());
+        double dLon = Math.toRadians(b.getLongitude() - a.getLongitude());
+        double cos = Math.sin(lat1) * Math.sin(lat2) + Math.cos(lat1) * Math.cos(lat2) * Math.cos(dLon);
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cos))));
+    }
+
+    private List<Point<Void>> generateRandomPoints(int number) {
+        Random r = new Random();
+        List<Point<Void>> l = new ArrayList<KDTreeSpherical.Point<Void>>();
+        for (int i = 0; i < number; i++) {
+            l.add(new Point<Void>(r.nextDouble() * 360 - 180, r.nextDouble() * 180 - 90, null));
+        }
+        return l;
+    }
+}
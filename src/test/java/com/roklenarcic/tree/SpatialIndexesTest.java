@@ -0,0 +1,36 @@
+package com.roklenarcic.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpatialIndexesTest {
+
+    @Test
+    public void testClustered() {
+        Random r = new Random();
+        List<KDTreeInt.Point<Void>> points = new ArrayList<KDTreeInt.Point<Void>>();
+        for (int i = 0; i < 10000; i++) {
+            // Cities of 1000 points each.
+            int city = i / 1000;
+            points.add(new KDTreeInt.Point<Void>(city * 90000 + r.nextInt(1000), city * 90000 + r.nextInt(1000), null));
+        }
+        Assert.assertTrue(SpatialIndexes.newIndexInt(points, 0, 0, 1000000, 1000000) instanceof KDTreeInt);
+    }
+
+    @Test
+    public void testUniform() {
+        Random r = new Random();
+        List<KDTreeInt.Point<Void>> points = new ArrayList<KDTreeInt.Point<Void>>();
+        List<KDTreeDouble.Point<Void>> doublePoints = new ArrayList<KDTreeDouble.Point<Void>>();
+        for (int i = 0; i < 10000; i++) {
+            points.add(new KDTreeInt.Point<Void>(r.nextInt(1000000), r.nextInt(1000000), null));
+            doublePoints.add(new KDTreeDouble.Point<Void>(r.nextDouble() * 1000000, r.nextDouble() * 1000000, null));
+        }
+        Assert.assertTrue(SpatialIndexes.newIndexInt(points, 0, 0, 1000000, 1000000) instanceof GridIndexInt);
+        Assert.assertTrue(SpatialIndexes.newIndexDouble(doublePoints, 0, 0, 1000000, 1000000) instanceof GridIndexDouble);
+    }
+}